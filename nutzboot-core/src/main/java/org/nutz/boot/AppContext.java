@@ -2,6 +2,7 @@ package org.nutz.boot;
 
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
@@ -10,6 +11,7 @@ import org.nutz.boot.config.ConfigureLoader;
 import org.nutz.boot.env.EnvHolder;
 import org.nutz.boot.resource.ResourceLoader;
 import org.nutz.boot.starter.ServerFace;
+import org.nutz.boot.tools.StarterGraphRunner;
 import org.nutz.ioc.Ioc;
 import org.nutz.ioc.impl.PropertiesProxy;
 import org.nutz.ioc.loader.combo.ComboIocLoader;
@@ -279,10 +281,25 @@ public class AppContext implements LifeCycle {
      * 循环调用starter的init方法
      */
     public void init() throws Exception {
+        List<Object> list = new ArrayList<>();
         for (Object object : starters) {
             if (object instanceof LifeCycle)
-                ((LifeCycle) object).init();
+                list.add(object);
         }
+        StarterGraphRunner runner = new StarterGraphRunner();
+        runner.run(list, (starter) -> ((LifeCycle) starter).init(), getStarterThreads());
+        if (log.isDebugEnabled() && !list.isEmpty())
+            log.debug("starter init timings :" + runner.report());
+    }
+
+    /**
+     * 并发启动starter的线程数, 未开启并发启动时返回1
+     */
+    protected int getStarterThreads() {
+        PropertiesProxy conf = getConf();
+        if (conf == null || !conf.getBoolean("nutz.boot.starter.parallel", false))
+            return 1;
+        return conf.getInt("nutz.boot.starter.parallel.poolSize", Runtime.getRuntime().availableProcessors());
     }
 
     public void fetch() throws Exception {}
@@ -299,16 +316,19 @@ public class AppContext implements LifeCycle {
             ioc.depose();
     }
     
-    protected List<ServerFace> serverFaces = new LinkedList<>();
+    protected List<ServerFace> serverFaces = Collections.synchronizedList(new LinkedList<>());
 
     /**
-     * 循环调用ServerFace的start方法,通常是一个starter
+     * 循环调用ServerFace的start方法,通常是一个starter. 开启nutz.boot.starter.parallel后按依赖关系并发启动
      */
     public void startServers() throws Exception {
-        for (ServerFace face : getBeans(ServerFace.class)) {
-            serverFaces.add(face);
-            face.start();
-        }
+        StarterGraphRunner runner = new StarterGraphRunner();
+        runner.run(getBeans(ServerFace.class), (starter) -> {
+            serverFaces.add((ServerFace) starter);
+            ((ServerFace) starter).start();
+        }, getStarterThreads());
+        if (log.isDebugEnabled())
+            log.debug("server start timings :" + runner.report());
     }
 
     /**
@@ -7,9 +7,16 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.nutz.boot.annotation.PropDoc;
 import org.nutz.boot.aware.AppContextAware;
 import org.nutz.boot.aware.ClassLoaderAware;
 import org.nutz.boot.aware.EnvHolderAware;
@@ -20,14 +27,18 @@ import org.nutz.boot.config.ConfigureLoader;
 import org.nutz.boot.config.impl.PropertiesConfigureLoader;
 import org.nutz.boot.env.SystemPropertiesEnvHolder;
 import org.nutz.boot.ioc.IocLoaderProvider;
+import org.nutz.boot.ioc.IocProfileMonitor;
+import org.nutz.boot.ioc.NbIoc;
+import org.nutz.boot.metrics.CounterService;
 import org.nutz.boot.metrics.impl.MemoryCounterService;
 import org.nutz.boot.resource.ResourceLoader;
 import org.nutz.boot.resource.impl.SimpleResourceLoader;
 import org.nutz.boot.tools.NbAppEventListener;
 import org.nutz.boot.tools.NbAppEventListener.EventType;
 import org.nutz.boot.tools.PropDocReader;
+import org.nutz.boot.tools.StarterIndexProcessor;
+import org.nutz.boot.tools.StartupSnapshot;
 import org.nutz.ioc.IocLoader;
-import org.nutz.ioc.impl.NutIoc;
 import org.nutz.ioc.impl.PropertiesProxy;
 import org.nutz.ioc.loader.annotation.AnnotationIocLoader;
 import org.nutz.ioc.loader.annotation.IocBean;
@@ -50,6 +61,9 @@ import org.nutz.resource.impl.JarResourceLocation;
  */
 public class NbApp extends Thread {
 
+    @PropDoc(value = "计数服务CounterService的实现类名, 需要有无参构造方法", defaultValue = "org.nutz.boot.metrics.impl.MemoryCounterService")
+    public static final String PROP_COUNTER_SERVICE = "nutz.metrics.counterService";
+
     /**
      * 日志属性要等日志适配器准备好了才能加载,这里不可以使用Logs.get();
      */
@@ -98,6 +112,21 @@ public class NbApp extends Thread {
     
     protected boolean started;
 
+    /**
+     * 各启动阶段的耗时
+     */
+    protected Map<String, Long> phaseTimings = new LinkedHashMap<>();
+
+    /**
+     * 启动快照模式, record或replay, 由nutz.boot.snapshot.mode配置
+     */
+    protected String snapshotMode;
+
+    /**
+     * replay模式下成功读取的快照, record模式下正在记录的快照
+     */
+    protected StartupSnapshot snapshot;
+
     /**
      * 创建一个NbApp,把调用本构造方法的类作为mainClass
      */
@@ -203,13 +232,24 @@ public class NbApp extends Thread {
 
             // 依次启动
             listeners.forEach((listener)->listener.whenInitAppContext(this, EventType.before));
+            long start = System.nanoTime();
             ctx.init();
+            timing("initAppContext", start);
             listeners.forEach((listener)->listener.whenInitAppContext(this, EventType.after));
 
             listeners.forEach((listener)->listener.whenStartServers(this, EventType.before));
+            start = System.nanoTime();
             ctx.startServers();
+            timing("startServers", start);
             listeners.forEach((listener)->listener.whenStartServers(this, EventType.after));
 
+            // 端口已经打开, 之后的bean按正常方式创建
+            if (ctx.getIoc() instanceof NbIoc) {
+                ((NbIoc) ctx.getIoc()).setLazy(false);
+                if (log.isDebugEnabled())
+                    log.debug("ioc bean create cost :\r\n" + new IocProfileMonitor((NbIoc) ctx.getIoc()).getMonitorForPrint());
+            }
+
             if (ctx.getMainClass().getAnnotation(IocBean.class) != null)
                 ctx.getIoc().get(ctx.getMainClass());
 
@@ -217,6 +257,10 @@ public class NbApp extends Thread {
 
             sw.stop();
             log.infof("%s started : %sms", ctx.getConf().get("nutz.application.name", "NB"),  sw.du());
+            if (log.isDebugEnabled())
+                log.debugf("startup phases(ms) : %s", phaseTimings);
+            if (StartupSnapshot.MODE_RECORD.equals(snapshotMode))
+                saveSnapshot();
             started = true;
             return true;
         }
@@ -256,7 +300,9 @@ public class NbApp extends Thread {
             return;
         // 初始化上下文
         listeners.forEach((listener)->listener.whenPrepareBasic(this, EventType.before));
+        long start = System.nanoTime();
         this.prepareBasic();
+        timing("prepareBasic", start);
         listeners.forEach((listener)->listener.whenPrepareBasic(this, EventType.after));
 
         // 打印Banner,暂时不可配置具体的类
@@ -265,7 +311,9 @@ public class NbApp extends Thread {
         // 配置信息要准备好
 
         listeners.forEach((listener)->listener.whenPrepareConfigureLoader(this, EventType.before));
+        start = System.nanoTime();
         this.prepareConfigureLoader();
+        timing("prepareConfigureLoader", start);
         listeners.forEach((listener)->listener.whenPrepareConfigureLoader(this, EventType.after));
 
         // 配置信息准备好后,进行外部jar包对象Scan
@@ -286,18 +334,24 @@ public class NbApp extends Thread {
 
         // 创建IocLoader体系
         listeners.forEach((listener)->listener.whenPrepareIocLoader(this, EventType.before));
+        start = System.nanoTime();
         prepareIocLoader();
+        timing("prepareIocLoader", start);
         listeners.forEach((listener)->listener.whenPrepareIocLoader(this, EventType.after));
 
         // 加载各种starter
         listeners.forEach((listener)->listener.whenPrepareStarterClassList(this, EventType.before));
+        start = System.nanoTime();
         prepareStarterClassList();
+        timing("prepareStarterClassList", start);
         listeners.forEach((listener)->listener.whenPrepareStarterClassList(this, EventType.after));
 
         // 打印配置文档
         if (printProcDoc) {
+            start = System.nanoTime();
             PropDocReader docReader = new PropDocReader();
             docReader.load(starterClasses);
+            docReader.addClass(NbApp.class);
             if (getAppContext().getConf().get("nutz.propdoc.packages") != null) {
                 for (String pkg : Strings.splitIgnoreBlank(getAppContext().getConf().get("nutz.propdoc.packages"))) {
                     for (Class<?> klass : Scans.me().scanPackage(pkg)) {
@@ -308,16 +362,21 @@ public class NbApp extends Thread {
                 }
             }
             Logs.get().info("Configure Manual:\r\n" + docReader.toMarkdown());
+            timing("printProcDoc", start);
         }
 
         // 创建Ioc容器
         listeners.forEach((listener)->listener.whenPrepareIoc(this, EventType.before));
+        start = System.nanoTime();
         prepareIoc();
+        timing("prepareIoc", start);
         listeners.forEach((listener)->listener.whenPrepareIoc(this, EventType.after));
 
         // 生成Starter实例
         listeners.forEach((listener)->listener.whenPrepareStarterInstance(this, EventType.before));
+        start = System.nanoTime();
         prepareStarterInstance();
+        timing("prepareStarterInstance", start);
         listeners.forEach((listener)->listener.whenPrepareStarterInstance(this, EventType.after));
 
         // 从Ioc容器检索Listener
@@ -326,6 +385,22 @@ public class NbApp extends Thread {
         prepared = true;
     }
 
+    /**
+     * 记录某个启动阶段的耗时, 并通知NbAppEventListener
+     */
+    protected void timing(String phase, long startNanos) {
+        long cost = (System.nanoTime() - startNanos) / 1000000;
+        phaseTimings.put(phase, cost);
+        listeners.forEach((listener)->listener.whenPhaseDone(this, phase, cost));
+    }
+
+    /**
+     * 各个启动阶段的耗时,单位毫秒,按执行顺序排列
+     */
+    public Map<String, Long> getPhaseTimings() {
+        return phaseTimings;
+    }
+
     public void prepareBasic() throws Exception {
         // 检查ClassLoader的情况
         if (ctx.getClassLoader() == null)
@@ -372,6 +447,12 @@ public class NbApp extends Thread {
     }
 
     public void prepareIocLoader() throws Exception {
+        snapshotMode = ctx.getConf().get("nutz.boot.snapshot.mode");
+        if (StartupSnapshot.MODE_REPLAY.equals(snapshotMode))
+            snapshot = StartupSnapshot.load(getSnapshotFile(), ctx.getMainClass(), ctx.getClassLoader());
+        else if (StartupSnapshot.MODE_RECORD.equals(snapshotMode))
+            snapshot = new StartupSnapshot();
+        boolean replay = snapshot != null && StartupSnapshot.MODE_REPLAY.equals(snapshotMode);
         if (ctx.getComboIocLoader() == null) {
             int asyncPoolSize = ctx.getConfigureLoader().get().getInt("nutz.ioc.async.poolSize", 64);
             List<String> args = new ArrayList<>();
@@ -380,8 +461,11 @@ public class NbApp extends Thread {
             args.add("*tx");
             args.add("*async");
             args.add("" + asyncPoolSize);
-            args.add("*anno");
-            args.add(ctx.getPackage());
+            // 有快照的话, 主程序package不再扫描, 直接使用快照中的类
+            if (!replay) {
+                args.add("*anno");
+                args.add(ctx.getPackage());
+            }
             IocBy iocBy = ctx.getMainClass().getAnnotation(IocBy.class);
             if (iocBy != null) {
                 String[] tmp = iocBy.args();
@@ -416,6 +500,12 @@ public class NbApp extends Thread {
                 }
             }
             ctx.setComboIocLoader(new ComboIocLoader(args.toArray(new String[args.size()])));
+            if (replay) {
+                AnnotationIocLoader loader = new AnnotationIocLoader();
+                for (String className : snapshot.beans)
+                    loader.addClass(ctx.getClassLoader().loadClass(className));
+                ctx.getComboIocLoader().addLoader(loader);
+            }
         }
         // 用于加载Starter的IocLoader
         starterIocLoader = new AnnotationIocLoader(NbApp.class.getPackage().getName() + ".starter");
@@ -423,11 +513,23 @@ public class NbApp extends Thread {
     }
 
     public void prepareStarterClassList() throws Exception {
+        if (snapshot != null && StartupSnapshot.MODE_REPLAY.equals(snapshotMode)) {
+            for (String className : snapshot.starterBeans)
+                starterIocLoader.addClass(ctx.getClassLoader().loadClass(className));
+            for (String className : snapshot.starters)
+                starterClasses.add(ctx.getClassLoader().loadClass(className));
+            return;
+        }
         HashSet<String> classNames = new HashSet<>();
-        Enumeration<URL> _en = ctx.getClassLoader().getResources("META-INF/nutz/org.nutz.boot.starter.NbStarter");
+        // 需要扫描package的starter, 以及对应的索引(可能为null)
+        List<Class<?>> scanStarters = new ArrayList<>();
+        List<List<String>> scanIndexes = new ArrayList<>();
+        boolean useIndex = ctx.getConf().getBoolean("nutz.boot.starter.index", true);
+        Enumeration<URL> _en = ctx.getClassLoader().getResources(StarterIndexProcessor.STARTER_PATH);
         while (_en.hasMoreElements()) {
             URL url = _en.nextElement();
             log.debug("Found " + url);
+            List<String> index = null;
             try (InputStream ins = url.openStream()) {
                 InputStreamReader reader = new InputStreamReader(ins);
                 String tmp = Streams.readAndClose(reader);
@@ -439,11 +541,12 @@ public class NbApp extends Thread {
                         Class<?> klass = ctx.getClassLoader().loadClass(className);
                         if (!klass.getPackage().getName().startsWith(NbApp.class.getPackage().getName()) && klass.getAnnotation(IocBean.class) != null) {
                         	if (IocLoader.class.isAssignableFrom(klass))
-                        		starterIocLoader.addClass(klass);
+                        		addStarterBean(klass);
                         	else {
-                            	for (Class<?> classZ : Scans.me().scanPackage(klass.getPackage().getName())) {
-                                    starterIocLoader.addClass(classZ);
-                                }
+                        	    if (index == null && useIndex)
+                        	        index = readStarterIndex(url);
+                        	    scanStarters.add(klass);
+                        	    scanIndexes.add(index);
                         	}
                         }
                         starterClasses.add(klass);
@@ -451,11 +554,128 @@ public class NbApp extends Thread {
                 }
             }
         }
+        for (List<Class<?>> klasses : scanStarterPackages(scanStarters, scanIndexes)) {
+            for (Class<?> classZ : klasses) {
+                addStarterBean(classZ);
+            }
+        }
+        if (snapshot != null) {
+            for (Class<?> klass : starterClasses)
+                snapshot.starters.add(klass.getName());
+        }
+    }
+
+    protected void addStarterBean(Class<?> klass) {
+        starterIocLoader.addClass(klass);
+        if (snapshot != null)
+            snapshot.starterBeans.add(klass.getName());
+    }
+
+    /**
+     * 快照文件路径, 由nutz.boot.snapshot.path配置, 默认是工作目录下的nutzboot.snapshot
+     */
+    protected File getSnapshotFile() {
+        return new File(ctx.getConf().get("nutz.boot.snapshot.path", "nutzboot.snapshot"));
+    }
+
+    /**
+     * 训练运行结束, 保存快照及AppCDS类列表
+     */
+    protected void saveSnapshot() {
+        try {
+            snapshot.stamp = StartupSnapshot.stampOf(ctx.getMainClass());
+            snapshot.recordBeans(ctx.getPackage());
+            File f = getSnapshotFile();
+            snapshot.save(f);
+            snapshot.writeClassList(new File(f.getAbsolutePath() + ".classlist"));
+        }
+        catch (Throwable e) {
+            log.warn("save startup snapshot fail", e);
+        }
+    }
+
+    /**
+     * 读取与NbStarter声明文件同一个jar内的bean索引(由StarterIndexProcessor在编译期生成)
+     * 
+     * @return 类名列表, 不存在时返回null
+     */
+    protected List<String> readStarterIndex(URL starterUrl) {
+        try {
+            URL url = new URL(starterUrl.toString() + ".index");
+            try (InputStream ins = url.openStream()) {
+                List<String> list = new ArrayList<>();
+                for (String line : Strings.splitIgnoreBlank(Streams.readAndClose(new InputStreamReader(ins)), "[\n]")) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#"))
+                        list.add(line);
+                }
+                return list;
+            }
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 获取starter所在package的类. 有索引的直接从索引中取, 否则扫描, 多个扫描并行执行
+     * 
+     * @return 与starters一一对应的类列表
+     */
+    protected List<List<Class<?>>> scanStarterPackages(List<Class<?>> starters, List<List<String>> indexes) throws Exception {
+        List<List<Class<?>>> re = new ArrayList<>();
+        List<Future<List<Class<?>>>> futures = new ArrayList<>();
+        ExecutorService es = null;
+        try {
+            for (int i = 0; i < starters.size(); i++) {
+                String pkg = starters.get(i).getPackage().getName();
+                List<Class<?>> klasses = loadStarterIndex(pkg, indexes.get(i));
+                if (klasses != null) {
+                    futures.add(CompletableFuture.completedFuture(klasses));
+                    continue;
+                }
+                if (es == null)
+                    es = Executors.newFixedThreadPool(Math.max(1, Math.min(starters.size(), Runtime.getRuntime().availableProcessors())));
+                futures.add(es.submit(() -> Scans.me().scanPackage(pkg)));
+            }
+            for (Future<List<Class<?>>> future : futures) {
+                re.add(future.get());
+            }
+        }
+        finally {
+            if (es != null)
+                es.shutdown();
+        }
+        return re;
+    }
+
+    /**
+     * 按索引加载starter所在package的类, 索引中的类加载失败(索引过期)时返回null, 改为扫描
+     */
+    protected List<Class<?>> loadStarterIndex(String pkg, List<String> index) {
+        if (index == null)
+            return null;
+        List<Class<?>> klasses = new ArrayList<>();
+        for (String className : index) {
+            if (!className.startsWith(pkg + "."))
+                continue;
+            try {
+                klasses.add(ctx.getClassLoader().loadClass(className));
+            }
+            catch (ClassNotFoundException | LinkageError e) {
+                log.debugf("starter index of %s is stale (%s), fallback to scan", pkg, className);
+                return null;
+            }
+        }
+        return klasses;
     }
 
     public void prepareIoc() {
         if (ctx.getIoc() == null) {
-            ctx.setIoc(new NutIoc(ctx.getComboIocLoader()));
+            NbIoc ioc = new NbIoc(ctx.getComboIocLoader());
+            // 启动期间, 以接口声明的依赖延迟到首次使用时才创建
+            ioc.setLazy(ctx.getConf().getBoolean("nutz.ioc.lazy", false));
+            ctx.setIoc(ioc);
         }
         // 把核心对象放进ioc容器
         if (!ctx.ioc.has("appContext")) {
@@ -463,11 +683,29 @@ public class NbApp extends Thread {
         	ctx.ioc.addBean("conf", ctx.getConf());
         	ctx.ioc.addBean("nbApp", this);
             // 添加更多扩展bean
-        	ctx.ioc.addBean("counterService", new MemoryCounterService());
+        	if (!ctx.ioc.has("counterService"))
+        	    ctx.ioc.addBean("counterService", createCounterService());
+        	if (ctx.ioc instanceof NbIoc)
+        	    ctx.ioc.addBean("iocProfileMonitor", new IocProfileMonitor((NbIoc) ctx.ioc));
         }
         Mvcs.ctx().iocs.put("nutz", ctx.getIoc());
     }
 
+    /**
+     * 计数服务的实现可以通过 nutz.metrics.counterService 指定类名替换
+     */
+    protected CounterService createCounterService() {
+        String klassName = ctx.getConf().get(PROP_COUNTER_SERVICE);
+        if (Strings.isBlank(klassName))
+            return new MemoryCounterService();
+        try {
+            return (CounterService) Mirror.me(ctx.getClassLoader().loadClass(klassName)).born();
+        }
+        catch (ClassNotFoundException e) {
+            throw Lang.wrapThrow(e);
+        }
+    }
+
     public void prepareStarterInstance() {
         for (Class<?> klass : starterClasses) {
             Object obj;
@@ -0,0 +1,53 @@
+package org.nutz.boot.ioc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.nutz.boot.starter.MonitorObject;
+import org.nutz.lang.util.NutMap;
+
+/**
+ * 以MonitorObject的形式输出每个bean的创建耗时(毫秒)及创建期间分配的内存(KB), 按耗时从高到低排列
+ * 
+ * @author wendal
+ *
+ */
+public class IocProfileMonitor implements MonitorObject {
+
+    protected NbIoc ioc;
+
+    public IocProfileMonitor(NbIoc ioc) {
+        this.ioc = ioc;
+    }
+
+    public String getMonitorName() {
+        return "ioc";
+    }
+
+    public Collection<String> getMonitorKeys() {
+        List<String> keys = new ArrayList<>();
+        for (Object[] record : ioc.getCreateRecords())
+            keys.add((String) record[0]);
+        return keys;
+    }
+
+    public NutMap getMonitors() {
+        NutMap re = new NutMap();
+        for (Object[] record : ioc.getCreateRecords())
+            re.put((String) record[0], format(record));
+        return re;
+    }
+
+    public Object getMonitorValue(String key) {
+        for (Object[] record : ioc.getCreateRecords()) {
+            if (record[0].equals(key))
+                return format(record);
+        }
+        return null;
+    }
+
+    protected String format(Object[] record) {
+        return String.format("%.2fms, %dKB", (Long) record[1] / 1000000.0, (Long) record[2] / 1024);
+    }
+}
@@ -0,0 +1,138 @@
+package org.nutz.boot.ioc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.nutz.ioc.IocContext;
+import org.nutz.ioc.IocLoader;
+import org.nutz.ioc.impl.NutIoc;
+
+/**
+ * NutzBoot使用的Ioc容器, 在NutIoc的基础上:
+ * <p/>
+ * 1. 记录每个bean首次创建的耗时(不含其依赖的创建时间)及创建过程中分配的内存
+ * <p/>
+ * 2. 可选的延迟创建(nutz.ioc.lazy=true): 启动期间被注入的、以接口类型声明的依赖先注入一个代理, 首次调用时才真正创建
+ * 
+ * @author wendal
+ *
+ */
+public class NbIoc extends NutIoc {
+
+    protected static Object threadMXBean;
+
+    static {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+                threadMXBean = bean;
+        }
+        catch (Throwable e) {
+        }
+    }
+
+    /**
+     * bean名称 -> {创建耗时(纳秒), 创建期间分配的字节数}
+     */
+    protected Map<String, long[]> records = new ConcurrentHashMap<>();
+
+    /**
+     * 当前线程正在创建的bean, 用于扣除依赖的耗时
+     */
+    protected ThreadLocal<Deque<long[]>> frames = ThreadLocal.withInitial(ArrayDeque::new);
+
+    protected volatile boolean lazy;
+
+    public NbIoc(IocLoader loader) {
+        super(loader);
+    }
+
+    public <T> T get(Class<T> type, String name, IocContext context) {
+        if (lazy && name != null && type != null && type.isInterface() && !frames.get().isEmpty() && getIocContext().fetch(name) == null) {
+            return lazyProxy(type, name, context);
+        }
+        return create(type, name, context);
+    }
+
+    protected <T> T create(Class<T> type, String name, IocContext context) {
+        String key = name != null ? name : (type == null ? null : type.getName());
+        if (key == null || records.containsKey(key))
+            return super.get(type, name, context);
+        Deque<long[]> stack = frames.get();
+        long[] frame = new long[2];
+        stack.push(frame);
+        long start = System.nanoTime();
+        long alloc = allocated();
+        try {
+            return super.get(type, name, context);
+        }
+        finally {
+            stack.pop();
+            long cost = System.nanoTime() - start;
+            long bytes = allocated() - alloc;
+            if (!stack.isEmpty()) {
+                stack.peek()[0] += cost;
+                stack.peek()[1] += bytes;
+            }
+            records.putIfAbsent(key, new long[]{cost - frame[0], bytes - frame[1]});
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected <T> T lazyProxy(Class<T> type, String name, IocContext context) {
+        // AtomicReference保证其他线程看到的是完整创建好的对象
+        AtomicReference<Object> holder = new AtomicReference<>();
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Object target = holder.get();
+            if (target == null) {
+                synchronized (holder) {
+                    target = holder.get();
+                    if (target == null) {
+                        target = create(type, name, context);
+                        holder.set(target);
+                    }
+                }
+            }
+            try {
+                return method.invoke(target, args);
+            }
+            catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        });
+    }
+
+    protected static long allocated() {
+        if (threadMXBean == null)
+            return 0;
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * 按创建耗时从高到低排列的bean列表, 每项为 {名称, 耗时(纳秒), 分配字节数}
+     */
+    public List<Object[]> getCreateRecords() {
+        List<Object[]> list = new ArrayList<>();
+        for (Map.Entry<String, long[]> en : records.entrySet()) {
+            list.add(new Object[]{en.getKey(), en.getValue()[0], en.getValue()[1]});
+        }
+        list.sort((a, b) -> Long.compare((Long) b[1], (Long) a[1]));
+        return list;
+    }
+}
@@ -0,0 +1,23 @@
+package org.nutz.boot.loadbalance;
+
+/**
+ * 负载均衡算法
+ * 
+ * @author wendal
+ *
+ */
+public interface LoadBalancer {
+
+    /**
+     * 从服务器列表中选择一个
+     * 
+     * @param servers
+     *            全部服务器, 可能包含已被摘除的
+     * @param key
+     *            请求的特征值, 仅一致性hash使用, 可以是null
+     * @return 选中的服务器, 列表为空时返回null
+     */
+    ServerStats select(ServerStats[] servers, Object key);
+
+    String getName();
+}
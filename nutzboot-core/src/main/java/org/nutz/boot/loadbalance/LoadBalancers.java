@@ -0,0 +1,47 @@
+package org.nutz.boot.loadbalance;
+
+import org.nutz.boot.loadbalance.impl.ConsistentHashLoadBalancer;
+import org.nutz.boot.loadbalance.impl.LeastActiveLoadBalancer;
+import org.nutz.boot.loadbalance.impl.P2cEwmaLoadBalancer;
+import org.nutz.boot.loadbalance.impl.RandomLoadBalancer;
+import org.nutz.boot.loadbalance.impl.RoundRobinLoadBalancer;
+import org.nutz.boot.loadbalance.impl.WeightedRandomLoadBalancer;
+
+/**
+ * 按名称创建负载均衡算法
+ * 
+ * @author wendal
+ *
+ */
+public class LoadBalancers {
+
+    public static final String[] NAMES = {"round-robin", "random", "weighted", "least-active", "p2c-ewma", "consistent-hash"};
+
+    /**
+     * @param name
+     *            算法名称, 也可以是LoadBalancer实现类的全名
+     */
+    public static LoadBalancer create(String name) {
+        switch (name) {
+        case "round-robin":
+            return new RoundRobinLoadBalancer();
+        case "random":
+            return new RandomLoadBalancer();
+        case "weighted":
+            return new WeightedRandomLoadBalancer();
+        case "least-active":
+            return new LeastActiveLoadBalancer();
+        case "p2c-ewma":
+            return new P2cEwmaLoadBalancer();
+        case "consistent-hash":
+            return new ConsistentHashLoadBalancer();
+        default:
+            try {
+                return (LoadBalancer) Class.forName(name).newInstance();
+            }
+            catch (Exception e) {
+                throw new IllegalArgumentException("bad loadbalance name=" + name, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.nutz.boot.loadbalance;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+/**
+ * 持有一组服务器的统计信息, 并摘除连续失败的服务器.
+ * <p/>
+ * 连续失败达到阈值后, 服务器被摘除 ejectTime * 摘除次数 毫秒(不超过maxEjectTime), 到期后自动恢复, 成功一次即清零摘除次数.
+ * 
+ * @author wendal
+ *
+ */
+public class OutlierDetector {
+
+    private static final Log log = Logs.get();
+
+    protected ConcurrentHashMap<String, ServerStats> stats = new ConcurrentHashMap<>();
+
+    protected int consecutiveFailures;
+
+    protected long ejectTime;
+
+    protected long maxEjectTime;
+
+    /**
+     * @param consecutiveFailures
+     *            连续失败多少次后摘除, 小于1则不摘除
+     * @param ejectTime
+     *            基础摘除时长,毫秒
+     * @param maxEjectTime
+     *            最长摘除时长,毫秒
+     */
+    public OutlierDetector(int consecutiveFailures, long ejectTime, long maxEjectTime) {
+        this.consecutiveFailures = consecutiveFailures;
+        this.ejectTime = ejectTime;
+        this.maxEjectTime = maxEjectTime;
+    }
+
+    public OutlierDetector() {
+        this(5, 10000, 300000);
+    }
+
+    /**
+     * 获取某个服务器的统计信息, 不存在就新建. 服务器列表更新后统计信息依然保留
+     */
+    public ServerStats get(String id) {
+        ServerStats st = stats.get(id);
+        if (st == null)
+            st = stats.computeIfAbsent(id, ServerStats::new);
+        return st;
+    }
+
+    public void onSuccess(ServerStats st, long latencyNanos) {
+        st.onComplete(latencyNanos);
+        st.consecutiveFailures.set(0);
+        st.ejectCount = 0;
+    }
+
+    public void onFailure(ServerStats st, long latencyNanos) {
+        st.onComplete(latencyNanos);
+        if (consecutiveFailures < 1)
+            return;
+        if (st.consecutiveFailures.incrementAndGet() >= consecutiveFailures) {
+            synchronized (st) {
+                if (st.consecutiveFailures.get() < consecutiveFailures)
+                    return;
+                st.consecutiveFailures.set(0);
+                st.ejectCount++;
+                long time = Math.min(ejectTime * st.ejectCount, maxEjectTime);
+                st.ejectedUntil = System.currentTimeMillis() + time;
+                log.infof("eject server %s for %dms", st.id, time);
+            }
+        }
+    }
+
+    public Collection<ServerStats> getAll() {
+        return stats.values();
+    }
+
+    /**
+     * 清理不再使用的服务器统计
+     */
+    public void remove(String id) {
+        stats.remove(id);
+    }
+}
@@ -0,0 +1,122 @@
+package org.nutz.boot.loadbalance;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单个服务器的运行时统计, 负载均衡算法和异常摘除都依赖它
+ * 
+ * @author wendal
+ *
+ */
+public class ServerStats {
+
+    /**
+     * EWMA的衰减时间常数, 10秒
+     */
+    protected static final double TAU = 10_000_000_000.0;
+
+    /**
+     * 服务器标识, 通常是 host:port
+     */
+    public final String id;
+
+    /**
+     * 服务器对象, 由调用方自行定义, 例如NutMap或TargetServerInfo
+     */
+    public volatile Object server;
+
+    protected final AtomicInteger active = new AtomicInteger();
+
+    protected final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    protected volatile double ewmaNanos;
+
+    protected long lastUpdateNanos;
+
+    protected volatile long ejectedUntil;
+
+    protected volatile int ejectCount;
+
+    /**
+     * 权重, 供加权算法使用
+     */
+    public volatile int weight = 1;
+
+    /**
+     * 被健康检查判定为不可用, 与连续失败摘除相互独立
+     */
+    protected volatile boolean down;
+
+    public ServerStats(String id) {
+        this.id = id;
+    }
+
+    /**
+     * 请求开始时调用
+     */
+    public void onStart() {
+        active.incrementAndGet();
+    }
+
+    /**
+     * 请求结束时调用, 更新并发数和延迟
+     */
+    public void onComplete(long latencyNanos) {
+        active.decrementAndGet();
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (lastUpdateNanos == 0) {
+                ewmaNanos = latencyNanos;
+            } else {
+                double w = Math.exp(-(now - lastUpdateNanos) / TAU);
+                ewmaNanos = ewmaNanos * w + latencyNanos * (1 - w);
+            }
+            lastUpdateNanos = now;
+        }
+    }
+
+    /**
+     * 请求没有真正发给该服务器就结束了(例如被后续的过滤器拦截), 只减少并发数, 不影响延迟和失败计数
+     */
+    public void onCancel() {
+        active.decrementAndGet();
+    }
+
+    /**
+     * 当前是否可用,即没有被摘除
+     */
+    public boolean isAvailable(long nowMillis) {
+        return !down && ejectedUntil <= nowMillis;
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public double getEwmaNanos() {
+        return ewmaNanos;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    public long getEjectedUntil() {
+        return ejectedUntil;
+    }
+
+    public int getEjectCount() {
+        return ejectCount;
+    }
+
+    public boolean isDown() {
+        return down;
+    }
+
+    /**
+     * 由健康检查设置, 恢复后重新参与负载均衡
+     */
+    public void setDown(boolean down) {
+        this.down = down;
+    }
+}
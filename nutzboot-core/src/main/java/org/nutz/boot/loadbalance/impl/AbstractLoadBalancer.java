@@ -0,0 +1,41 @@
+package org.nutz.boot.loadbalance.impl;
+
+import org.nutz.boot.loadbalance.LoadBalancer;
+import org.nutz.boot.loadbalance.ServerStats;
+
+/**
+ * 先排除被摘除的服务器, 再交给具体算法. 如果全部被摘除, 则退回到全部服务器
+ * 
+ * @author wendal
+ *
+ */
+public abstract class AbstractLoadBalancer implements LoadBalancer {
+
+    public ServerStats select(ServerStats[] servers, Object key) {
+        if (servers == null || servers.length == 0)
+            return null;
+        if (servers.length == 1)
+            return servers[0];
+        long now = System.currentTimeMillis();
+        int available = 0;
+        for (ServerStats st : servers) {
+            if (st.isAvailable(now))
+                available++;
+        }
+        if (available == 0 || available == servers.length)
+            return doSelect(servers, key);
+        ServerStats[] tmp = new ServerStats[available];
+        int index = 0;
+        for (ServerStats st : servers) {
+            if (st.isAvailable(now))
+                tmp[index++] = st;
+        }
+        return doSelect(tmp, key);
+    }
+
+    /**
+     * @param servers
+     *            不为空的可用服务器列表
+     */
+    protected abstract ServerStats doSelect(ServerStats[] servers, Object key);
+}
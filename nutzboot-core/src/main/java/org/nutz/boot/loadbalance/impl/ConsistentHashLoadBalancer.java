@@ -0,0 +1,93 @@
+package org.nutz.boot.loadbalance.impl;
+
+import java.util.Arrays;
+
+import org.nutz.boot.loadbalance.LoadBalancer;
+import org.nutz.boot.loadbalance.ServerStats;
+
+/**
+ * 一致性hash, 同一个key总是落到同一台服务器上, 服务器增减只影响相邻的一小部分key.
+ * <p/>
+ * 被摘除的服务器在环上顺时针跳过, 不需要重建环. key为null时退化为随机.
+ */
+public class ConsistentHashLoadBalancer implements LoadBalancer {
+
+    protected static final int VIRTUAL_NODES = 160;
+
+    protected RandomLoadBalancer fallback = new RandomLoadBalancer();
+
+    protected volatile Ring ring;
+
+    public ServerStats select(ServerStats[] servers, Object key) {
+        if (servers == null || servers.length == 0)
+            return null;
+        if (key == null)
+            return fallback.select(servers, null);
+        Ring ring = this.ring;
+        if (ring == null || ring.servers != servers) {
+            ring = new Ring(servers);
+            this.ring = ring;
+        }
+        return ring.select(hash(key.toString()), System.currentTimeMillis());
+    }
+
+    /**
+     * FNV-1a, 再做一次混淆, 让分布更均匀
+     */
+    protected static int hash(String str) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < str.length(); i++) {
+            h ^= str.charAt(i);
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    protected static class Ring {
+
+        protected final ServerStats[] servers;
+
+        protected final int[] hashes;
+
+        protected final ServerStats[] nodes;
+
+        protected Ring(ServerStats[] servers) {
+            this.servers = servers;
+            long[] tmp = new long[servers.length * VIRTUAL_NODES];
+            int index = 0;
+            for (int i = 0; i < servers.length; i++) {
+                for (int j = 0; j < VIRTUAL_NODES; j++) {
+                    int h = hash(servers[i].id + "#" + j);
+                    // 高32位是hash, 低32位是服务器下标, 排序后两者一起移动
+                    tmp[index++] = ((long) h << 32) | i;
+                }
+            }
+            Arrays.sort(tmp);
+            hashes = new int[tmp.length];
+            nodes = new ServerStats[tmp.length];
+            for (int i = 0; i < tmp.length; i++) {
+                hashes[i] = (int) (tmp[i] >> 32);
+                nodes[i] = servers[(int) (tmp[i] & 0xFFFFFFFFL)];
+            }
+        }
+
+        protected ServerStats select(int hash, long now) {
+            int index = Arrays.binarySearch(hashes, hash);
+            if (index < 0)
+                index = -index - 1;
+            for (int i = 0; i < nodes.length; i++) {
+                ServerStats st = nodes[(index + i) % nodes.length];
+                if (st.isAvailable(now))
+                    return st;
+            }
+            return nodes[index % nodes.length];
+        }
+    }
+
+    public String getName() {
+        return "consistent-hash";
+    }
+}
@@ -0,0 +1,32 @@
+package org.nutz.boot.loadbalance.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.nutz.boot.loadbalance.ServerStats;
+
+/**
+ * 最少并发请求优先, 并发数相同时随机选一个
+ */
+public class LeastActiveLoadBalancer extends AbstractLoadBalancer {
+
+    protected ServerStats doSelect(ServerStats[] servers, Object key) {
+        ServerStats re = null;
+        int least = Integer.MAX_VALUE;
+        int same = 0;
+        for (ServerStats st : servers) {
+            int active = st.getActive();
+            if (active < least) {
+                least = active;
+                re = st;
+                same = 1;
+            } else if (active == least && ThreadLocalRandom.current().nextInt(++same) == 0) {
+                re = st;
+            }
+        }
+        return re;
+    }
+
+    public String getName() {
+        return "least-active";
+    }
+}
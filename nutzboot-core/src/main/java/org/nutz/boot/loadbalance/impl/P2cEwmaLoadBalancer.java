@@ -0,0 +1,31 @@
+package org.nutz.boot.loadbalance.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.nutz.boot.loadbalance.ServerStats;
+
+/**
+ * Power of two choices: 随机挑两个, 取 EWMA延迟*(并发数+1) 较小的那个.
+ * 慢的服务器自然分到更少的流量, 又不会像"永远选最快"那样把流量全压到一台上
+ */
+public class P2cEwmaLoadBalancer extends AbstractLoadBalancer {
+
+    protected ServerStats doSelect(ServerStats[] servers, Object key) {
+        if (servers.length == 1)
+            return servers[0];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(servers.length);
+        int b = random.nextInt(servers.length - 1);
+        if (b >= a)
+            b++;
+        return cost(servers[a]) <= cost(servers[b]) ? servers[a] : servers[b];
+    }
+
+    protected double cost(ServerStats st) {
+        return (st.getEwmaNanos() + 1) * (st.getActive() + 1);
+    }
+
+    public String getName() {
+        return "p2c-ewma";
+    }
+}
@@ -0,0 +1,19 @@
+package org.nutz.boot.loadbalance.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.nutz.boot.loadbalance.ServerStats;
+
+/**
+ * 随机
+ */
+public class RandomLoadBalancer extends AbstractLoadBalancer {
+
+    protected ServerStats doSelect(ServerStats[] servers, Object key) {
+        return servers[ThreadLocalRandom.current().nextInt(servers.length)];
+    }
+
+    public String getName() {
+        return "random";
+    }
+}
@@ -0,0 +1,21 @@
+package org.nutz.boot.loadbalance.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nutz.boot.loadbalance.ServerStats;
+
+/**
+ * 轮询
+ */
+public class RoundRobinLoadBalancer extends AbstractLoadBalancer {
+
+    protected AtomicLong counter = new AtomicLong();
+
+    protected ServerStats doSelect(ServerStats[] servers, Object key) {
+        return servers[(int) ((counter.incrementAndGet() & Long.MAX_VALUE) % servers.length)];
+    }
+
+    public String getName() {
+        return "round-robin";
+    }
+}
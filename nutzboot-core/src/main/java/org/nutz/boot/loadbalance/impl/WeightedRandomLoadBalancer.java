@@ -0,0 +1,34 @@
+package org.nutz.boot.loadbalance.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.nutz.boot.loadbalance.ServerStats;
+
+/**
+ * 按ServerStats.weight加权随机, 权重小于1的服务器不参与选择(全部小于1时退回到普通随机)
+ */
+public class WeightedRandomLoadBalancer extends AbstractLoadBalancer {
+
+    protected ServerStats doSelect(ServerStats[] servers, Object key) {
+        int total = 0;
+        for (ServerStats st : servers) {
+            if (st.weight > 0)
+                total += st.weight;
+        }
+        if (total == 0)
+            return servers[ThreadLocalRandom.current().nextInt(servers.length)];
+        int r = ThreadLocalRandom.current().nextInt(total);
+        for (ServerStats st : servers) {
+            if (st.weight <= 0)
+                continue;
+            r -= st.weight;
+            if (r < 0)
+                return st;
+        }
+        return servers[servers.length - 1];
+    }
+
+    public String getName() {
+        return "weighted";
+    }
+}
@@ -0,0 +1,20 @@
+package org.nutz.boot.metrics;
+
+/**
+ * 计数器句柄, 取得后可以长期持有, 调用时不再需要按名称查找
+ * 
+ * @author wendal
+ *
+ */
+public interface Counter {
+
+	void increment();
+
+	void decrement();
+
+	void add(long delta);
+
+	long get();
+
+	void reset();
+}
@@ -1,7 +1,14 @@
 package org.nutz.boot.metrics;
 
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
+import org.nutz.boot.metrics.impl.HistogramTimer;
+
+/**
+ * 计数服务. 句柄及快照相关的方法都有默认实现, 只实现了按名称读写计数器的旧实现类无需修改
+ */
 public interface CounterService {
 
 	long increment(String metricName);
@@ -15,4 +22,57 @@ public interface CounterService {
 	long get(String metricName);
 
 	Set<String> keys();
+
+	/**
+	 * 获取计数器句柄, 热点代码应持有句柄, 避免每次按名称查找. 默认实现只是转调按名称的方法
+	 */
+	default Counter counter(String metricName) {
+		CounterService service = this;
+		return new Counter() {
+			public void increment() {
+				service.increment(metricName);
+			}
+
+			public void decrement() {
+				service.decrement(metricName);
+			}
+
+			// 默认实现不是原子的, 需要的话请覆盖counter方法
+			public void add(long delta) {
+				service.submit(metricName, service.get(metricName) + delta);
+			}
+
+			public long get() {
+				return service.get(metricName);
+			}
+
+			public void reset() {
+				service.reset(metricName);
+			}
+		};
+	}
+
+	/**
+	 * 默认实现记录到同名的histogram
+	 */
+	default Timer timer(String metricName) {
+		return new HistogramTimer(histogram(metricName));
+	}
+
+	/**
+	 * 分布统计需要保存状态, 默认不支持
+	 */
+	default Histogram histogram(String metricName) {
+		throw new UnsupportedOperationException(getClass().getName() + " doesn't support histogram");
+	}
+
+	/**
+	 * 所有指标的当前值, 计数器是数值, 耗时和分布是HistogramSnapshot. 默认实现只包含计数器
+	 */
+	default Map<String, Object> snapshot() {
+		Map<String, Object> re = new TreeMap<>();
+		for (String key : keys())
+			re.put(key, get(key));
+		return re;
+	}
 }
@@ -0,0 +1,19 @@
+package org.nutz.boot.metrics;
+
+/**
+ * 数值分布统计, 用于记录大小,延迟等等, 可以查询百分位数
+ * 
+ * @author wendal
+ *
+ */
+public interface Histogram {
+
+	/**
+	 * 记录一个非负数值, 负数按0处理
+	 */
+	void record(long value);
+
+	HistogramSnapshot snapshot();
+
+	void reset();
+}
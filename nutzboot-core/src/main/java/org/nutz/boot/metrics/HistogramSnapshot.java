@@ -0,0 +1,93 @@
+package org.nutz.boot.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Histogram某一时刻的快照
+ * 
+ * @author wendal
+ *
+ */
+public class HistogramSnapshot {
+
+	protected final long count;
+
+	protected final long sum;
+
+	protected final long min;
+
+	protected final long max;
+
+	/**
+	 * 各个桶的上界(含)
+	 */
+	protected final long[] bounds;
+
+	protected final long[] counts;
+
+	public HistogramSnapshot(long count, long sum, long min, long max, long[] bounds, long[] counts) {
+		this.count = count;
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+		this.bounds = bounds;
+		this.counts = counts;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	public long getMin() {
+		return min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * 百分位数, 例如 percentile(99.9)
+	 * 
+	 * @return 所在桶的上界, 不会超过实际的最大值
+	 */
+	public long percentile(double percent) {
+		if (count == 0)
+			return 0;
+		long total = 0;
+		for (long c : counts)
+			total += c;
+		long rank = (long) Math.ceil(total * percent / 100);
+		if (rank < 1)
+			rank = 1;
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(bounds[i], max);
+		}
+		return max;
+	}
+
+	public Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("count", count);
+		map.put("min", min);
+		map.put("max", max);
+		map.put("mean", getMean());
+		map.put("p50", percentile(50));
+		map.put("p90", percentile(90));
+		map.put("p99", percentile(99));
+		map.put("p999", percentile(99.9));
+		return map;
+	}
+}
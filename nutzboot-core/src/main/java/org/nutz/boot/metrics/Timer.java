@@ -0,0 +1,38 @@
+package org.nutz.boot.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 耗时统计, 内部以纳秒为单位记录到Histogram
+ * 
+ * @author wendal
+ *
+ */
+public interface Timer {
+
+	void record(long duration, TimeUnit unit);
+
+	/**
+	 * 记录从start(System.nanoTime())到现在的耗时
+	 */
+	default void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	default void time(Runnable run) {
+		long start = System.nanoTime();
+		try {
+			run.run();
+		}
+		finally {
+			recordSince(start);
+		}
+	}
+
+	/**
+	 * 快照中的数值单位是纳秒
+	 */
+	HistogramSnapshot snapshot();
+
+	void reset();
+}
@@ -0,0 +1,34 @@
+package org.nutz.boot.metrics.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nutz.boot.metrics.Histogram;
+import org.nutz.boot.metrics.HistogramSnapshot;
+import org.nutz.boot.metrics.Timer;
+
+/**
+ * 以纳秒为单位记录到Histogram的耗时统计
+ * 
+ * @author wendal
+ *
+ */
+public class HistogramTimer implements Timer {
+
+	protected final Histogram histogram;
+
+	public HistogramTimer(Histogram histogram) {
+		this.histogram = histogram;
+	}
+
+	public void record(long duration, TimeUnit unit) {
+		histogram.record(unit.toNanos(duration));
+	}
+
+	public HistogramSnapshot snapshot() {
+		return histogram.snapshot();
+	}
+
+	public void reset() {
+		histogram.reset();
+	}
+}
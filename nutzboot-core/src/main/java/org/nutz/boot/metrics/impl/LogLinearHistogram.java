@@ -0,0 +1,98 @@
+package org.nutz.boot.metrics.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.nutz.boot.metrics.Histogram;
+import org.nutz.boot.metrics.HistogramSnapshot;
+
+/**
+ * 与HdrHistogram类似的对数-线性分桶: 每个2的幂次区间再线性切分为32个子桶, 相对误差约3%,
+ * 覆盖整个long范围, 内存固定(约1900个long), 记录一次只是一次数组原子加.
+ * 
+ * @author wendal
+ *
+ */
+public class LogLinearHistogram implements Histogram {
+
+	protected static final int SUB_BITS = 5;
+
+	protected static final int SUB_COUNT = 1 << SUB_BITS;
+
+	protected static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+	protected static final long[] BOUNDS = new long[BUCKETS];
+
+	static {
+		for (int i = 0; i < BUCKETS; i++) {
+			BOUNDS[i] = upperBound(i);
+		}
+	}
+
+	protected final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	protected final LongAdder count = new LongAdder();
+
+	protected final LongAdder sum = new LongAdder();
+
+	protected final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+	protected final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		// 只有刷新了最值时才需要CAS
+		long m = min.get();
+		while (value < m && !min.compareAndSet(m, value))
+			m = min.get();
+		m = max.get();
+		while (value > m && !max.compareAndSet(m, value))
+			m = max.get();
+	}
+
+	/**
+	 * 小于SUB_COUNT的值每个值一个桶, 之后每个2的幂次区间SUB_COUNT个桶
+	 */
+	protected static int index(long value) {
+		if (value < SUB_COUNT)
+			return (int) value;
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exp - SUB_BITS;
+		int sub = (int) (value >>> shift) & (SUB_COUNT - 1);
+		return (shift + 1) * SUB_COUNT + sub;
+	}
+
+	protected static long upperBound(int index) {
+		if (index < SUB_COUNT)
+			return index;
+		int shift = index / SUB_COUNT - 1;
+		long sub = index % SUB_COUNT;
+		long lower = (SUB_COUNT | sub) << shift;
+		long upper = lower + (1L << shift) - 1;
+		return upper < lower ? Long.MAX_VALUE : upper;
+	}
+
+	public HistogramSnapshot snapshot() {
+		long[] tmp = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			tmp[i] = counts.get(i);
+		}
+		long c = count.sum();
+		return new HistogramSnapshot(c, sum.sum(), c == 0 ? 0 : min.get(), c == 0 ? 0 : max.get(), BOUNDS, tmp);
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		min.set(Long.MAX_VALUE);
+		max.set(Long.MIN_VALUE);
+	}
+}
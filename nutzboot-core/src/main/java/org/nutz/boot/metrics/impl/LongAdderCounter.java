@@ -0,0 +1,44 @@
+package org.nutz.boot.metrics.impl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.nutz.boot.metrics.Counter;
+
+/**
+ * 基于LongAdder的计数器, 多线程并发累加时没有CAS竞争
+ * 
+ * @author wendal
+ *
+ */
+public class LongAdderCounter implements Counter {
+
+	protected final LongAdder adder = new LongAdder();
+
+	public void increment() {
+		adder.increment();
+	}
+
+	public void decrement() {
+		adder.decrement();
+	}
+
+	public void add(long delta) {
+		adder.add(delta);
+	}
+
+	public long get() {
+		return adder.sum();
+	}
+
+	public void reset() {
+		adder.reset();
+	}
+
+	/**
+	 * 直接设置为某个值, 与并发的累加之间不是原子的
+	 */
+	public void set(long value) {
+		adder.reset();
+		adder.add(value);
+	}
+}
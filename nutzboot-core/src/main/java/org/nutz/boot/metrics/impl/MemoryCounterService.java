@@ -1,42 +1,96 @@
 package org.nutz.boot.metrics.impl;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
 
+import org.nutz.boot.metrics.Counter;
 import org.nutz.boot.metrics.CounterService;
+import org.nutz.boot.metrics.Histogram;
+import org.nutz.boot.metrics.Timer;
 
 public class MemoryCounterService implements CounterService {
 
-	protected ConcurrentHashMap<String, AtomicLong> atoms = new ConcurrentHashMap<>();
+	protected ConcurrentHashMap<String, LongAdderCounter> counters = new ConcurrentHashMap<>();
 
-	protected AtomicLong getAtomicLong(String metricName) {
-		return atoms.computeIfAbsent(metricName, (name) -> new AtomicLong());
+	protected ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+	protected ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+	protected LongAdderCounter getCounter(String metricName) {
+		// 先get, 已存在时不需要computeIfAbsent的加锁开销
+		LongAdderCounter counter = counters.get(metricName);
+		if (counter == null)
+			counter = counters.computeIfAbsent(metricName, (name) -> new LongAdderCounter());
+		return counter;
 	}
 
 	public long increment(String metricName) {
-		return getAtomicLong(metricName).incrementAndGet();
+		LongAdderCounter counter = getCounter(metricName);
+		counter.increment();
+		return counter.get();
 	}
 
 	public long decrement(String metricName) {
-		return getAtomicLong(metricName).decrementAndGet();
+		LongAdderCounter counter = getCounter(metricName);
+		counter.decrement();
+		return counter.get();
 	}
 
 	public void reset(String metricName) {
-		atoms.remove(metricName);
+		LongAdderCounter counter = counters.get(metricName);
+		if (counter != null)
+			counter.reset();
+		Timer timer = timers.get(metricName);
+		if (timer != null)
+			timer.reset();
+		Histogram histogram = histograms.get(metricName);
+		if (histogram != null)
+			histogram.reset();
 	}
 
 	public void submit(String metricName, long value) {
-		getAtomicLong(metricName).set(value);
+		getCounter(metricName).set(value);
 	}
 
 	public long get(String metricName) {
-		return getAtomicLong(metricName).get();
+		LongAdderCounter counter = counters.get(metricName);
+		return counter == null ? 0 : counter.get();
 	}
 
 	public Set<String> keys() {
-		return new HashSet<>(atoms.keySet());
+		Set<String> keys = new HashSet<>(counters.keySet());
+		keys.addAll(timers.keySet());
+		keys.addAll(histograms.keySet());
+		return keys;
+	}
+
+	public Counter counter(String metricName) {
+		return getCounter(metricName);
+	}
+
+	public Timer timer(String metricName) {
+		Timer timer = timers.get(metricName);
+		if (timer == null)
+			timer = timers.computeIfAbsent(metricName, (name) -> new HistogramTimer(new LogLinearHistogram()));
+		return timer;
+	}
+
+	public Histogram histogram(String metricName) {
+		Histogram histogram = histograms.get(metricName);
+		if (histogram == null)
+			histogram = histograms.computeIfAbsent(metricName, (name) -> new LogLinearHistogram());
+		return histogram;
+	}
+
+	public Map<String, Object> snapshot() {
+		Map<String, Object> re = new TreeMap<>();
+		counters.forEach((name, counter) -> re.put(name, counter.get()));
+		timers.forEach((name, timer) -> re.put(name, timer.snapshot()));
+		histograms.forEach((name, histogram) -> re.put(name, histogram.snapshot()));
+		return re;
 	}
 
 }
@@ -33,4 +33,12 @@ public interface ServerFace {
     default boolean failsafe() {
         return true;
     }
+
+    /**
+     * 并发启动(nutz.boot.starter.parallel=true)时, 需要等哪些类型的starter启动完成后才能启动.
+     * 通过@Inject注入的其他starter会自动视为依赖, 无需在此声明
+     */
+    default Class<?>[] dependsOn() {
+        return new Class<?>[0];
+    }
 }
@@ -59,6 +59,13 @@ public interface WebFilterFace {
 
     }
 
+    /**
+     * 是否支持异步请求, 路径上的所有Filter都支持, Servlet才能使用startAsync
+     */
+    default boolean isAsyncSupported() {
+        return false;
+    }
+
     /**
      * 内置的默认顺序
      * 
@@ -66,11 +73,12 @@ public interface WebFilterFace {
      *
      */
     interface FilterOrder {
-        // hystrix,whale,druid,shiro,nutz
+        // hystrix,whale,druid,shiro,static,nutz
         int HystrixRequestFilter = 5;
         int WhaleFilter = 10;
         int DruidFilter = 20;
         int ShiroFilter = 30;
+        int StaticResourceFilter = 40;
         int NutFilter = 50;
     }
 }
@@ -0,0 +1,11 @@
+package org.nutz.boot.starter;
+
+/**
+ * Web容器(Jetty/Tomcat/Undertow)的标识. 服务注册类的starter可以在dependsOn中声明它, 端口监听之后才注册
+ * 
+ * @author wendal
+ *
+ */
+public interface WebServerFace extends ServerFace {
+
+}
@@ -23,6 +23,14 @@ public interface NbAppEventListener {
     default void whenStartServers(NbApp app, EventType et) {}
     
     default void afterAppStated(NbApp app) {};
+
+    /**
+     * 某个启动阶段执行完毕, 例如prepareStarterClassList,initAppContext,startServers
+     * 
+     * @param cost
+     *            耗时,单位毫秒
+     */
+    default void whenPhaseDone(NbApp app, String phase, long cost) {};
     
     enum EventType {
         before, after
@@ -0,0 +1,165 @@
+package org.nutz.boot.tools;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.nutz.boot.starter.ServerFace;
+import org.nutz.ioc.loader.annotation.Inject;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+/**
+ * 按依赖关系执行一组starter的动作(init/start), 互不依赖的starter在有界线程池中并发执行.
+ * <p/>
+ * 依赖关系来自两处: ServerFace.dependsOn()显式声明的类型, 以及通过@Inject注入的其他starter.
+ * 
+ * @author wendal
+ *
+ */
+public class StarterGraphRunner {
+
+    private static final Log log = Logs.get();
+
+    public interface Action {
+        void run(Object starter) throws Exception;
+    }
+
+    /**
+     * starter -> 耗时(毫秒), 按完成顺序排列
+     */
+    protected Map<Object, Long> timings = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * @param starters
+     *            需要执行的starter, 顺序即串行模式下的执行顺序
+     * @param threads
+     *            线程数, 小于2则按原有顺序串行执行
+     */
+    public void run(List<?> starters, Action action, int threads) throws Exception {
+        if (threads < 2 || starters.size() < 2) {
+            for (Object starter : starters) {
+                long start = System.nanoTime();
+                action.run(starter);
+                timings.put(starter, (System.nanoTime() - start) / 1000000);
+            }
+            return;
+        }
+        AtomicInteger index = new AtomicInteger();
+        ExecutorService es = Executors.newFixedThreadPool(Math.min(threads, starters.size()), (r) -> {
+            Thread t = new Thread(r, "nb.starter." + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            Map<Object, CompletableFuture<Void>> futures = new IdentityHashMap<>();
+            for (Object starter : starters) {
+                future(starter, starters, futures, new HashSet<>(), action, es);
+            }
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[futures.size()])).join();
+        }
+        catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null)
+                cause = cause.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            throw e;
+        }
+        finally {
+            es.shutdown();
+        }
+    }
+
+    protected CompletableFuture<Void> future(Object starter, List<?> starters, Map<Object, CompletableFuture<Void>> futures, Set<Object> visiting, Action action, ExecutorService es) {
+        CompletableFuture<Void> future = futures.get(starter);
+        if (future != null)
+            return future;
+        visiting.add(starter);
+        List<CompletableFuture<Void>> deps = new ArrayList<>();
+        for (Object dep : dependenciesOf(starter, starters)) {
+            if (visiting.contains(dep)) {
+                log.warnf("circular starter dependency %s -> %s, ignore", starter.getClass().getName(), dep.getClass().getName());
+                continue;
+            }
+            deps.add(future(dep, starters, futures, visiting, action, es));
+        }
+        visiting.remove(starter);
+        future = CompletableFuture.allOf(deps.toArray(new CompletableFuture[deps.size()])).thenRunAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                action.run(starter);
+            }
+            catch (Exception e) {
+                throw new CompletionException(e);
+            }
+            timings.put(starter, (System.nanoTime() - start) / 1000000);
+        }, es);
+        futures.put(starter, future);
+        return future;
+    }
+
+    /**
+     * 找出某个starter依赖的其他starter
+     */
+    public static List<Object> dependenciesOf(Object starter, List<?> starters) {
+        List<Class<?>> types = new ArrayList<>();
+        if (starter instanceof ServerFace) {
+            Collections.addAll(types, ((ServerFace) starter).dependsOn());
+        }
+        for (Class<?> klass = starter.getClass(); klass != null && klass != Object.class; klass = klass.getSuperclass()) {
+            for (Field field : klass.getDeclaredFields()) {
+                if (field.getAnnotation(Inject.class) != null)
+                    types.add(field.getType());
+            }
+            for (Method method : klass.getDeclaredMethods()) {
+                if (method.getAnnotation(Inject.class) != null && method.getParameterTypes().length == 1)
+                    types.add(method.getParameterTypes()[0]);
+            }
+        }
+        List<Object> deps = new ArrayList<>();
+        for (Object other : starters) {
+            if (other == starter)
+                continue;
+            for (Class<?> type : types) {
+                if (type != Object.class && type.isInstance(other)) {
+                    deps.add(other);
+                    break;
+                }
+            }
+        }
+        return deps;
+    }
+
+    public Map<Object, Long> getTimings() {
+        return timings;
+    }
+
+    /**
+     * 耗时从高到低的简要报告
+     */
+    public String report() {
+        List<Map.Entry<Object, Long>> list;
+        synchronized (timings) {
+            list = new ArrayList<>(timings.entrySet());
+        }
+        list.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Object, Long> en : list) {
+            sb.append("\r\n  ").append(en.getKey().getClass().getName()).append(" : ").append(en.getValue()).append("ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package org.nutz.boot.tools;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * 编译期生成starter的bean索引, NbApp启动时直接读取, 不再扫描starter所在的package.
+ * <p/>
+ * 只有声明了META-INF/nutz/org.nutz.boot.starter.NbStarter的模块才会生成索引文件
+ * META-INF/nutz/org.nutz.boot.starter.NbStarter.index, 内容是该模块中所有带@IocBean的类.
+ * <p/>
+ * 增量编译时只能看到本轮编译的类, 所以会读回已有的索引, 保留其中仍然存在且带@IocBean的类.
+ * <p/>
+ * 需要显式启用, 例如在maven-compiler-plugin的annotationProcessors中加上org.nutz.boot.tools.StarterIndexProcessor
+ * 
+ * @author wendal
+ *
+ */
+public class StarterIndexProcessor extends AbstractProcessor {
+
+    public static final String STARTER_PATH = "META-INF/nutz/org.nutz.boot.starter.NbStarter";
+
+    public static final String INDEX_PATH = STARTER_PATH + ".index";
+
+    protected static final String IOCBEAN = "org.nutz.ioc.loader.annotation.IocBean";
+
+    /**
+     * 本轮编译中带@IocBean的类
+     */
+    protected Set<String> classNames = new TreeSet<>();
+
+    /**
+     * 本轮编译中出现过的类, 包括不带@IocBean的
+     */
+    protected Set<String> compiled = new TreeSet<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        Set<String> set = new TreeSet<>();
+        set.add("*");
+        return set;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            if (!compiled.isEmpty())
+                writeIndex();
+            return false;
+        }
+        for (Element element : roundEnv.getRootElements()) {
+            collect(element);
+        }
+        return false;
+    }
+
+    protected void collect(Element element) {
+        if (!(element instanceof TypeElement))
+            return;
+        String className = processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString();
+        compiled.add(className);
+        if (isIocBean((TypeElement) element))
+            classNames.add(className);
+        for (Element child : element.getEnclosedElements()) {
+            collect(child);
+        }
+    }
+
+    protected boolean isIocBean(TypeElement element) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (IOCBEAN.equals(((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * 读回已有的索引, 本轮未编译的类如果仍然存在且带@IocBean就保留
+     */
+    protected Set<String> mergeIndex() {
+        Set<String> re = new TreeSet<>(classNames);
+        String content;
+        try {
+            FileObject index = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX_PATH);
+            content = index.getCharContent(true).toString();
+        }
+        catch (IOException | IllegalArgumentException e) {
+            return re;
+        }
+        for (String line : content.split("\n")) {
+            String className = line.trim();
+            if (className.isEmpty() || className.startsWith("#") || compiled.contains(className))
+                continue;
+            TypeElement element = processingEnv.getElementUtils().getTypeElement(className.replace('$', '.'));
+            if (element != null && isIocBean(element))
+                re.add(className);
+        }
+        return re;
+    }
+
+    protected void writeIndex() {
+        try {
+            // maven会先复制资源文件再编译, 所以这里能看到本模块的NbStarter声明
+            FileObject starter = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", STARTER_PATH);
+            if (starter.getCharContent(true).toString().trim().isEmpty())
+                return;
+        }
+        catch (IOException | IllegalArgumentException e) {
+            return;
+        }
+        Set<String> merged = mergeIndex();
+        try {
+            FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_PATH);
+            try (Writer writer = index.openWriter()) {
+                for (String className : merged) {
+                    writer.write(className);
+                    writer.write('\n');
+                }
+            }
+        }
+        catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "fail to write " + INDEX_PATH + " : " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.nutz.boot.tools;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.management.ObjectName;
+
+import org.nutz.ioc.loader.annotation.IocBean;
+import org.nutz.json.Json;
+import org.nutz.json.JsonFormat;
+import org.nutz.lang.Files;
+import org.nutz.lang.Lang;
+import org.nutz.lang.Strings;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+import org.nutz.resource.Scans;
+
+/**
+ * 启动快照. 训练运行(nutz.boot.snapshot.mode=record)时记录starter列表及需要加载的bean类,
+ * 之后的启动(nutz.boot.snapshot.mode=replay)直接读取快照, 跳过package扫描.
+ * <p/>
+ * 训练运行同时输出AppCDS所需的类列表(快照文件名+.classlist), 可用于 -Xshare:dump 生成共享归档.
+ * 
+ * @author wendal
+ *
+ */
+public class StartupSnapshot {
+
+    private static final Log log = Logs.get();
+
+    public static final String MODE_RECORD = "record";
+
+    public static final String MODE_REPLAY = "replay";
+
+    /**
+     * 主程序所在jar的标识, 不一致时快照作废
+     */
+    public String stamp;
+
+    public String mainPackage;
+
+    public List<String> starters = new ArrayList<>();
+
+    /**
+     * starter所在package中需要加入starterIocLoader的类
+     */
+    public List<String> starterBeans = new ArrayList<>();
+
+    /**
+     * 主程序package中带@IocBean的类
+     */
+    public List<String> beans = new ArrayList<>();
+
+    public static StartupSnapshot load(File f, Class<?> mainClass, ClassLoader classLoader) {
+        if (!f.exists()) {
+            log.infof("startup snapshot %s not found, fallback to scan", f.getAbsolutePath());
+            return null;
+        }
+        try {
+            StartupSnapshot snapshot = Json.fromJson(StartupSnapshot.class, Files.read(f));
+            String stamp = stampOf(mainClass);
+            if (!Strings.equals(stamp, snapshot.stamp)) {
+                log.infof("startup snapshot %s is out of date, fallback to scan", f.getAbsolutePath());
+                return null;
+            }
+            String missing = snapshot.findMissing(classLoader);
+            if (missing != null) {
+                log.infof("class %s in startup snapshot %s not found, fallback to scan", missing, f.getAbsolutePath());
+                return null;
+            }
+            return snapshot;
+        }
+        catch (Exception e) {
+            log.warn("bad startup snapshot " + f.getAbsolutePath() + ", fallback to scan", e);
+            return null;
+        }
+    }
+
+    public void save(File f) {
+        Files.write(f, Json.toJson(this, JsonFormat.nice()));
+        log.infof("startup snapshot saved to %s", f.getAbsolutePath());
+    }
+
+    /**
+     * 训练运行时扫描主程序package, 记录其中带@IocBean的类
+     */
+    public void recordBeans(String pkg) {
+        mainPackage = pkg;
+        for (Class<?> klass : Scans.me().scanPackage(pkg)) {
+            if (klass.getAnnotation(IocBean.class) != null)
+                beans.add(klass.getName());
+        }
+    }
+
+    /**
+     * 快照中的类都能加载的话返回null, 否则返回第一个加载失败的类名. 只加载不初始化
+     */
+    public String findMissing(ClassLoader classLoader) {
+        for (List<String> names : Arrays.asList(starters, starterBeans, beans)) {
+            for (String name : names) {
+                try {
+                    Class.forName(name, false, classLoader);
+                }
+                catch (ClassNotFoundException | LinkageError e) {
+                    return name;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * classpath中每个jar的路径+大小+修改时间, 目录则是其中文件的数量+最新修改时间, 合起来取sha1.
+     * 任何一个依赖变化都会使快照作废
+     */
+    public static String stampOf(Class<?> mainClass) {
+        Set<String> paths = new LinkedHashSet<>();
+        try {
+            URL url = mainClass.getProtectionDomain().getCodeSource().getLocation();
+            paths.add(new File(url.toURI()).getAbsolutePath());
+        }
+        catch (Exception e) {
+            paths.add(mainClass.getName());
+        }
+        for (String path : Strings.splitIgnoreBlank(Strings.sBlank(System.getProperty("java.class.path")), File.pathSeparator))
+            paths.add(new File(path).getAbsolutePath());
+        StringBuilder sb = new StringBuilder();
+        for (String path : paths) {
+            File f = new File(path);
+            sb.append(path);
+            if (f.isFile()) {
+                sb.append(':').append(f.length()).append(':').append(f.lastModified());
+            } else if (f.isDirectory()) {
+                long[] tmp = new long[2];
+                stampDir(f, tmp);
+                sb.append(':').append(tmp[0]).append(':').append(tmp[1]);
+            }
+            sb.append('\n');
+        }
+        return Lang.sha1(sb);
+    }
+
+    /**
+     * 统计目录下文件的数量(tmp[0])和最新的修改时间(tmp[1])
+     */
+    protected static void stampDir(File dir, long[] tmp) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File f : files) {
+            if (f.isDirectory()) {
+                stampDir(f, tmp);
+            } else {
+                tmp[0]++;
+                tmp[1] = Math.max(tmp[1], f.lastModified());
+            }
+        }
+    }
+
+    /**
+     * 输出AppCDS类列表. 优先通过DiagnosticCommand(JDK9+)取得JVM已加载的全部类,
+     * 取不到的话只写入快照中已知的类
+     */
+    public void writeClassList(File f) {
+        Set<String> names = new LinkedHashSet<>();
+        try {
+            ObjectName on = new ObjectName("com.sun.management:type=DiagnosticCommand");
+            String out = (String) ManagementFactory.getPlatformMBeanServer().invoke(on, "vmClassHierarchy", new Object[]{null}, new String[]{String[].class.getName()});
+            for (String line : out.split("\n")) {
+                String name = Strings.trim(line.replaceFirst("^[|\\-\\s]+", ""));
+                int index = name.indexOf('/');
+                if (index > 0)
+                    name = name.substring(0, index);
+                if (name.isEmpty() || name.contains("$$Lambda") || name.contains(" "))
+                    continue;
+                names.add(name);
+            }
+        }
+        catch (Throwable e) {
+            log.debug("vmClassHierarchy not available, only known classes will be written", e);
+        }
+        if (names.isEmpty()) {
+            names.addAll(starters);
+            names.addAll(starterBeans);
+            names.addAll(beans);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            sb.append(name.replace('.', '/')).append('\n');
+        }
+        Files.write(f, sb);
+        log.infof("AppCDS class list saved to %s, create the archive with: java -Xshare:dump -XX:SharedClassListFile=%s -XX:SharedArchiveFile=app.jsa -cp <classpath>, then start with -XX:SharedArchiveFile=app.jsa",
+                  f.getAbsolutePath(),
+                  f.getAbsolutePath());
+    }
+}
@@ -0,0 +1,61 @@
+package org.nutz.boot.tools;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+/**
+ * 虚拟线程(JDK21+)的反射封装, 源码保持JDK8可编译. JVM不支持时返回null, 由调用方回退到普通线程池
+ * 
+ * @author wendal
+ *
+ */
+public class VirtualThreads {
+
+    private static final Log log = Logs.get();
+
+    /**
+     * 创建一个虚拟线程的ThreadFactory, 线程名为 prefix + 序号
+     * 
+     * @return 不支持虚拟线程时返回null
+     */
+    public static ThreadFactory factory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        }
+        catch (Throwable e) {
+            log.debug("virtual thread not supported", e);
+            return null;
+        }
+    }
+
+    /**
+     * 每个任务一个虚拟线程的ExecutorService
+     * 
+     * @return 不支持虚拟线程时返回null
+     */
+    public static ExecutorService newExecutor(String prefix) {
+        ThreadFactory factory = factory(prefix);
+        if (factory == null)
+            return null;
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, factory);
+        }
+        catch (Throwable e) {
+            log.debug("virtual thread not supported", e);
+            return null;
+        }
+    }
+
+    public static boolean isSupported() {
+        return factory("probe-") != null;
+    }
+}
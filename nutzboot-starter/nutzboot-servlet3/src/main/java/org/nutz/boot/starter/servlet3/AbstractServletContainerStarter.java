@@ -6,9 +6,11 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.nutz.boot.AppContext;
 import org.nutz.boot.aware.ClassLoaderAware;
+import org.nutz.boot.tools.VirtualThreads;
 import org.nutz.ioc.Ioc;
 import org.nutz.ioc.impl.PropertiesProxy;
 import org.nutz.ioc.loader.annotation.Inject;
@@ -83,6 +85,21 @@ public abstract class AbstractServletContainerStarter implements ClassLoaderAwar
         return Arrays.asList(conf.get(PROP_STATIC_PATH), "static/", "webapp/");
     }
 
+    /**
+     * 配置了 xxx.threadpool.virtual=true 且JVM支持时, 返回执行请求用的虚拟线程池, 否则返回null
+     */
+    protected ExecutorService createVirtualThreadExecutor() {
+        if (!conf.getBoolean(getConfigurePrefix() + "threadpool.virtual", false))
+            return null;
+        ExecutorService es = VirtualThreads.newExecutor(getConfigurePrefix() + "vt-");
+        if (es == null)
+            log.warnf("%sthreadpool.virtual=true, but virtual thread is not supported by this JVM(%s), fallback to platform threads", getConfigurePrefix(), System.getProperty("java.version"));
+        else
+            log.infof("%s requests will run on virtual threads", getConfigurePrefix());
+        updateMonitorValue("threadpool.virtual", es != null);
+        return es;
+    }
+
     public void fetch() throws Exception {}
 
     public void depose() throws Exception {}
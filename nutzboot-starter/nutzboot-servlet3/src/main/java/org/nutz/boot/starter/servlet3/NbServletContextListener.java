@@ -137,6 +137,7 @@ public class NbServletContextListener implements ServletContextListener {
             }
             log.debugf("add filter name=%s pathSpec=%s", face.getName(), face.getPathSpec());
             dyna.setInitParameters(face.getInitParameters());
+            dyna.setAsyncSupported(face.isAsyncSupported());
             dyna.addMappingForUrlPatterns(face.getDispatches(), true, face.getPathSpec());
         });
     }
@@ -0,0 +1,487 @@
+package org.nutz.boot.starter.servlet3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRegistration;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.nutz.lang.Streams;
+import org.nutz.lang.Strings;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+/**
+ * 静态文件输出, 三种Servlet容器行为一致:
+ * <p/>
+ * 1. 存在.br/.gz文件的话直接输出, 可压缩的文件首次访问时生成.gz并缓存到磁盘
+ * <p/>
+ * 2. 大文件在Tomcat下使用sendfile, 其他容器下jar内的文件用内存映射输出, 本地文件用FileChannel.transferTo
+ * <p/>
+ * 3. 强ETag, 文件名匹配immutable规则的加上长期缓存
+ * <p/>
+ * classpath(jar内)的文件首次访问时解压到缓存目录, 之后与本地文件同样处理. 找不到文件或带Range的请求交给后续的Filter/Servlet
+ * <p/>
+ * WEB-INF/META-INF下的文件不输出, 映射到其他Servlet的后缀(如.jsp)交给容器处理
+ *
+ * @author wendal
+ *
+ */
+public class StaticResourceFilter implements Filter {
+
+    private static final Log log = Logs.get();
+
+    protected ServletContext sc;
+
+    protected ClassLoader classLoader;
+
+    protected List<String> paths;
+
+    protected File cacheDir;
+
+    protected boolean precompressed;
+
+    protected boolean gzipOnFly;
+
+    protected int gzipMinSize;
+
+    protected long mmapMinSize;
+
+    protected long checkInterval;
+
+    protected String cacheControl;
+
+    protected Pattern immutable;
+
+    protected Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 不是静态文件的路径 -> 过期时间, 避免每个动态请求都查找文件
+     */
+    protected Map<String, Long> misses = new ConcurrentHashMap<>();
+
+    /**
+     * 在所有根目录下都不存在的目录 -> 过期时间, 目录下的不同路径不必逐个查找
+     */
+    protected Map<String, Long> dirMisses = new ConcurrentHashMap<>();
+
+    /**
+     * 映射到其他Servlet的后缀, 不能当作静态文件输出源码
+     */
+    protected Set<String> dynamicExtensions = new HashSet<>();
+
+    protected Map<Class<?>, Method> byteBufferWriters = new ConcurrentHashMap<>();
+
+    public StaticResourceFilter(ClassLoader classLoader, List<String> paths, File cacheDir) {
+        this.classLoader = classLoader;
+        this.paths = paths;
+        this.cacheDir = cacheDir;
+    }
+
+    public void init(FilterConfig filterConfig) throws ServletException {
+        this.sc = filterConfig.getServletContext();
+        dynamicExtensions.add("jsp");
+        dynamicExtensions.add("jspx");
+        try {
+            for (ServletRegistration reg : sc.getServletRegistrations().values()) {
+                for (String mapping : reg.getMappings()) {
+                    if (mapping.startsWith("*."))
+                        dynamicExtensions.add(mapping.substring(2).toLowerCase(Locale.ENGLISH));
+                }
+            }
+        }
+        catch (Exception e) {
+            log.debug("fail to list servlet mappings", e);
+        }
+    }
+
+    public void doFilter(ServletRequest _req, ServletResponse _resp, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest req = (HttpServletRequest) _req;
+        HttpServletResponse resp = (HttpServletResponse) _resp;
+        String method = req.getMethod();
+        if ((!"GET".equals(method) && !"HEAD".equals(method)) || req.getHeader("Range") != null) {
+            chain.doFilter(req, resp);
+            return;
+        }
+        String path = req.getRequestURI().substring(req.getContextPath().length());
+        Entry entry = path.endsWith("/") ? null : lookup(path);
+        if (entry == null) {
+            chain.doFilter(req, resp);
+            return;
+        }
+        // 选择压缩版本
+        File file = entry.file;
+        String encoding = null;
+        String acceptEncoding = Strings.sBlank(req.getHeader("Accept-Encoding"));
+        if (entry.compressible) {
+            if (entry.br != null && acceptEncoding.contains("br")) {
+                file = entry.br;
+                encoding = "br";
+            } else if (acceptEncoding.contains("gzip")) {
+                File gz = entry.gzip(this);
+                if (gz != null) {
+                    file = gz;
+                    encoding = "gzip";
+                }
+            }
+            resp.setHeader("Vary", "Accept-Encoding");
+        }
+        String etag = encoding == null ? entry.etag : entry.etag.substring(0, entry.etag.length() - 1) + "-" + encoding + "\"";
+        resp.setHeader("ETag", etag);
+        resp.setDateHeader("Last-Modified", entry.lastModified);
+        resp.setHeader("Cache-Control", immutable != null && immutable.matcher(path).find() ? "public, max-age=31536000, immutable" : cacheControl);
+        if (isNotModified(req, etag, entry.lastModified)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        if (entry.contentType != null)
+            resp.setContentType(entry.contentType);
+        if (encoding != null)
+            resp.setHeader("Content-Encoding", encoding);
+        long length = file.length();
+        resp.setContentLengthLong(length);
+        if ("HEAD".equals(method))
+            return;
+        send(req, resp, entry, file, length);
+    }
+
+    protected boolean isNotModified(HttpServletRequest req, String etag, long lastModified) {
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null)
+            return "*".equals(ifNoneMatch) || ifNoneMatch.contains(etag);
+        long since = req.getDateHeader("If-Modified-Since");
+        return since > 0 && lastModified / 1000 <= since / 1000;
+    }
+
+    protected void send(HttpServletRequest req, HttpServletResponse resp, Entry entry, File file, long length) throws IOException {
+        if (length >= mmapMinSize) {
+            // Tomcat自带sendfile
+            if (Boolean.TRUE.equals(req.getAttribute("org.apache.tomcat.sendfile.support"))) {
+                req.setAttribute("org.apache.tomcat.sendfile.filename", file.getAbsolutePath());
+                req.setAttribute("org.apache.tomcat.sendfile.start", 0L);
+                req.setAttribute("org.apache.tomcat.sendfile.end", length);
+                return;
+            }
+            // 本地文件随时可能被修改, 持有映射会在Windows下锁住文件, 所以只映射jar内解压出来的文件
+            if (entry.source == null) {
+                MappedByteBuffer buffer = entry.map(file);
+                if (buffer != null) {
+                    write(resp.getOutputStream(), buffer.duplicate());
+                    return;
+                }
+            } else {
+                transfer(file, length, resp.getOutputStream());
+                return;
+            }
+        }
+        Files.copy(file.toPath(), resp.getOutputStream());
+    }
+
+    /**
+     * 输出完成即关闭文件, 不持有文件句柄或映射
+     */
+    protected void transfer(File file, long length, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long pos = 0;
+            while (pos < length) {
+                long n = channel.transferTo(pos, length - pos, target);
+                if (n <= 0)
+                    break;
+                pos += n;
+            }
+        }
+    }
+
+    /**
+     * Jetty的HttpOutput及Undertow的ServletOutputStreamImpl都有write(ByteBuffer), 可以直接写出映射的内存, 没有的话分段复制
+     */
+    protected void write(ServletOutputStream out, ByteBuffer buffer) throws IOException {
+        Method method = byteBufferWriters.computeIfAbsent(out.getClass(), (klass) -> {
+            try {
+                return klass.getMethod("write", ByteBuffer.class);
+            }
+            catch (NoSuchMethodException e) {
+                return null;
+            }
+        });
+        if (method == null) {
+            byte[] buf = new byte[64 * 1024];
+            while (buffer.hasRemaining()) {
+                int len = Math.min(buf.length, buffer.remaining());
+                buffer.get(buf, 0, len);
+                out.write(buf, 0, len);
+            }
+            return;
+        }
+        try {
+            method.invoke(out, buffer);
+        }
+        catch (InvocationTargetException e) {
+            if (e.getTargetException() instanceof IOException)
+                throw (IOException) e.getTargetException();
+            throw new IOException(e.getTargetException());
+        }
+        catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+
+    protected Entry lookup(String path) {
+        // 需要解码的路径交给容器处理
+        if (path.contains("..") || path.contains("\\") || path.indexOf('%') >= 0)
+            return null;
+        if (isProtected(path))
+            return null;
+        Long missUntil = misses.get(path);
+        long now = System.currentTimeMillis();
+        if (missUntil != null && missUntil > now)
+            return null;
+        String dir = path.substring(0, path.lastIndexOf('/') + 1);
+        missUntil = dirMisses.get(dir);
+        if (missUntil != null && missUntil > now)
+            return null;
+        Entry entry = entries.get(path);
+        if (entry != null && (now < entry.checkTime || entry.isFresh(now + checkInterval)))
+            return entry;
+        entry = load(path);
+        if (entry == null) {
+            entries.remove(path);
+            if (misses.size() > 10000)
+                misses.clear();
+            misses.put(path, now + checkInterval);
+            if (dir.length() > 1 && !existsDir(dir)) {
+                if (dirMisses.size() > 10000)
+                    dirMisses.clear();
+                dirMisses.put(dir, now + checkInterval);
+            }
+            return null;
+        }
+        entry.checkTime = now + checkInterval;
+        entries.put(path, entry);
+        return entry;
+    }
+
+    /**
+     * 容器私有目录及映射到其他Servlet的后缀, 不能当作静态文件输出
+     */
+    protected boolean isProtected(String path) {
+        String upper = path.toUpperCase(Locale.ENGLISH);
+        if (upper.contains("/WEB-INF") || upper.contains("/META-INF"))
+            return true;
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        return dot > slash && dynamicExtensions.contains(path.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * 目录在任意一个根目录(本地或classpath)下存在
+     */
+    protected boolean existsDir(String dir) {
+        String name = dir.substring(1);
+        for (String root : paths) {
+            if (new File(root, name).isDirectory())
+                return true;
+            if (classLoader.getResource(root + name) != null)
+                return true;
+        }
+        return false;
+    }
+
+    protected Entry load(String path) {
+        String name = path.substring(1);
+        for (String root : paths) {
+            File f = new File(root, name);
+            if (f.isFile())
+                return new Entry(this, path, f, f, new File(root, name + ".br"), new File(root, name + ".gz"));
+        }
+        for (String root : paths) {
+            URL url = classLoader.getResource(root + name);
+            if (url == null || url.getPath().endsWith("/"))
+                continue;
+            try {
+                if ("file".equals(url.getProtocol())) {
+                    File f = new File(url.toURI());
+                    if (f.isFile())
+                        return new Entry(this, path, f, f, new File(f.getPath() + ".br"), new File(f.getPath() + ".gz"));
+                    continue;
+                }
+                // jar内的文件, 解压到缓存目录
+                URLConnection conn = url.openConnection();
+                long lastModified = conn.getLastModified();
+                File f = new File(cacheDir, "res" + path);
+                if (!f.isFile() || f.lastModified() != lastModified) {
+                    try (InputStream ins = conn.getInputStream()) {
+                        writeAtomic(f, ins);
+                    }
+                    f.setLastModified(lastModified);
+                }
+                else {
+                    Streams.safeClose(conn.getInputStream());
+                }
+                URL br = classLoader.getResource(root + name + ".br");
+                File brFile = null;
+                if (br != null) {
+                    brFile = new File(cacheDir, "res" + path + ".br");
+                    try (InputStream ins = br.openStream()) {
+                        writeAtomic(brFile, ins);
+                    }
+                }
+                return new Entry(this, path, f, null, brFile, null);
+            }
+            catch (Exception e) {
+                log.debugf("fail to load %s", url, e);
+            }
+        }
+        return null;
+    }
+
+    protected void writeAtomic(File f, InputStream ins) throws IOException {
+        f.getParentFile().mkdirs();
+        File tmp = new File(f.getPath() + ".tmp" + Thread.currentThread().getId());
+        Files.copy(ins, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    protected boolean isCompressible(String contentType) {
+        if (contentType == null)
+            return false;
+        return contentType.startsWith("text/") || contentType.contains("javascript") || contentType.contains("json") || contentType.contains("xml") || contentType.contains("svg");
+    }
+
+    public void destroy() {
+        entries.clear();
+        misses.clear();
+        dirMisses.clear();
+    }
+
+    public static class Entry {
+
+        public final String path;
+
+        public final File file;
+
+        /**
+         * 本地文件的话, 用于检查是否有变化; jar内的文件为null, 不会变化
+         */
+        public final File source;
+
+        public final long lastModified;
+
+        public final long length;
+
+        public final String etag;
+
+        public final String contentType;
+
+        public final boolean compressible;
+
+        public final File br;
+
+        /**
+         * 预先压缩好的.gz或者首次访问时生成的.gz
+         */
+        protected volatile File gzip;
+
+        protected boolean gzipTried;
+
+        /**
+         * 原文件及压缩版本的内存映射, 只用于jar内解压出来的文件, 这些文件在运行期间不会变化
+         */
+        protected Map<File, MappedByteBuffer> maps = new ConcurrentHashMap<>(4);
+
+        protected long checkTime;
+
+        public Entry(StaticResourceFilter filter, String path, File file, File source, File br, File gz) {
+            this.path = path;
+            this.file = file;
+            this.source = source;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+            this.etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+            this.contentType = filter.sc == null ? null : filter.sc.getMimeType(file.getName());
+            this.compressible = filter.isCompressible(contentType);
+            this.br = filter.precompressed && br != null && br.isFile() && br.lastModified() >= lastModified ? br : null;
+            this.gzip = filter.precompressed && gz != null && gz.isFile() && gz.lastModified() >= lastModified ? gz : null;
+        }
+
+        public boolean isFresh(long nextCheck) {
+            if (source != null && (source.lastModified() != lastModified || source.length() != length))
+                return false;
+            checkTime = nextCheck;
+            return true;
+        }
+
+        public File gzip(StaticResourceFilter filter) {
+            if (gzip != null || gzipTried)
+                return gzip;
+            synchronized (this) {
+                if (gzipTried || gzip != null)
+                    return gzip;
+                if (filter.gzipOnFly && length >= filter.gzipMinSize) {
+                    File f = new File(filter.cacheDir, "gz" + path + "." + Long.toHexString(lastModified) + ".gz");
+                    try {
+                        if (!f.isFile()) {
+                            f.getParentFile().mkdirs();
+                            File tmp = new File(f.getPath() + ".tmp" + Thread.currentThread().getId());
+                            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), 64 * 1024)) {
+                                Files.copy(file.toPath(), out);
+                            }
+                            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        }
+                        // 压缩后反而更大的, 就不用了
+                        if (f.length() < length)
+                            gzip = f;
+                    }
+                    catch (IOException e) {
+                        log.info("fail to gzip " + file, e);
+                    }
+                }
+                gzipTried = true;
+                return gzip;
+            }
+        }
+
+        public MappedByteBuffer map(File f) {
+            return maps.computeIfAbsent(f, (k) -> {
+                try (FileChannel channel = FileChannel.open(k.toPath(), StandardOpenOption.READ)) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                catch (IOException e) {
+                    return null;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.nutz.boot.starter.servlet3;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+
+import org.nutz.boot.AppContext;
+import org.nutz.boot.annotation.PropDoc;
+import org.nutz.boot.starter.WebFilterFace;
+import org.nutz.ioc.impl.PropertiesProxy;
+import org.nutz.ioc.loader.annotation.Inject;
+import org.nutz.ioc.loader.annotation.IocBean;
+import org.nutz.lang.Strings;
+
+/**
+ * 静态文件输出的Filter, 默认不启用. 启用后Jetty/Undertow/Tomcat的静态文件输出行为一致,
+ * 此时建议关闭容器自带的gzip(例如jetty.gzip.enable)
+ * 
+ * @author wendal
+ *
+ */
+@IocBean
+public class StaticResourceFilterStarter implements WebFilterFace {
+
+    protected static final String PRE = "web.static.";
+
+    @PropDoc(value = "是否启用静态文件Filter(预压缩/内存映射/强ETag)", defaultValue = "false", type = "boolean")
+    public static final String PROP_ENABLE = PRE + "enable";
+
+    @PropDoc(value = "静态文件目录, 逗号分隔, 先按本地路径查找, 再按classpath路径查找", defaultValue = "static/,webapp/")
+    public static final String PROP_PATHS = PRE + "paths";
+
+    @PropDoc(value = "是否使用同目录下已存在的.br/.gz文件", defaultValue = "true", type = "boolean")
+    public static final String PROP_PRECOMPRESSED = PRE + "precompressed";
+
+    @PropDoc(value = "没有.gz文件时, 是否在首次访问时生成并缓存", defaultValue = "true", type = "boolean")
+    public static final String PROP_GZIP = PRE + "gzip";
+
+    @PropDoc(value = "生成.gz的最小文件大小,单位字节", defaultValue = "1024", type = "int")
+    public static final String PROP_GZIP_MIN_SIZE = PRE + "gzip.minSize";
+
+    @PropDoc(value = "生成的.gz及从jar内解压的文件的存放目录", defaultValue = "./tmp/static_cache/")
+    public static final String PROP_CACHE_DIR = PRE + "cacheDir";
+
+    @PropDoc(value = "大于此大小的文件使用sendfile(Tomcat)或内存映射(jar内的文件)或transferTo(本地文件)输出,单位字节", defaultValue = "65536", type = "int")
+    public static final String PROP_MMAP_MIN_SIZE = PRE + "mmap.minSize";
+
+    @PropDoc(value = "检查文件是否有变化的间隔,单位毫秒", defaultValue = "2000", type = "int")
+    public static final String PROP_CHECK_INTERVAL = PRE + "checkInterval";
+
+    @PropDoc(value = "默认的Cache-Control", defaultValue = "public, max-age=0, must-revalidate")
+    public static final String PROP_CACHE_CONTROL = PRE + "cacheControl";
+
+    @PropDoc(value = "匹配此正则的路径视为内容不变的文件(通常文件名带hash), 输出一年的immutable缓存", defaultValue = "[.-][0-9a-f]{8,}\\.(js|css|woff2?|png|jpg|svg)$")
+    public static final String PROP_IMMUTABLE = PRE + "immutable";
+
+    @PropDoc(value = "Filter的顺序", defaultValue = "40", type = "int")
+    public static final String PROP_ORDER = "web.filter.order.static";
+
+    @Inject
+    protected PropertiesProxy conf;
+
+    @Inject
+    protected AppContext appContext;
+
+    protected StaticResourceFilter filter;
+
+    public String getName() {
+        return "static";
+    }
+
+    public String getPathSpec() {
+        return "/*";
+    }
+
+    public EnumSet<DispatcherType> getDispatches() {
+        return EnumSet.of(DispatcherType.REQUEST);
+    }
+
+    public Filter getFilter() {
+        if (!conf.getBoolean(PROP_ENABLE, false))
+            return null;
+        if (filter == null) {
+            List<String> paths = new ArrayList<>();
+            for (String path : Strings.splitIgnoreBlank(conf.get(PROP_PATHS, "static/,webapp/"))) {
+                paths.add(path.endsWith("/") ? path : path + "/");
+            }
+            StaticResourceFilter filter = new StaticResourceFilter(appContext.getClassLoader(), paths, new File(conf.get(PROP_CACHE_DIR, "./tmp/static_cache/")));
+            filter.precompressed = conf.getBoolean(PROP_PRECOMPRESSED, true);
+            filter.gzipOnFly = conf.getBoolean(PROP_GZIP, true);
+            filter.gzipMinSize = conf.getInt(PROP_GZIP_MIN_SIZE, 1024);
+            filter.mmapMinSize = conf.getLong(PROP_MMAP_MIN_SIZE, 64 * 1024);
+            filter.checkInterval = conf.getLong(PROP_CHECK_INTERVAL, 2000);
+            filter.cacheControl = conf.get(PROP_CACHE_CONTROL, "public, max-age=0, must-revalidate");
+            String immutable = conf.get(PROP_IMMUTABLE, "[.-][0-9a-f]{8,}\\.(js|css|woff2?|png|jpg|svg)$");
+            if (!Strings.isBlank(immutable))
+                filter.immutable = Pattern.compile(immutable);
+            this.filter = filter;
+        }
+        return filter;
+    }
+
+    public Map<String, String> getInitParameters() {
+        return new HashMap<>();
+    }
+
+    public boolean isAsyncSupported() {
+        return true;
+    }
+
+    public int getOrder() {
+        return conf.getInt(PROP_ORDER, FilterOrder.StaticResourceFilter);
+    }
+}
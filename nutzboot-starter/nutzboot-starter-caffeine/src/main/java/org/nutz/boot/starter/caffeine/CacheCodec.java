@@ -0,0 +1,252 @@
+package org.nutz.boot.starter.caffeine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二级缓存的二进制编码. 常用的简单类型用1字节类型标识+定长/变长数据, 其他对象退回Java序列化
+ * <p/>
+ * 反序列化只接受白名单内的类; 失效消息里的缓存键只允许简单类型, 不做Java反序列化
+ *
+ * @author wendal
+ *
+ */
+public class CacheCodec {
+
+    protected static final byte NULL = 0;
+    protected static final byte STRING = 1;
+    protected static final byte INT = 2;
+    protected static final byte LONG = 3;
+    protected static final byte DOUBLE = 4;
+    protected static final byte FLOAT = 5;
+    protected static final byte SHORT = 6;
+    protected static final byte BYTE = 7;
+    protected static final byte BOOLEAN = 8;
+    protected static final byte CHAR = 9;
+    protected static final byte BYTES = 10;
+    protected static final byte ARRAY = 11;
+    protected static final byte ENUM = 12;
+    protected static final byte BIG_INTEGER = 13;
+    protected static final byte BIG_DECIMAL = 14;
+    protected static final byte SERIALIZED = 99;
+
+    /**
+     * 默认允许反序列化的类名前缀
+     */
+    public static final String[] DEFAULT_ALLOWED = {"java.lang.", "java.util.", "java.math.", "java.time.", "java.sql.", "org.nutz.lang.util."};
+
+    public static byte[] encode(Object obj) throws IOException {
+        ByteArrayOutputStream bao = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bao);
+        write(out, obj);
+        out.flush();
+        return bao.toByteArray();
+    }
+
+    /**
+     * 解码缓存值
+     *
+     * @param allowed
+     *            允许Java反序列化的类名前缀, 为null时遇到序列化数据直接报错
+     */
+    public static Object decode(byte[] buf, String[] allowed) throws IOException {
+        try {
+            return read(new DataInputStream(new ByteArrayInputStream(buf)), allowed);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    protected static void write(DataOutputStream out, Object obj) throws IOException {
+        if (obj == null) {
+            out.writeByte(NULL);
+        } else if (obj instanceof String) {
+            byte[] tmp = ((String) obj).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(tmp.length);
+            out.write(tmp);
+        } else if (obj instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) obj);
+        } else if (obj instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) obj);
+        } else if (obj instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) obj);
+        } else if (obj instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) obj);
+        } else if (obj instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) obj);
+        } else if (obj instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) obj);
+        } else if (obj instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) obj);
+        } else if (obj instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) obj);
+        } else if (obj instanceof byte[]) {
+            byte[] tmp = (byte[]) obj;
+            out.writeByte(BYTES);
+            out.writeInt(tmp.length);
+            out.write(tmp);
+        } else if (obj instanceof Enum) {
+            out.writeByte(ENUM);
+            writeString(out, ((Enum<?>) obj).getDeclaringClass().getName());
+            writeString(out, ((Enum<?>) obj).name());
+        } else if (obj.getClass() == BigInteger.class) {
+            out.writeByte(BIG_INTEGER);
+            writeString(out, obj.toString());
+        } else if (obj.getClass() == BigDecimal.class) {
+            out.writeByte(BIG_DECIMAL);
+            writeString(out, obj.toString());
+        } else if (obj.getClass() == Object[].class) {
+            Object[] tmp = (Object[]) obj;
+            out.writeByte(ARRAY);
+            out.writeInt(tmp.length);
+            for (Object item : tmp)
+                write(out, item);
+        } else if (obj instanceof Serializable) {
+            ByteArrayOutputStream bao = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bao)) {
+                oos.writeObject(obj);
+            }
+            out.writeByte(SERIALIZED);
+            out.writeInt(bao.size());
+            bao.writeTo(out);
+        } else {
+            throw new NotSerializableException(obj.getClass().getName());
+        }
+    }
+
+    protected static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] tmp = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(tmp.length);
+        out.write(tmp);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected static Object read(DataInputStream in, String[] allowed) throws IOException, ClassNotFoundException {
+        byte type = in.readByte();
+        switch (type) {
+        case NULL:
+            return null;
+        case STRING:
+            return new String(readBytes(in), StandardCharsets.UTF_8);
+        case INT:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case DOUBLE:
+            return in.readDouble();
+        case FLOAT:
+            return in.readFloat();
+        case SHORT:
+            return in.readShort();
+        case BYTE:
+            return in.readByte();
+        case BOOLEAN:
+            return in.readBoolean();
+        case CHAR:
+            return in.readChar();
+        case BYTES:
+            return readBytes(in);
+        case ARRAY: {
+            Object[] re = new Object[checkLength(in, in.readInt())];
+            for (int i = 0; i < re.length; i++)
+                re[i] = read(in, allowed);
+            return re;
+        }
+        case ENUM: {
+            // 只查找枚举常量, 不会执行任意类的反序列化
+            Class<?> klass = Class.forName(new String(readBytes(in), StandardCharsets.UTF_8), false, classLoader());
+            if (!klass.isEnum())
+                throw new InvalidClassException(klass.getName(), "not an enum");
+            return Enum.valueOf((Class<Enum>) klass, new String(readBytes(in), StandardCharsets.UTF_8));
+        }
+        case BIG_INTEGER:
+            return new BigInteger(new String(readBytes(in), StandardCharsets.UTF_8));
+        case BIG_DECIMAL:
+            return new BigDecimal(new String(readBytes(in), StandardCharsets.UTF_8));
+        case SERIALIZED:
+            if (allowed == null)
+                throw new InvalidClassException("serialized object is not allowed here");
+            try (ObjectInputStream ois = new AllowListObjectInputStream(new ByteArrayInputStream(readBytes(in)), allowed)) {
+                return ois.readObject();
+            }
+        default:
+            throw new IOException("unknown type " + type);
+        }
+    }
+
+    protected static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] buf = new byte[checkLength(in, in.readInt())];
+        in.readFully(buf);
+        return buf;
+    }
+
+    /**
+     * 长度不可能超过剩余的字节数, 避免伪造的长度申请大数组
+     */
+    protected static int checkLength(DataInputStream in, int len) throws IOException {
+        if (len < 0 || len > in.available())
+            throw new IOException("bad length " + len);
+        return len;
+    }
+
+    protected static ClassLoader classLoader() {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        return cl == null ? CacheCodec.class.getClassLoader() : cl;
+    }
+
+    /**
+     * 只允许白名单内的类(及其数组)被反序列化, 不允许动态代理
+     */
+    protected static class AllowListObjectInputStream extends ObjectInputStream {
+
+        protected String[] allowed;
+
+        public AllowListObjectInputStream(InputStream in, String[] allowed) throws IOException {
+            super(in);
+            this.allowed = allowed;
+        }
+
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            int index = name.lastIndexOf('[');
+            if (index >= 0) {
+                // 基本类型的数组, 或者 [Lxxx; 这种对象数组
+                if (name.length() == index + 2)
+                    return super.resolveClass(desc);
+                name = name.substring(index + 2, name.length() - 1);
+            }
+            for (String prefix : allowed) {
+                if (name.startsWith(prefix))
+                    return super.resolveClass(desc);
+            }
+            throw new InvalidClassException(name, "not in caffeine.l2.serialAllow");
+        }
+
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("proxy class is not allowed");
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.nutz.boot.starter.caffeine;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * 缓存键, 由方法的前缀(类名.方法名, 每个方法只算一次)和参数组成, 不再每次拼接字符串.
+ * <p/>
+ * toString与旧版的字符串键格式一致, 仅在需要时(如UpdateStrategy)才生成
+ *
+ * @author wendal
+ *
+ */
+public class CacheKey {
+
+    protected final String prefix;
+
+    protected final Object[] args;
+
+    protected final int hash;
+
+    /**
+     * 后台刷新时用于重新调用方法, 不参与equals/hashCode
+     */
+    protected transient Object target;
+
+    protected transient Method method;
+
+    protected transient Object[] params;
+
+    public CacheKey(String prefix, Object[] args) {
+        this.prefix = prefix;
+        this.args = args;
+        this.hash = 31 * prefix.hashCode() + Arrays.hashCode(args);
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public Object[] getArgs() {
+        return args;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof CacheKey))
+            return false;
+        CacheKey other = (CacheKey) obj;
+        return hash == other.hash && prefix.equals(other.prefix) && Arrays.equals(args, other.args);
+    }
+
+    @Override
+    public String toString() {
+        if (args.length == 0)
+            return prefix;
+        StringBuilder sb = new StringBuilder(prefix).append(':');
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0)
+                sb.append('$');
+            sb.append(args[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -13,6 +13,11 @@ public class CacheStrategy {
      */
     private long maxSize, maxIdle, maxLive;
 
+    /**
+     * 写入后超过这个时间(毫秒)的缓存, 下次访问时先返回旧值, 同时在后台重新加载. 仅当>0时生效
+     */
+    private long maxRefresh;
+
     public CacheStrategy(String name) {
         super();
         this.name = name;
@@ -25,6 +30,11 @@ public class CacheStrategy {
         this.maxLive = maxLive;
     }
 
+    public CacheStrategy(String name, long maxSize, long maxIdle, long maxLive, long maxRefresh) {
+        this(name, maxSize, maxIdle, maxLive);
+        this.maxRefresh = maxRefresh;
+    }
+
     public String getName() {
         return name;
     }
@@ -41,6 +51,10 @@ public class CacheStrategy {
         return maxLive;
     }
 
+    public long getMaxRefresh() {
+        return maxRefresh;
+    }
+
     public void setMaxSize(long maxSize) {
         this.maxSize = maxSize;
     }
@@ -53,6 +67,10 @@ public class CacheStrategy {
         this.maxLive = maxLive;
     }
 
+    public void setMaxRefresh(long maxRefresh) {
+        this.maxRefresh = maxRefresh;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -80,7 +98,7 @@ public class CacheStrategy {
 
     @Override
     public String toString() {
-        return "CacheStrategy [name=" + name + ", maxSize=" + maxSize + ", maxIdle=" + maxIdle + ", maxLive=" + maxLive + "]";
+        return "CacheStrategy [name=" + name + ", maxSize=" + maxSize + ", maxIdle=" + maxIdle + ", maxLive=" + maxLive + ", maxRefresh=" + maxRefresh + "]";
     }
 
 }
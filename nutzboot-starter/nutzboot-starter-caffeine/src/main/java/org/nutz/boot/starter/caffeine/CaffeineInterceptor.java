@@ -1,34 +1,61 @@
 package org.nutz.boot.starter.caffeine;
 
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.nutz.aop.InterceptorChain;
 import org.nutz.aop.MethodInterceptor;
+import org.nutz.boot.starter.MonitorObject;
+import org.nutz.integration.jedis.JedisAgent;
+import org.nutz.integration.jedis.pubsub.PubSubService;
 import org.nutz.ioc.Ioc;
 import org.nutz.ioc.impl.PropertiesProxy;
 import org.nutz.ioc.loader.annotation.Inject;
 import org.nutz.ioc.loader.annotation.IocBean;
 import org.nutz.lang.Lang;
+import org.nutz.lang.util.NutMap;
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 
-@IocBean(create = "init")
-public class CaffeineInterceptor implements MethodInterceptor {
+@IocBean(create = "init", depose = "depose")
+public class CaffeineInterceptor implements MethodInterceptor, MonitorObject {
 
     private static Log log = Logs.get();
-    private final ConcurrentMap<CacheStrategy, Cache<String, Object>> cacheMap = new ConcurrentHashMap<>();
+
+    /**
+     * 后台刷新时标记当前线程, 使重新调用方法时直接执行而不是再查缓存
+     */
+    private static final ThreadLocal<Method> REFRESHING = new ThreadLocal<>();
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private final ConcurrentMap<CacheStrategy, AsyncLoadingCache<CacheKey, Object>> cacheMap = new ConcurrentHashMap<>();
     private final Map<String, CacheStrategy> cacheStrategyMap = new HashMap<>();
 
+    /**
+     * 每个方法的缓存前缀及策略, 首次调用时计算
+     */
+    private final ConcurrentMap<Method, MethodCache> methods = new ConcurrentHashMap<>();
+
     @Inject
     protected PropertiesProxy conf;
 
@@ -36,75 +63,316 @@ public class CaffeineInterceptor implements MethodInterceptor {
 
     protected UpdateStrategy updateStrategy;
 
+    /**
+     * 二级缓存, 未启用时为null
+     */
+    protected RedisL2Cache l2;
+
+    /**
+     * 后台刷新及缓存维护的线程池, 不占用ForkJoinPool.commonPool
+     */
+    protected ThreadPoolExecutor executor;
+
     @Inject("refer:$ioc")
     protected Ioc ioc;
 
-    private Cache<String, Object> getCache(CacheStrategy strategy) {
-        Cache<String, Object> cache = cacheMap.get(strategy);
-        if (cache == null) {
-            synchronized (strategy) {
-                cache = cacheMap.get(strategy);
-                if (cache == null) {
-                    Caffeine<Object, Object> caffeine = Caffeine.newBuilder();
-                    if (strategy.getMaxIdle() > 0)
-                        caffeine.expireAfterAccess(strategy.getMaxIdle(), TimeUnit.MILLISECONDS);
-                    if (strategy.getMaxLive() > 0)
-                        caffeine.expireAfterWrite(strategy.getMaxLive(), TimeUnit.MILLISECONDS);
-                    if (strategy.getMaxSize() > 0)
-                        caffeine.maximumSize(strategy.getMaxSize());
-                    cache = caffeine.build();
-                    cacheMap.put(strategy, cache);
+    private AsyncLoadingCache<CacheKey, Object> getCache(CacheStrategy strategy) {
+        return cacheMap.computeIfAbsent(strategy, (cs) -> {
+            Caffeine<Object, Object> caffeine = Caffeine.newBuilder().executor(executor).recordStats();
+            if (cs.getMaxIdle() > 0)
+                caffeine.expireAfterAccess(cs.getMaxIdle(), TimeUnit.MILLISECONDS);
+            if (cs.getMaxLive() > 0)
+                caffeine.expireAfterWrite(cs.getMaxLive(), TimeUnit.MILLISECONDS);
+            if (cs.getMaxSize() > 0)
+                caffeine.maximumSize(cs.getMaxSize());
+            if (cs.getMaxRefresh() > 0)
+                caffeine.refreshAfterWrite(cs.getMaxRefresh(), TimeUnit.MILLISECONDS);
+            // 首次加载由调用线程在filter里完成, loader只用于后台刷新
+            return caffeine.buildAsync(new CacheLoader<CacheKey, Object>() {
+                public Object load(CacheKey key) throws Exception {
+                    return reload(key, null);
                 }
-            }
-        }
-        return cache;
+
+                public Object reload(CacheKey key, Object oldValue) throws Exception {
+                    return CaffeineInterceptor.this.reload(key, oldValue);
+                }
+            });
+        });
     }
 
-    public Cache<String, Object> getCache(String name) {
+    /**
+     * 获取某个缓存策略对应的缓存. 注意: 键的类型已从String改为CacheKey,
+     * 直接用字符串调用invalidate不会移除任何值, 请改用{@link #evict(String, String)}
+     */
+    public Cache<CacheKey, Object> getCache(String name) {
         CacheStrategy cs = cacheStrategyMap.get(name);
-        return cs == null ? null : getCache(cs);
+        return cs == null ? null : getCache(cs).synchronous();
     }
 
     @Override
     public void filter(InterceptorChain chain) throws Throwable {
         Method method = chain.getCallingMethod();
-        if (method.getReturnType() == void.class) {
-            log.warnf("method [%s] is void,should not use @Cache", method);
+        MethodCache mc = methods.get(method);
+        if (mc == null)
+            mc = methods.computeIfAbsent(method, this::createMethodCache);
+        if (mc.cache == null || REFRESHING.get() == method) {
+            REFRESHING.remove();
             chain.doChain();
             return;
         }
-        String name = method.getAnnotation(org.nutz.boot.starter.caffeine.Cache.class).value();
-        CacheStrategy strategy = cacheStrategyMap.get(name);
-        if (strategy == null) {
-            log.warnf("CacheStrategy[%s] on Method[%s] doesn't exist", name, method);
+        CacheKey key = mc.key(chain.getCallingObj(), chain.getArgs());
+        if (updateStrategy != null && updateStrategy.shouldUpdate(key.toString())) {
             chain.doChain();
+            Object value = chain.getReturn();
+            if (value == null)
+                mc.cache.synchronous().invalidate(key);
+            else
+                mc.cache.put(key, CompletableFuture.completedFuture(value));
+            if (l2 != null)
+                l2.put(mc.strategy, key, value, true);
+            return;
+        }
+        // 同一个key只有一个线程执行方法, 其他线程等待其结果
+        CompletableFuture<Object> created = new CompletableFuture<>();
+        CompletableFuture<Object> future = mc.cache.get(key, (k, executor) -> created);
+        if (future == created) {
+            Object value;
+            try {
+                value = load(mc, key, chain);
+            }
+            catch (Throwable e) {
+                created.completeExceptionally(e);
+                throw e;
+            }
+            created.complete(value);
             return;
         }
-        Cache<String, Object> cache = getCache(strategy);
-        String key = getKey(method, chain.getArgs());
-        Object value = cache.getIfPresent(key);
-        if (value == null || updateStrategy.shouldUpdate(key)) {
+        try {
+            chain.setReturnValue(future.join());
+        }
+        catch (CompletionException e) {
+            throw e.getCause() == null ? e : e.getCause();
+        }
+        if (log.isTraceEnabled())
+            log.tracef("hit cache with key %s", key);
+    }
+
+    /**
+     * 本地未命中时的加载: 先查二级缓存, 没有的话只有抢到加载锁的节点执行方法并写入二级缓存
+     */
+    protected Object load(MethodCache mc, CacheKey key, InterceptorChain chain) throws Throwable {
+        if (l2 == null) {
             chain.doChain();
-            cache.put(key, chain.getReturn());
-        } else {
-        	log.debugf("hit cache with key %s", key);
+            return chain.getReturn();
+        }
+        Object value = l2.get(mc.strategy, key);
+        if (value != RedisL2Cache.MISSING) {
             chain.setReturnValue(value);
+            return value;
+        }
+        boolean locked = l2.lock(mc.strategy, key);
+        try {
+            if (!locked) {
+                value = l2.await(mc.strategy, key);
+                if (value != RedisL2Cache.MISSING) {
+                    chain.setReturnValue(value);
+                    return value;
+                }
+            }
+            chain.doChain();
+            value = chain.getReturn();
+            l2.put(mc.strategy, key, value, false);
+            return value;
+        }
+        finally {
+            if (locked)
+                l2.unlock(mc.strategy, key);
+        }
+    }
+
+    /**
+     * 移除某个方法调用的缓存, 启用二级缓存时同时移除redis中的值并通知其他节点
+     */
+    public void evict(Method method, Object... args) {
+        MethodCache mc = methods.computeIfAbsent(method, this::createMethodCache);
+        if (mc.cache == null)
+            return;
+        CacheKey key = mc.key(null, args);
+        mc.cache.synchronous().invalidate(key);
+        if (l2 != null)
+            l2.evict(mc.strategy, key);
+    }
+
+    /**
+     * 按旧版的字符串键(即CacheKey.toString, 形如"类名.方法名:参数1$参数2")移除缓存,
+     * 启用二级缓存时同时移除redis中的值并通知其他节点
+     */
+    public void evict(String cacheName, String key) {
+        CacheStrategy cs = cacheStrategyMap.get(cacheName);
+        if (cs == null || key == null)
+            return;
+        evictLocal(cacheName, key);
+        if (l2 != null)
+            l2.evict(cs, new CacheKey(key, EMPTY)); // toString与原键一致, redis键相同
+    }
+
+    /**
+     * 只移除本节点的缓存, 收到其他节点的失效消息时调用
+     */
+    public void evictLocal(String name, CacheKey key) {
+        CacheStrategy cs = cacheStrategyMap.get(name);
+        AsyncLoadingCache<CacheKey, Object> cache = cs == null ? null : cacheMap.get(cs);
+        if (cache == null)
+            return;
+        cache.synchronous().invalidate(key);
+        // 无参数的键也可能是其他节点按字符串键发来的, 再按字符串匹配一次
+        if (key.getArgs().length == 0)
+            evictLocal(name, key.getPrefix());
+    }
+
+    protected void evictLocal(String name, String key) {
+        CacheStrategy cs = cacheStrategyMap.get(name);
+        AsyncLoadingCache<CacheKey, Object> cache = cs == null ? null : cacheMap.get(cs);
+        if (cache != null)
+            cache.synchronous().asMap().keySet().removeIf(k -> key.equals(k.toString()));
+    }
+
+    protected MethodCache createMethodCache(Method method) {
+        MethodCache mc = new MethodCache();
+        if (method.getReturnType() == void.class) {
+            log.warnf("method [%s] is void,should not use @Cache", method);
+            return mc;
+        }
+        String name = method.getAnnotation(org.nutz.boot.starter.caffeine.Cache.class).value();
+        CacheStrategy strategy = cacheStrategyMap.get(name);
+        if (strategy == null) {
+            log.warnf("CacheStrategy[%s] on Method[%s] doesn't exist", name, method);
+            return mc;
+        }
+        mc.prefix = method.getDeclaringClass().getName() + "." + method.getName();
+        mc.method = method;
+        mc.strategy = strategy;
+        mc.refresh = strategy.getMaxRefresh() > 0;
+        mc.cache = getCache(strategy);
+        if (mc.refresh)
+            method.setAccessible(true);
+        return mc;
+    }
+
+    /**
+     * 后台刷新: 通过AOP代理重新调用方法, 其他拦截器(如事务)照常生效
+     */
+    protected Object reload(CacheKey key, Object oldValue) throws Exception {
+        if (key.method == null)
+            return null;
+        REFRESHING.set(key.method);
+        try {
+            Object value = key.method.invoke(key.target, key.params);
+            if (l2 != null)
+                l2.refresh(methods.get(key.method).strategy, key, oldValue, value);
+            return value;
+        }
+        catch (InvocationTargetException e) {
+            Throwable cause = e.getTargetException();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+        finally {
+            REFRESHING.remove();
+        }
+    }
+
+    /**
+     * 参数转为缓存键的一部分. 未自定义KeyStringifier时, 简单类型直接使用, 省去toString
+     */
+    protected Object keyOf(Object arg) {
+        if (stringifier == null) {
+            if (arg == null || arg instanceof String || arg instanceof Number || arg instanceof Boolean || arg instanceof Character || arg instanceof Enum)
+                return arg;
+            return String.valueOf(arg);
+        }
+        return stringifier.stringify(arg);
+    }
+
+    protected class MethodCache {
+
+        protected String prefix;
+
+        protected Method method;
+
+        protected CacheStrategy strategy;
+
+        protected boolean refresh;
+
+        protected AsyncLoadingCache<CacheKey, Object> cache;
+
+        protected CacheKey key(Object target, Object[] args) {
+            Object[] tmp;
+            if (args == null || args.length == 0) {
+                tmp = EMPTY;
+            } else {
+                tmp = new Object[args.length];
+                for (int i = 0; i < args.length; i++)
+                    tmp[i] = keyOf(args[i]);
+            }
+            CacheKey key = new CacheKey(prefix, tmp);
+            if (refresh) {
+                key.target = target;
+                key.method = method;
+                key.params = args;
+            }
+            return key;
         }
     }
 
-    private String getKey(Method method, Object[] args) {
-        String fullName = String.format("%s.%s", method.getDeclaringClass().getName(), method.getName());
-        if (args == null || args.length == 0)
-            return fullName;
-        return fullName + ":" + Arrays.stream(args).map(stringifier::stringify).collect(Collectors.joining("$"));
+    public String getMonitorName() {
+        return "caffeine";
+    }
+
+    public Collection<String> getMonitorKeys() {
+        List<String> keys = new ArrayList<>();
+        for (CacheStrategy cs : cacheMap.keySet())
+            keys.add(cs.getName());
+        if (l2 != null)
+            keys.add("l2");
+        return keys;
+    }
+
+    public Object getMonitorValue(String key) {
+        if (l2 != null && "l2".equals(key))
+            return l2.getStats();
+        CacheStrategy cs = cacheStrategyMap.get(key);
+        AsyncLoadingCache<CacheKey, Object> cache = cs == null ? null : cacheMap.get(cs);
+        if (cache == null)
+            return null;
+        CacheStats stats = cache.synchronous().stats();
+        NutMap re = new NutMap();
+        re.put("size", cache.synchronous().estimatedSize());
+        re.put("hit", stats.hitCount());
+        re.put("miss", stats.missCount());
+        re.put("hitRate", stats.hitRate());
+        re.put("load", stats.loadSuccessCount());
+        re.put("loadFail", stats.loadFailureCount());
+        re.put("loadAvg_ms", stats.averageLoadPenalty() / 1000000.0);
+        re.put("eviction", stats.evictionCount());
+        return re;
     }
 
     public void init() {
+        int threads = conf.getInt(CaffeineStarter.PROP_REFRESH_THREADS, 2);
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 队列满时抛出拒绝异常, caffeine会放弃本次刷新并保留旧值, 维护任务则改由调用线程执行
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<>(conf.getInt(CaffeineStarter.PROP_REFRESH_QUEUE_SIZE, 1024)),
+                                          (r) -> {
+                                              Thread t = new Thread(r, "caffeine.refresh." + threadIndex.incrementAndGet());
+                                              t.setDaemon(true);
+                                              return t;
+                                          });
         String[] stringifierNames = ioc.getNamesByType(KeyStringifier.class);
-        this.stringifier = Lang.isEmptyArray(stringifierNames) ? String::valueOf : ioc.get(KeyStringifier.class, stringifierNames[0]);
+        this.stringifier = Lang.isEmptyArray(stringifierNames) ? null : ioc.get(KeyStringifier.class, stringifierNames[0]);
         log.debugf("use %s as KeyStringifier", this.stringifier);
         String[] updateStrategyNames = ioc.getNamesByType(UpdateStrategy.class);
-        this.updateStrategy = Lang.isEmptyArray(updateStrategyNames) ? k -> false : ioc.get(UpdateStrategy.class, updateStrategyNames[0]);
+        this.updateStrategy = Lang.isEmptyArray(updateStrategyNames) ? null : ioc.get(UpdateStrategy.class, updateStrategyNames[0]);
         log.debugf("use %s as UpdateStrategy", this.updateStrategy);
         Map<String, CacheStrategy> map = new HashMap<>();
         conf.entrySet().stream().filter(entry -> entry.getKey().startsWith(CaffeineStarter.PRE)).forEach(entry -> {
@@ -112,13 +380,14 @@ public class CaffeineInterceptor implements MethodInterceptor {
                 return;
             String[] split = entry.getKey().substring(CaffeineStarter.PRE.length()).split("\\.");
             if (split.length == 2) {
-                // cache.name=10000,-1,-1 这种
+                // cache.name=10000,-1,-1 这种, 可选的第4个值为maxRefresh
                 try {
                     String[] values = entry.getValue().replace(" ", ",").split(",");
                     long maxSize = Long.parseLong(values[0].trim());
                     long maxIdle = values.length > 1 ? Long.parseLong(values[1].trim()) : 0l;
                     long maxLive = values.length > 2 ? Long.parseLong(values[2].trim()) : 0l;
-                    CacheStrategy cacheStrategy = new CacheStrategy(split[1].trim(), maxSize, maxIdle, maxLive);
+                    long maxRefresh = values.length > 3 ? Long.parseLong(values[3].trim()) : 0l;
+                    CacheStrategy cacheStrategy = new CacheStrategy(split[1].trim(), maxSize, maxIdle, maxLive, maxRefresh);
                     cacheStrategyMap.put(cacheStrategy.getName(), cacheStrategy);
                     log.debugf("load CacheStrategy %s", cacheStrategy);
                 } catch (Exception e) {
@@ -141,6 +410,8 @@ public class CaffeineInterceptor implements MethodInterceptor {
                         cacheStrategy.setMaxIdle(value);
                     else if ("maxLive".equalsIgnoreCase(type))
                         cacheStrategy.setMaxLive(value);
+                    else if ("maxRefresh".equalsIgnoreCase(type))
+                        cacheStrategy.setMaxRefresh(value);
                 } catch (Exception e) {
                     log.errorf("failed to apply cache rule [%s]", entry.getKey());
                 }
@@ -153,6 +424,15 @@ public class CaffeineInterceptor implements MethodInterceptor {
             cacheStrategyMap.put(CacheStrategy.DEFAULT, new CacheStrategy(CacheStrategy.DEFAULT, 10000, 0, 0));
             log.debugf("load DEFAULT CacheStrategy %s", cacheStrategyMap.get(CacheStrategy.DEFAULT));
         }
+        if (conf.getBoolean(CaffeineStarter.PROP_L2_ENABLE, false)) {
+            l2 = new RedisL2Cache(this, ioc.get(JedisAgent.class), ioc.get(PubSubService.class), conf);
+            log.debug("caffeine l2 cache with redis enabled");
+        }
+    }
+
+    public void depose() {
+        if (executor != null)
+            executor.shutdownNow();
     }
 
 }
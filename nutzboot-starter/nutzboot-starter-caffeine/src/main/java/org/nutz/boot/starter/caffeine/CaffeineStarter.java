@@ -4,6 +4,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.nutz.aop.MethodInterceptor;
+import org.nutz.boot.annotation.PropDoc;
 import org.nutz.ioc.Ioc;
 import org.nutz.ioc.aop.SimpleAopMaker;
 import org.nutz.ioc.loader.annotation.IocBean;
@@ -13,6 +14,33 @@ public class CaffeineStarter extends SimpleAopMaker<Cache> {
     
     public static String PRE = "caffeine.cache";
 
+    @PropDoc(value = "是否启用redis二级缓存, 需要redis starter", defaultValue = "false", type = "boolean")
+    public static final String PROP_L2_ENABLE = "caffeine.l2.enable";
+
+    @PropDoc(value = "二级缓存在redis中的key前缀", defaultValue = "nb:cache:")
+    public static final String PROP_L2_PREFIX = "caffeine.l2.prefix";
+
+    @PropDoc(value = "缓存失效消息的pub/sub频道", defaultValue = "nb:cache:invalidate")
+    public static final String PROP_L2_CHANNEL = "caffeine.l2.channel";
+
+    @PropDoc(value = "缓存策略未设置maxLive时, redis中的存活时间(毫秒)", defaultValue = "3600000", type = "long")
+    public static final String PROP_L2_TTL = "caffeine.l2.ttl";
+
+    @PropDoc(value = "多节点同时未命中时, 加载锁的超时时间(毫秒)", defaultValue = "10000", type = "long")
+    public static final String PROP_L2_LOCK_TIME = "caffeine.l2.lockTime";
+
+    @PropDoc(value = "未抢到加载锁时, 等待其他节点写入redis的最长时间(毫秒), 超时后自行加载", defaultValue = "3000", type = "long")
+    public static final String PROP_L2_LOCK_WAIT = "caffeine.l2.lockWait";
+
+    @PropDoc(value = "redis中的值允许Java反序列化的类名前缀, 逗号分隔, 追加在java.lang./java.util./java.math./java.time./java.sql./org.nutz.lang.util.之后")
+    public static final String PROP_L2_SERIAL_ALLOW = "caffeine.l2.serialAllow";
+
+    @PropDoc(value = "后台刷新(maxRefresh)及缓存维护使用的线程数", defaultValue = "2", type = "int")
+    public static final String PROP_REFRESH_THREADS = "caffeine.refresh.threads";
+
+    @PropDoc(value = "后台刷新任务的等待队列长度, 满了之后本次刷新会被跳过, 继续使用旧值", defaultValue = "1024", type = "int")
+    public static final String PROP_REFRESH_QUEUE_SIZE = "caffeine.refresh.queueSize";
+
     private static List<? extends MethodInterceptor> interceptor;
 
     @Override
@@ -0,0 +1,320 @@
+package org.nutz.boot.starter.caffeine;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.nutz.integration.jedis.JedisAgent;
+import org.nutz.integration.jedis.pubsub.PubSub;
+import org.nutz.integration.jedis.pubsub.PubSubService;
+import org.nutz.ioc.impl.PropertiesProxy;
+import org.nutz.lang.Streams;
+import org.nutz.lang.Strings;
+import org.nutz.lang.random.R;
+import org.nutz.lang.util.NutMap;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * 基于redis的二级缓存. 本地(caffeine)未命中时先查redis, 仍未命中时只有抢到加载锁的节点执行方法, 其他节点等待其写入redis.
+ * <p/>
+ * 缓存被更新或移除时通过pub/sub广播, 各节点移除本地的旧值. redis出错时退化为只用本地缓存
+ *
+ * @author wendal
+ *
+ */
+public class RedisL2Cache implements PubSub {
+
+    private static final Log log = Logs.get();
+
+    /**
+     * redis中没有这个key
+     */
+    public static final Object MISSING = new Object();
+
+    protected static final byte[] LOCK_VALUE = "1".getBytes();
+
+    protected CaffeineInterceptor interceptor;
+
+    protected JedisAgent jedisAgent;
+
+    protected PubSubService pubSubService;
+
+    protected String prefix;
+
+    protected String channel;
+
+    /**
+     * 本节点的标识, 收到自己发出的失效消息时忽略
+     */
+    protected String nodeId = R.UU32();
+
+    protected long ttl;
+
+    protected long lockTime;
+
+    protected long lockWait;
+
+    /**
+     * 允许Java反序列化的类名前缀
+     */
+    protected String[] serialAllow;
+
+    protected LongAdder hit = new LongAdder();
+
+    protected LongAdder miss = new LongAdder();
+
+    protected LongAdder put = new LongAdder();
+
+    protected LongAdder error = new LongAdder();
+
+    protected LongAdder published = new LongAdder();
+
+    protected LongAdder received = new LongAdder();
+
+    public RedisL2Cache(CaffeineInterceptor interceptor, JedisAgent jedisAgent, PubSubService pubSubService, PropertiesProxy conf) {
+        this.interceptor = interceptor;
+        this.jedisAgent = jedisAgent;
+        this.pubSubService = pubSubService;
+        this.prefix = conf.get(CaffeineStarter.PROP_L2_PREFIX, "nb:cache:");
+        this.channel = conf.get(CaffeineStarter.PROP_L2_CHANNEL, prefix + "invalidate");
+        this.ttl = conf.getLong(CaffeineStarter.PROP_L2_TTL, 3600000);
+        this.lockTime = conf.getLong(CaffeineStarter.PROP_L2_LOCK_TIME, 10000);
+        this.lockWait = conf.getLong(CaffeineStarter.PROP_L2_LOCK_WAIT, 3000);
+        this.serialAllow = CacheCodec.DEFAULT_ALLOWED;
+        String allow = conf.get(CaffeineStarter.PROP_L2_SERIAL_ALLOW);
+        if (!Strings.isBlank(allow)) {
+            String[] extra = Strings.splitIgnoreBlank(allow);
+            this.serialAllow = Arrays.copyOf(CacheCodec.DEFAULT_ALLOWED, CacheCodec.DEFAULT_ALLOWED.length + extra.length);
+            System.arraycopy(extra, 0, serialAllow, CacheCodec.DEFAULT_ALLOWED.length, extra.length);
+        }
+        pubSubService.reg(channel, this);
+    }
+
+    protected byte[] redisKey(CacheStrategy cs, CacheKey key) {
+        return (prefix + cs.getName() + ":" + key).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public Object get(CacheStrategy cs, CacheKey key) {
+        Jedis jedis = null;
+        try {
+            jedis = jedisAgent.jedis();
+            byte[] buf = jedis.get(redisKey(cs, key));
+            if (buf == null) {
+                miss.increment();
+                return MISSING;
+            }
+            hit.increment();
+            return CacheCodec.decode(buf, serialAllow);
+        }
+        catch (InvalidClassException e) {
+            error.increment();
+            log.warnf("l2 get %s refused : %s, add the package to %s if it is trusted", key, e.getMessage(), CaffeineStarter.PROP_L2_SERIAL_ALLOW);
+            return MISSING;
+        }
+        catch (Throwable e) {
+            error.increment();
+            log.debugf("l2 get %s fail : %s", key, e.getMessage());
+            return MISSING;
+        }
+        finally {
+            Streams.safeClose(jedis);
+        }
+    }
+
+    /**
+     * @param publish
+     *            是否通知其他节点移除本地的旧值
+     */
+    public void put(CacheStrategy cs, CacheKey key, Object value, boolean publish) {
+        put(cs, key, value, publish, MISSING);
+    }
+
+    /**
+     * 后台刷新时写入redis, 新值与旧值编码后相同的话只续期, 不通知其他节点
+     */
+    public void refresh(CacheStrategy cs, CacheKey key, Object oldValue, Object value) {
+        put(cs, key, value, true, oldValue);
+    }
+
+    protected void put(CacheStrategy cs, CacheKey key, Object value, boolean publish, Object oldValue) {
+        if (value == null) {
+            if (publish && oldValue != null)
+                evict(cs, key);
+            return;
+        }
+        Jedis jedis = null;
+        try {
+            byte[] buf = CacheCodec.encode(value);
+            if (publish && sameValue(buf, oldValue))
+                publish = false;
+            jedis = jedisAgent.jedis();
+            jedis.psetex(redisKey(cs, key), cs.getMaxLive() > 0 ? cs.getMaxLive() : ttl, buf);
+            put.increment();
+        }
+        catch (IOException e) {
+            // 不可序列化的值只放本地缓存
+            log.debugf("l2 skip %s : %s", key, e.getMessage());
+            return;
+        }
+        catch (Throwable e) {
+            error.increment();
+            log.debugf("l2 put %s fail : %s", key, e.getMessage());
+        }
+        finally {
+            Streams.safeClose(jedis);
+        }
+        if (publish)
+            publish(cs, key);
+    }
+
+    protected boolean sameValue(byte[] buf, Object oldValue) {
+        if (oldValue == MISSING || oldValue == null)
+            return false;
+        try {
+            return Arrays.equals(buf, CacheCodec.encode(oldValue));
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    public void evict(CacheStrategy cs, CacheKey key) {
+        Jedis jedis = null;
+        try {
+            jedis = jedisAgent.jedis();
+            jedis.del(redisKey(cs, key));
+        }
+        catch (Throwable e) {
+            error.increment();
+            log.debugf("l2 del %s fail : %s", key, e.getMessage());
+        }
+        finally {
+            Streams.safeClose(jedis);
+        }
+        publish(cs, key);
+    }
+
+    /**
+     * 抢加载锁, redis出错时视为抢到, 由本节点自行加载
+     */
+    public boolean lock(CacheStrategy cs, CacheKey key) {
+        Jedis jedis = null;
+        try {
+            jedis = jedisAgent.jedis();
+            byte[] lockKey = lockKey(cs, key);
+            return "OK".equals(jedis.set(lockKey, LOCK_VALUE, "NX".getBytes(), "PX".getBytes(), lockTime));
+        }
+        catch (Throwable e) {
+            error.increment();
+            return true;
+        }
+        finally {
+            Streams.safeClose(jedis);
+        }
+    }
+
+    public void unlock(CacheStrategy cs, CacheKey key) {
+        Jedis jedis = null;
+        try {
+            jedis = jedisAgent.jedis();
+            jedis.del(lockKey(cs, key));
+        }
+        catch (Throwable e) {
+            error.increment();
+        }
+        finally {
+            Streams.safeClose(jedis);
+        }
+    }
+
+    protected byte[] lockKey(CacheStrategy cs, CacheKey key) {
+        return (prefix + "lock:" + cs.getName() + ":" + key).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 等待其他节点加载完成并写入redis, 超时返回MISSING.
+     * <p/>
+     * 加载结果为null, 不可序列化或者加载出错时不会写入redis, 锁释放后仍没有值就不再等待
+     */
+    public Object await(CacheStrategy cs, CacheKey key) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + lockWait;
+        long sleep = 10;
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(sleep);
+            sleep = Math.min(sleep * 2, 200);
+            Object value = get(cs, key);
+            if (value != MISSING)
+                return value;
+            if (!isLocked(cs, key))
+                return get(cs, key);
+        }
+        return MISSING;
+    }
+
+    /**
+     * 加载锁是否仍被持有, redis出错时视为已释放
+     */
+    protected boolean isLocked(CacheStrategy cs, CacheKey key) {
+        Jedis jedis = null;
+        try {
+            jedis = jedisAgent.jedis();
+            return jedis.exists(lockKey(cs, key));
+        }
+        catch (Throwable e) {
+            error.increment();
+            return false;
+        }
+        finally {
+            Streams.safeClose(jedis);
+        }
+    }
+
+    protected void publish(CacheStrategy cs, CacheKey key) {
+        try {
+            byte[] buf = CacheCodec.encode(new Object[]{cs.getName(), key.getPrefix(), key.getArgs()});
+            pubSubService.fire(channel, nodeId + ":" + Base64.getEncoder().encodeToString(buf));
+            published.increment();
+        }
+        catch (Throwable e) {
+            error.increment();
+            log.debugf("l2 publish %s fail : %s", key, e.getMessage());
+        }
+    }
+
+    public void onMessage(String channel, String message) {
+        int index = message.indexOf(':');
+        if (index < 0 || nodeId.equals(message.substring(0, index)))
+            return;
+        received.increment();
+        try {
+            // 消息来自共享的频道, 只接受简单类型组成的缓存键
+            Object obj = CacheCodec.decode(Base64.getDecoder().decode(message.substring(index + 1)), null);
+            if (!(obj instanceof Object[]))
+                throw new IllegalArgumentException("not a cache key");
+            Object[] tmp = (Object[]) obj;
+            if (tmp.length != 3 || !(tmp[0] instanceof String) || !(tmp[1] instanceof String) || !(tmp[2] instanceof Object[]))
+                throw new IllegalArgumentException("not a cache key");
+            interceptor.evictLocal((String) tmp[0], new CacheKey((String) tmp[1], (Object[]) tmp[2]));
+        }
+        catch (Throwable e) {
+            log.debugf("bad l2 message %s : %s", message, e.getMessage());
+        }
+    }
+
+    public NutMap getStats() {
+        NutMap re = new NutMap();
+        re.put("hit", hit.sum());
+        re.put("miss", miss.sum());
+        re.put("put", put.sum());
+        re.put("error", error.sum());
+        re.put("published", published.sum());
+        re.put("received", received.sum());
+        return re;
+    }
+}
@@ -7,6 +7,7 @@ import javax.inject.Provider;
 import org.apache.commons.configuration.AbstractConfiguration;
 import org.nutz.boot.AppContext;
 import org.nutz.boot.starter.ServerFace;
+import org.nutz.boot.starter.WebServerFace;
 import org.nutz.ioc.Ioc;
 import org.nutz.ioc.impl.PropertiesProxy;
 import org.nutz.ioc.loader.annotation.Inject;
@@ -58,6 +59,13 @@ public class EurekaClientStarter implements ServerFace, Provider<EurekaClient> {
         return new DiscoveryClient(applicationInfoManager, new DefaultEurekaClientConfig());
     }
 
+    /**
+     * 并发启动时, 等Web容器监听端口之后再注册服务
+     */
+    public Class<?>[] dependsOn() {
+        return new Class<?>[]{WebServerFace.class};
+    }
+
     public void start() throws Exception {
         applicationInfoManager = ioc.get(ApplicationInfoManager.class);
         applicationInfoManager.setInstanceStatus(InstanceStatus.UP);
@@ -2,8 +2,11 @@ package org.nutz.boot.starter.fastdfs;
 
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.csource.common.NameValuePair;
+import org.csource.fastdfs.DownloadCallback;
+import org.csource.fastdfs.FileInfo;
 import org.csource.fastdfs.StorageClient1;
 import org.csource.fastdfs.TrackerServer;
+import org.nutz.boot.starter.MonitorObject;
 import org.nutz.filepool.FilePool;
 import org.nutz.filepool.NutFilePool;
 import org.nutz.img.Images;
@@ -15,6 +18,7 @@ import org.nutz.lang.Streams;
 import org.nutz.lang.Strings;
 import org.nutz.lang.Times;
 import org.nutz.lang.util.Disks;
+import org.nutz.lang.util.NutMap;
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
 
@@ -22,13 +26,19 @@ import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static org.nutz.boot.starter.fastdfs.FastdfsStarter.*;
 
 @IocBean(create = "init", depose = "close")
-public class FastdfsService {
+public class FastdfsService implements MonitorObject {
     private static final Log log = Logs.get();
     private static final String PRE = "fastdfs.";
     private static String IMAGE_WATERMARK_SUFFIX = "-wmark";
@@ -41,6 +51,8 @@ public class FastdfsService {
     private static final String FILENAME_SEPERATOR = "/";
     private static final String EXT_SEPERATOR = ".";
     private static FilePool filePool;
+    private int bufferSize = 64 * 1024;
+    private ImageProcessor imageProcessor;
 
     @Inject
     private PropertiesProxy conf;
@@ -58,6 +70,7 @@ public class FastdfsService {
         IMAGE_THUMB_SUFFIX = conf.get(PROP_IMAGE_THUMBSUFFIX, "-thumb");
         IMAGE_THUMB_WIDTH = conf.getInt(PROP_IMAGE_THUMBWIDTH, 150);
         IMAGE_THUMB_HEIGHT = conf.getInt(PROP_IMAGE_THUMBHEIGHT, 150);
+        bufferSize = conf.getInt(PROP_STREAM_BUFFERSIZE, 64 * 1024);
         GenericObjectPoolConfig<TrackerServer> cfg = new GenericObjectPoolConfig<TrackerServer>();
         cfg.setMaxIdle(conf.getInt(PROP_POOL_MAXIDLE, 10));
         cfg.setMinIdle(conf.getInt(PROP_POOL_MINIDLE, 1));
@@ -65,6 +78,7 @@ public class FastdfsService {
         cfg.setMaxWaitMillis(conf.getInt(PROP_POOL_MAXWAITMILLIS, 6000));
         fastDfsClientFactory = new FastDfsClientFactory(prop);
         fastDfsClientPool = new FastDfsClientPool(fastDfsClientFactory, cfg);
+        imageProcessor = new ImageProcessor(conf.getInt(PROP_IMAGE_THREADS, Runtime.getRuntime().availableProcessors()), conf.getInt(PROP_IMAGE_QUEUESIZE, 64));
         filePool = NutFilePool.getOrCreatePool(conf.get(PROP_FILEPOOL_PATH, Disks.home() + "/fastdfs_tmp"), conf.getInt(PROP_FILEPOOL_SIZE, 200));
     }
 
@@ -72,6 +86,9 @@ public class FastdfsService {
         if (fastDfsClientPool != null) {
             fastDfsClientPool.close();
         }
+        if (imageProcessor != null) {
+            imageProcessor.close();
+        }
     }
 
     /**
@@ -358,28 +375,179 @@ public class FastdfsService {
     }
 
     /**
-     * 下载文件
+     * 下载文件, 边收边写, 不经过临时文件. 完成后关闭输出流
      *
      * @param fullFilename 文件路径
      * @param outputStream 输出流
      * @return
      */
     public void downLoadFile(String fullFilename, OutputStream outputStream) {
+        try {
+            downLoadFile(fullFilename, 0, 0, outputStream);
+        } finally {
+            Streams.safeClose(outputStream);
+        }
+    }
+
+    /**
+     * 下载文件的一部分, 用于HTTP Range请求. 数据按块直接写入输出流, 不关闭输出流
+     *
+     * @param fullFilename 文件路径
+     * @param offset       起始位置
+     * @param length       下载的字节数, 0表示到文件末尾
+     * @param outputStream 输出流
+     * @return 实际写入的字节数
+     */
+    public long downLoadFile(String fullFilename, long offset, long length, OutputStream outputStream) {
+        return call("download file", storageClient1 -> {
+            StreamDownloadCallback callback = new StreamDownloadCallback(outputStream);
+            int re = storageClient1.downloadFile1(fullFilename, offset, length, callback);
+            if (callback.error != null)
+                throw callback.error;
+            if (re != 0)
+                throw new IOException("errno " + re);
+            return callback.written;
+        });
+    }
+
+    /**
+     * 获取文件大小, 配合分段下载计算Content-Range
+     *
+     * @param fullFilename 文件路径
+     * @return 文件大小, 文件不存在时返回-1
+     */
+    public long getFileSize(String fullFilename) {
+        return call("get file info", storageClient1 -> {
+            FileInfo info = storageClient1.getFileInfo1(fullFilename);
+            return info == null ? -1L : info.getFileSize();
+        });
+    }
+
+    /**
+     * 流式上传文件, 按块从输入流读取并直接写入storage连接, 不需要把整个文件读入内存. 不关闭输入流
+     *
+     * @param in       输入流
+     * @param size     文件大小, 必须与输入流中的字节数一致
+     * @param ext      后缀名
+     * @param metaInfo 元信息
+     * @return
+     */
+    public String uploadFile(InputStream in, long size, String ext, Map<String, String> metaInfo) {
+        return call("upload file", storageClient1 -> storageClient1.uploadFile1(null, size, out -> {
+            copy(in, out, size);
+            return 0;
+        }, ext, toNameValuePairs(metaInfo)));
+    }
+
+    /**
+     * 流式上传文件
+     *
+     * @param channel  数据来源, 例如FileChannel
+     * @param size     文件大小
+     * @param ext      后缀名
+     * @param metaInfo 元信息
+     * @return
+     */
+    public String uploadFile(ReadableByteChannel channel, long size, String ext, Map<String, String> metaInfo) {
+        return uploadFile(Channels.newInputStream(channel), size, ext, metaInfo);
+    }
+
+    /**
+     * 流式上传从文件
+     *
+     * @param in           输入流
+     * @param size         文件大小
+     * @param originalPath 源文件路径（含groupId）
+     * @param prefixName   从文件名后缀
+     * @param ext          从文件类型
+     * @param metaInfo     元信息
+     */
+    public String uploadSalveFile(InputStream in, long size, String originalPath, String prefixName, String ext, Map<String, String> metaInfo) {
+        return call("upload file", storageClient1 -> storageClient1.uploadFile1(originalPath, prefixName, size, out -> {
+            copy(in, out, size);
+            return 0;
+        }, ext, toNameValuePairs(metaInfo)));
+    }
+
+    protected void copy(InputStream in, OutputStream out, long size) throws IOException {
+        byte[] buf = new byte[(int) Math.min(bufferSize, Math.max(size, 1))];
+        long remain = size;
+        while (remain > 0) {
+            int len = in.read(buf, 0, (int) Math.min(buf.length, remain));
+            if (len < 0)
+                throw new EOFException("[FastdfsService] stream end before " + size + " bytes");
+            out.write(buf, 0, len);
+            remain -= len;
+        }
+    }
+
+    protected NameValuePair[] toNameValuePairs(Map<String, String> metaInfo) {
+        if (Lang.isEmpty(metaInfo))
+            return null;
+        NameValuePair data[] = new NameValuePair[metaInfo.size()];
+        int index = 0;
+        for (Map.Entry<String, String> entry : metaInfo.entrySet()) {
+            data[index] = new NameValuePair(entry.getKey(), entry.getValue());
+            index++;
+        }
+        return data;
+    }
+
+    /**
+     * 借出一个TrackerServer执行操作, IO异常时该连接不再放回连接池
+     */
+    protected <T> T call(String action, StorageCall<T> call) {
         TrackerServer trackerServer = null;
-        StorageClient1 storageClient1 = null;
+        boolean broken = false;
         try {
             trackerServer = fastDfsClientPool.borrowObject();
-            String suffx = fullFilename.substring(fullFilename.lastIndexOf(EXT_SEPERATOR));
-            File file = filePool.createFile(suffx);
-            storageClient1 = new StorageClient1(trackerServer, null);
-            storageClient1.downloadFile1(fullFilename, file.getAbsolutePath());
-            Streams.writeAndClose(outputStream, new FileInputStream(file));
+            return call.call(new StorageClient1(trackerServer, null));
         } catch (Exception e) {
-            throw Lang.makeThrow("[FastdfsService] download file error : %s", e.getMessage());
+            broken = e instanceof IOException;
+            throw Lang.makeThrow("[FastdfsService] %s error : %s", action, e.getMessage());
         } finally {
-            if (trackerServer != null)
-                fastDfsClientPool.returnObject(trackerServer);
-            storageClient1 = null;
+            if (trackerServer != null) {
+                if (broken) {
+                    try {
+                        fastDfsClientPool.invalidateObject(trackerServer);
+                    } catch (Exception e) {
+                        log.debug("invalidate tracker server fail", e);
+                    }
+                } else {
+                    fastDfsClientPool.returnObject(trackerServer);
+                }
+            }
+        }
+    }
+
+    protected interface StorageCall<T> {
+        T call(StorageClient1 storageClient1) throws Exception;
+    }
+
+    /**
+     * 把storage返回的每一块数据直接写入输出流
+     */
+    protected static class StreamDownloadCallback implements DownloadCallback {
+
+        protected OutputStream out;
+
+        protected long written;
+
+        protected IOException error;
+
+        public StreamDownloadCallback(OutputStream out) {
+            this.out = out;
+        }
+
+        public int recv(long fileSize, byte[] data, int bytes) {
+            try {
+                out.write(data, 0, bytes);
+                written += bytes;
+                return 0;
+            } catch (IOException e) {
+                error = e;
+                return 1;
+            }
         }
     }
 
@@ -433,49 +601,14 @@ public class FastdfsService {
      * @return
      */
     public String uploadImage(byte[] image, byte[] watermark, String ext, Map<String, String> metaInfo, float opacity, int pos, int margin) {
-        String path = "";
-        TrackerServer trackerServer = null;
-        StorageClient1 storageClient1 = null;
-        ByteArrayOutputStream thumbOs = new ByteArrayOutputStream();
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        try {
-            trackerServer = fastDfsClientPool.borrowObject();
-            storageClient1 = new StorageClient1(trackerServer, null);
-            NameValuePair data[] = null;
-            if (Lang.isNotEmpty(metaInfo)) {
-                data = new NameValuePair[metaInfo.size()];
-                int index = 0;
-                for (Map.Entry<String, String> entry : metaInfo.entrySet()) {
-                    data[index] = new NameValuePair(entry.getKey(), entry.getValue());
-                    index++;
-                }
-            }
-            //保存原图
-            path = storageClient1.uploadFile1(image, ext, data);
-            //保存水印图 作为原图的salve file
-            BufferedImage bufferedImage = Images.addWatermark(image, watermark, opacity, pos, margin);
-            Images.write(bufferedImage, ext, os);
-            storageClient1.uploadFile1(path, IMAGE_WATERMARK_SUFFIX, os.toByteArray(), ext, data);
-            //保存缩略图
-            BufferedImage read = Images.read(image);
-            BufferedImage bufferedImageThumb = Images.zoomScale(read, IMAGE_THUMB_WIDTH, IMAGE_THUMB_HEIGHT);
-            Images.write(bufferedImageThumb, ext, thumbOs);
-            storageClient1.uploadFile1(path, IMAGE_THUMB_SUFFIX, thumbOs.toByteArray(), ext, data);
-
-        } catch (Exception e) {
-            throw Lang.makeThrow("[FastdfsService] upload images error : %s", e.getMessage());
-        } finally {
-            Streams.safeClose(os);
-            Streams.safeClose(thumbOs);
-            try {
-                if (trackerServer != null)
-                    fastDfsClientPool.returnObject(trackerServer);
-                storageClient1 = null;
-            } catch (Exception e) {
-                log.error(e);
-            }
-        }
-        return path;
+        Future<byte[][]> future = imageProcessor.submit(() -> {
+            BufferedImage src = imageProcessor.time(ImageProcessor.STAGE_DECODE, () -> Images.read(image));
+            // 先缩放, 加水印会直接在原图上绘制
+            BufferedImage thumb = imageProcessor.time(ImageProcessor.STAGE_THUMBNAIL, () -> Images.zoomScale(src, IMAGE_THUMB_WIDTH, IMAGE_THUMB_HEIGHT));
+            BufferedImage marked = imageProcessor.time(ImageProcessor.STAGE_WATERMARK, () -> Images.addWatermark(src, watermark, opacity, pos, margin));
+            return imageProcessor.time(ImageProcessor.STAGE_ENCODE, () -> new byte[][]{encodeImage(marked, ext), encodeImage(thumb, ext)});
+        });
+        return uploadImage(image, ext, metaInfo, future);
     }
 
     /**
@@ -493,50 +626,83 @@ public class FastdfsService {
      * @return
      */
     public String uploadImage(byte[] image, byte[] watermark, String ext, Map<String, String> metaInfo, int mode, int margin_x, int margin_y, float opacity, int markAngle) {
-        String path = "";
-        TrackerServer trackerServer = null;
-        StorageClient1 storageClient1 = null;
-        ByteArrayOutputStream thumbOs = new ByteArrayOutputStream();
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        try {
-            trackerServer = fastDfsClientPool.borrowObject();
-            storageClient1 = new StorageClient1(trackerServer, null);
-            NameValuePair data[] = null;
-            if (Lang.isNotEmpty(metaInfo)) {
-                data = new NameValuePair[metaInfo.size()];
-                int index = 0;
-                for (Map.Entry<String, String> entry : metaInfo.entrySet()) {
-                    data[index] = new NameValuePair(entry.getKey(), entry.getValue());
-                    index++;
-                }
-            }
-            path = storageClient1.uploadFile1(image, ext, data);
-            byte[] bytes = markImage(new ByteArrayInputStream(image), new ByteArrayInputStream(watermark), ext, mode, margin_x, margin_y, opacity, markAngle);
-            BufferedImage bufferedImage = ImageIO.read(new ByteArrayInputStream(bytes));
-            Images.write(bufferedImage, ext, os);
-            storageClient1.uploadFile1(path, IMAGE_WATERMARK_SUFFIX, os.toByteArray(), ext, data);
-            BufferedImage read = Images.read(image);
-            BufferedImage bufferedImageThumb = Images.zoomScale(read, IMAGE_THUMB_WIDTH, IMAGE_THUMB_HEIGHT);
-            Images.write(bufferedImageThumb, ext, thumbOs);
-            storageClient1.uploadFile1(path, IMAGE_THUMB_SUFFIX, thumbOs.toByteArray(), ext, data);
+        Future<byte[][]> future = imageProcessor.submit(() -> {
+            BufferedImage src = imageProcessor.time(ImageProcessor.STAGE_DECODE, () -> Images.read(image));
+            BufferedImage thumb = imageProcessor.time(ImageProcessor.STAGE_THUMBNAIL, () -> Images.zoomScale(src, IMAGE_THUMB_WIDTH, IMAGE_THUMB_HEIGHT));
+            BufferedImage marked = imageProcessor.time(ImageProcessor.STAGE_WATERMARK, () -> markImage(src, ImageIO.read(new ByteArrayInputStream(watermark)), mode, margin_x, margin_y, opacity, markAngle));
+            return imageProcessor.time(ImageProcessor.STAGE_ENCODE, () -> new byte[][]{encodeImage(marked, ext), encodeImage(thumb, ext)});
+        });
+        return uploadImage(image, ext, metaInfo, future);
+    }
 
-        } catch (Exception e) {
-            log.error(e);
+    /**
+     * 上传原图, 同时图片线程池在生成水印图和缩略图, 完成后再作为从文件上传. 只在传输时借用FastDFS连接
+     *
+     * @param future 水印图和缩略图的编码结果
+     */
+    protected String uploadImage(byte[] image, String ext, Map<String, String> metaInfo, Future<byte[][]> future) {
+        NameValuePair[] data = toNameValuePairs(metaInfo);
+        String path;
+        try {
+            path = timeUpload(() -> call("upload images", storageClient1 -> storageClient1.uploadFile1(image, ext, data)));
+        } catch (RuntimeException e) {
+            future.cancel(true);
+            throw e;
+        }
+        byte[][] images;
+        try {
+            images = future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            log.error(cause);
+            throw Lang.makeThrow("[FastdfsService] upload images error : %s", cause.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw Lang.makeThrow("[FastdfsService] upload images error : %s", e.getMessage());
-        } finally {
-            Streams.safeClose(os);
-            Streams.safeClose(thumbOs);
-            try {
-                if (trackerServer != null)
-                    fastDfsClientPool.returnObject(trackerServer);
-                storageClient1 = null;
-            } catch (Exception e) {
-                log.error(e);
-            }
         }
+        timeUpload(() -> call("upload images", storageClient1 -> {
+            storageClient1.uploadFile1(path, IMAGE_WATERMARK_SUFFIX, images[0], ext, data);
+            storageClient1.uploadFile1(path, IMAGE_THUMB_SUFFIX, images[1], ext, data);
+            return null;
+        }));
         return path;
     }
 
+    protected <T> T timeUpload(Callable<T> call) {
+        try {
+            return imageProcessor.time(ImageProcessor.STAGE_UPLOAD, call);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw Lang.wrapThrow(e);
+        }
+    }
+
+    protected static byte[] encodeImage(BufferedImage image, String ext) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Images.write(image, ext, os);
+        return os.toByteArray();
+    }
+
+    /**
+     * 图片处理线程池的吞吐量及各阶段耗时
+     */
+    public String getMonitorName() {
+        return "fastdfs";
+    }
+
+    public NutMap getMonitors() {
+        return imageProcessor.getStats();
+    }
+
+    public Collection<String> getMonitorKeys() {
+        return getMonitors().keySet();
+    }
+
+    public Object getMonitorValue(String key) {
+        return getMonitors().get(key);
+    }
+
     /**
      * 给图片添加带角度的水印
      *
@@ -555,11 +721,29 @@ public class FastdfsService {
         if (markAngle > 45 || markAngle < -45) {
             throw new RuntimeException("[FastdfsService] Rotation angle must be between positive and negative 45 degrees");
         }
-        BufferedImage originImg = ImageIO.read(originImgStream);
-        BufferedImage markImage = ImageIO.read(markImgStream);
+        BufferedImage originImg = markImage(ImageIO.read(originImgStream), ImageIO.read(markImgStream), mode, margin_x, margin_y, opacity, markAngle);
+        ImageIO.write(originImg, ext, os);
+        return os.toByteArray();
+    }
+
+    /**
+     * 给已解码的图片添加带角度的水印, 直接在原图上绘制
+     *
+     * @param originImg 原始图片
+     * @param markImage 水印图片, 为null时原样返回
+     * @param mode      0-常规,1-平铺,2-拉伸
+     * @param margin_x  水印之间的水平间距
+     * @param margin_y  水印之间的垂直间距
+     * @param opacity   水印透明度
+     * @param markAngle 水印旋转角度，应在正负45度之间
+     * @return 原始图片
+     */
+    public static BufferedImage markImage(BufferedImage originImg, BufferedImage markImage, int mode, int margin_x, int margin_y, float opacity, double markAngle) {
+        if (markAngle > 45 || markAngle < -45) {
+            throw new RuntimeException("[FastdfsService] Rotation angle must be between positive and negative 45 degrees");
+        }
         if (null == markImage) {
-            ImageIO.write(originImg, ext, os);
-            return os.toByteArray();
+            return originImg;
         }
 
         Graphics2D graphics = (Graphics2D) originImg.getGraphics();
@@ -579,7 +763,6 @@ public class FastdfsService {
             }
         }
         graphics.dispose();
-        ImageIO.write(originImg, ext, os);
-        return os.toByteArray();
+        return originImg;
     }
 }
@@ -55,6 +55,15 @@ public class FastdfsStarter {
     @PropDoc(value = "缩略图高度", defaultValue = "150", type = "int")
     public static final String PROP_IMAGE_THUMBHEIGHT = PRE + "image.thumbHeight";
 
+    @PropDoc(value = "流式上传时每次读取的块大小(字节)", defaultValue = "65536", type = "int")
+    public static final String PROP_STREAM_BUFFERSIZE = PRE + "stream.bufferSize";
+
+    @PropDoc(value = "图片处理(缩略图/水印)线程数", defaultValue = "CPU核数", type = "int")
+    public static final String PROP_IMAGE_THREADS = PRE + "image.threads";
+
+    @PropDoc(value = "图片处理队列长度, 队列满时由上传线程自行处理", defaultValue = "64", type = "int")
+    public static final String PROP_IMAGE_QUEUESIZE = PRE + "image.queueSize";
+
     @PropDoc(value = "文件池路径", defaultValue = "/fastdfs_temp", type = "string")
     public static final String PROP_FILEPOOL_PATH = PRE + "filepool.path";
 
@@ -0,0 +1,110 @@
+package org.nutz.boot.starter.fastdfs;
+
+import org.nutz.boot.metrics.HistogramSnapshot;
+import org.nutz.boot.metrics.Timer;
+import org.nutz.boot.metrics.impl.HistogramTimer;
+import org.nutz.boot.metrics.impl.LogLinearHistogram;
+import org.nutz.lang.util.NutMap;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 图片处理线程池及各阶段耗时统计. 解码/缩放/水印/编码都在这里执行, 不占用请求线程和FastDFS连接.
+ * <p/>
+ * 队列满时由提交者自己执行, 起到限流作用; 关闭后再提交直接抛出RejectedExecutionException
+ *
+ * @author wendal
+ */
+public class ImageProcessor implements Closeable {
+
+    public static final String STAGE_QUEUE = "queue";
+    public static final String STAGE_DECODE = "decode";
+    public static final String STAGE_THUMBNAIL = "thumbnail";
+    public static final String STAGE_WATERMARK = "watermark";
+    public static final String STAGE_ENCODE = "encode";
+    public static final String STAGE_UPLOAD = "upload";
+
+    protected ThreadPoolExecutor executor;
+
+    protected Map<String, Timer> stages = new LinkedHashMap<>();
+
+    protected LongAdder images = new LongAdder();
+
+    protected LongAdder failures = new LongAdder();
+
+    public ImageProcessor(int threads, int queueSize) {
+        AtomicInteger index = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, queueSize)), (r) -> {
+            Thread t = new Thread(r, "nb.fastdfs.image-" + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, (r, executor) -> {
+            // CallerRunsPolicy在线程池关闭后会静默丢弃任务, 等待结果的调用方将永远阻塞
+            if (executor.isShutdown())
+                throw new RejectedExecutionException("image processor is closed");
+            r.run();
+        });
+        executor.allowCoreThreadTimeOut(true);
+        for (String stage : new String[]{STAGE_QUEUE, STAGE_DECODE, STAGE_THUMBNAIL, STAGE_WATERMARK, STAGE_ENCODE, STAGE_UPLOAD})
+            stages.put(stage, new HistogramTimer(new LogLinearHistogram()));
+    }
+
+    public <T> Future<T> submit(Callable<T> task) {
+        long submitAt = System.nanoTime();
+        return executor.submit(() -> {
+            stages.get(STAGE_QUEUE).recordSince(submitAt);
+            try {
+                T re = task.call();
+                images.increment();
+                return re;
+            } catch (Throwable e) {
+                failures.increment();
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * 执行并记录某个阶段的耗时
+     */
+    public <T> T time(String stage, Callable<T> call) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return call.call();
+        } finally {
+            stages.get(stage).recordSince(start);
+        }
+    }
+
+    public NutMap getStats() {
+        NutMap re = new NutMap();
+        re.put("images", images.sum());
+        re.put("failures", failures.sum());
+        re.put("active", executor.getActiveCount());
+        re.put("queued", executor.getQueue().size());
+        for (Map.Entry<String, Timer> en : stages.entrySet()) {
+            HistogramSnapshot snapshot = en.getValue().snapshot();
+            NutMap tmp = new NutMap();
+            tmp.put("count", snapshot.getCount());
+            tmp.put("p50_ms", snapshot.percentile(50) / 1000000.0);
+            tmp.put("p99_ms", snapshot.percentile(99) / 1000000.0);
+            tmp.put("max_ms", snapshot.getMax() / 1000000.0);
+            re.put(en.getKey(), tmp);
+        }
+        return re;
+    }
+
+    public void close() {
+        executor.shutdown();
+    }
+}
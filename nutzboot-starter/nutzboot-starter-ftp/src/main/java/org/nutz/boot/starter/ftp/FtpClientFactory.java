@@ -0,0 +1,102 @@
+package org.nutz.boot.starter.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+import java.io.IOException;
+
+/**
+ * 创建已登录的FTPClient, 借出前用NOOP检查连接, 归还时切回登录时的目录
+ */
+public class FtpClientFactory implements PooledObjectFactory<FTPClient> {
+    private static final Log log = Logs.get();
+    private String host;
+    private int port;
+    private String username;
+    private String password;
+    private int timeout;
+    private String controlEncoding;
+
+    public FtpClientFactory(String host, int port, String username, String password, int timeout, String controlEncoding) {
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.timeout = timeout;
+        this.controlEncoding = controlEncoding;
+    }
+
+    /**
+     * 新建连接并登录
+     */
+    public FTPClient create() throws IOException {
+        PooledFtpClient ftpClient = new PooledFtpClient();
+        ftpClient.setConnectTimeout(timeout * 1000);
+        ftpClient.setDefaultTimeout(timeout * 1000);
+        ftpClient.connect(host, port);
+        ftpClient.login(username, password);
+        if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode())) {
+            ftpClient.disconnect();
+            throw new IOException("FTP logon denied");
+        }
+        ftpClient.enterLocalPassiveMode();
+        ftpClient.setFileType(FTPClient.BINARY_FILE_TYPE);
+        ftpClient.setBufferSize(3072);
+        ftpClient.sendCommand("OPTS UTF8", "ON");
+        ftpClient.setControlEncoding(controlEncoding);
+        ftpClient.setSoTimeout(timeout * 1000);
+        ftpClient.home = ftpClient.printWorkingDirectory();
+        return ftpClient;
+    }
+
+    @Override
+    public PooledObject<FTPClient> makeObject() throws Exception {
+        return new DefaultPooledObject<>(create());
+    }
+
+    @Override
+    public void destroyObject(PooledObject<FTPClient> pooledObject) throws Exception {
+        FTPClient ftpClient = pooledObject.getObject();
+        if (ftpClient.isConnected()) {
+            try {
+                ftpClient.logout();
+            } catch (IOException e) {
+            } finally {
+                ftpClient.disconnect();
+            }
+        }
+    }
+
+    @Override
+    public boolean validateObject(PooledObject<FTPClient> pooledObject) {
+        try {
+            FTPClient ftpClient = pooledObject.getObject();
+            return ftpClient.isConnected() && ftpClient.sendNoOp();
+        } catch (IOException e) {
+            log.debug("ftp connection is broken", e);
+        }
+        return false;
+    }
+
+    @Override
+    public void activateObject(PooledObject<FTPClient> pooledObject) throws Exception {
+    }
+
+    @Override
+    public void passivateObject(PooledObject<FTPClient> pooledObject) throws Exception {
+        // 池中的连接会被不同的调用方复用, 归还时恢复到登录时的目录, 相对路径才能保持原有语义
+        FTPClient ftpClient = pooledObject.getObject();
+        String home = ((PooledFtpClient) ftpClient).home;
+        if (home != null && !ftpClient.changeWorkingDirectory(home))
+            throw new IOException("fail to change working directory to " + home);
+    }
+
+    static class PooledFtpClient extends FTPClient {
+        String home;
+    }
+}
@@ -0,0 +1,17 @@
+package org.nutz.boot.starter.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+public class FtpClientPool extends GenericObjectPool<FTPClient> {
+
+    public FtpClientPool(PooledObjectFactory<FTPClient> factory) {
+        super(factory);
+    }
+
+    public FtpClientPool(PooledObjectFactory<FTPClient> factory, GenericObjectPoolConfig<FTPClient> config) {
+        super(factory, config);
+    }
+}
@@ -1,7 +1,7 @@
 package org.nutz.boot.starter.ftp;
 
 import org.apache.commons.net.ftp.FTPClient;
-import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.nutz.ioc.impl.PropertiesProxy;
 import org.nutz.ioc.loader.annotation.Inject;
 import org.nutz.ioc.loader.annotation.IocBean;
@@ -9,13 +9,16 @@ import org.nutz.lang.Streams;
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
 
 import static org.nutz.boot.starter.ftp.FtpStarter.*;
 
-@IocBean(create = "init")
+@IocBean(create = "init", depose = "close")
 public class FtpService {
     private static final Log log = Logs.get();
     private String host;
@@ -28,6 +31,8 @@ public class FtpService {
     private static String SERVER_CHARSET = "ISO-8859-1";
     @Inject
     protected PropertiesProxy conf;
+    private FtpClientFactory ftpClientFactory;
+    private FtpClientPool ftpClientPool;
 
     public void init() {
         if (conf.getBoolean(PROP_ENABLED, false)) {
@@ -36,141 +41,172 @@ public class FtpService {
             username = conf.get(PROP_SERVER_USERNAME, "");
             password = conf.get(PROP_SERVER_PASSWORD, "");
             timeout = conf.getInt(PROP_SERVER_TIMEOUT, 30);
-            //连接一下测试是否配置正确
-            FTPClient ftpClient = connect();
-            if (ftpClient != null) {
-                if (ftpClient.isConnected()) {
-                    try {
-                        //退出登录
-                        ftpClient.logout();
-                        //关闭连接
-                        ftpClient.disconnect();
-                    } catch (IOException e) {
-                    }
-                }
+            ftpClientFactory = new FtpClientFactory(host, port, username, password, timeout, LOCAL_CHARSET);
+            GenericObjectPoolConfig<FTPClient> cfg = new GenericObjectPoolConfig<FTPClient>();
+            cfg.setMaxTotal(conf.getInt(PROP_POOL_MAXTOTAL, 8));
+            cfg.setMaxIdle(conf.getInt(PROP_POOL_MAXIDLE, 8));
+            cfg.setMinIdle(conf.getInt(PROP_POOL_MINIDLE, 0));
+            cfg.setMaxWaitMillis(conf.getLong(PROP_POOL_MAXWAITMILLIS, 10000));
+            cfg.setTestOnBorrow(conf.getBoolean(PROP_POOL_TESTONBORROW, true));
+            cfg.setTestWhileIdle(true);
+            cfg.setMinEvictableIdleTimeMillis(conf.getLong(PROP_POOL_MINEVICTABLEIDLETIMEMILLIS, 60000));
+            cfg.setTimeBetweenEvictionRunsMillis(conf.getLong(PROP_POOL_TIMEBETWEENEVICTIONRUNSMILLIS, 30000));
+            cfg.setJmxEnabled(false);
+            ftpClientPool = new FtpClientPool(ftpClientFactory, cfg);
+            //连接一下测试是否配置正确, 连接留在池中复用
+            try {
+                ftpClientPool.addObject();
+                log.info("[FtpService] FTP logon success");
+            } catch (Exception e) {
+                log.error("[FtpService] FTP config error", e);
             }
         }
     }
 
+    public void close() {
+        if (ftpClientPool != null) {
+            ftpClientPool.close();
+        }
+    }
+
+    /**
+     * 新建一个不经过连接池的连接, 用完需自行logout和disconnect
+     */
     public FTPClient connect() {
-        FTPClient ftpClient = null;
+        if (ftpClientFactory == null) {
+            log.info("[FtpService] FTP is not enabled");
+            return null;
+        }
         try {
-            ftpClient = new FTPClient();
-            ftpClient.connect(host, port);
-            ftpClient.login(username, password);
-            if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode())) {
-                ftpClient.disconnect();
-                log.info("[FtpService] FTP logon denied");
-                return null;
-            } else {
-                log.info("[FtpService] FTP logon success");
-            }
-            ftpClient.enterLocalPassiveMode();
-            ftpClient.setFileType(FTPClient.BINARY_FILE_TYPE);
-            ftpClient.setDefaultTimeout(timeout * 1000);
-            ftpClient.setBufferSize(3072);
-            ftpClient.sendCommand("OPTS UTF8", "ON");
-            ftpClient.setControlEncoding(LOCAL_CHARSET);
+            return ftpClientFactory.create();
         } catch (IOException e) {
             log.error("[FtpService] FTP config error", e);
         }
-        return ftpClient;
+        return null;
     }
 
-    public boolean upload(String filePath, String fileName, InputStream input) {
-        boolean result = false;
-        FTPClient ftpClient = null;
+    /**
+     * 从连接池借出一个已登录的连接执行操作, 连接的工作目录在归还时恢复. IO异常时该连接被丢弃
+     */
+    public <T> T execute(FtpCallback<T> callback) throws IOException {
+        if (ftpClientPool == null)
+            throw new IOException("[FtpService] FTP is not enabled");
+        FTPClient ftpClient;
         try {
-            ftpClient = connect();
-            if (ftpClient == null) {
-                return false;
-            }
-            if (!ftpClient.changeWorkingDirectory(filePath)) {
-                //如果目录不存在创建目录
-                String[] dirs = filePath.split("/");
-                String tempPath = "";
-                for (String dir : dirs) {
-                    if (null == dir || "".equals(dir))
-                        continue;
-                    tempPath += "/" + dir;
-                    if (!ftpClient.changeWorkingDirectory(tempPath)) {
-                        if (!ftpClient.makeDirectory(tempPath)) {
-                            return result;
-                        } else {
-                            ftpClient.changeWorkingDirectory(tempPath);
-                        }
-                    }
-                }
-            }
-            fileName = new String(fileName.getBytes(LOCAL_CHARSET), SERVER_CHARSET);
-            if (!ftpClient.storeFile(fileName, input)) {
-                return result;
-            }
-            result = true;
+            ftpClient = ftpClientPool.borrowObject();
         } catch (IOException e) {
-            log.error("[FtpService] error when ftp upload file", e);
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("[FtpService] fail to borrow ftp connection", e);
+        }
+        boolean broken = true;
+        try {
+            T re = callback.invoke(ftpClient);
+            broken = false;
+            return re;
         } finally {
-            if (null != input) {
+            if (broken) {
                 try {
-                    input.close();
-                } catch (IOException e) {
+                    ftpClientPool.invalidateObject(ftpClient);
+                } catch (Exception e) {
                 }
+            } else {
+                ftpClientPool.returnObject(ftpClient);
             }
-            if (ftpClient.isConnected()) {
-                try {
-                    ftpClient.logout();
-                    ftpClient.disconnect();
-                } catch (IOException e) {
+        }
+    }
+
+    public boolean upload(String filePath, String fileName, InputStream input) {
+        try {
+            return execute(ftpClient -> changeDirectory(ftpClient, filePath) && store(ftpClient, fileName, input));
+        } catch (IOException e) {
+            log.error("[FtpService] error when ftp upload file", e);
+        } finally {
+            Streams.safeClose(input);
+        }
+        return false;
+    }
+
+    /**
+     * 批量上传, 所有文件共用一个FTP会话, 省去每个文件的连接和登录
+     *
+     * @param filePath 目标目录, 不存在时自动创建
+     * @param files    本地文件, 上传后使用原文件名
+     * @return 成功上传的文件数
+     */
+    public int upload(String filePath, Collection<File> files) {
+        try {
+            return execute(ftpClient -> {
+                if (!changeDirectory(ftpClient, filePath))
+                    return 0;
+                int count = 0;
+                for (File file : files) {
+                    try (InputStream input = new FileInputStream(file)) {
+                        if (store(ftpClient, file.getName(), input))
+                            count++;
+                        else
+                            log.warnf("[FtpService] fail to upload %s : %s", file, ftpClient.getReplyString());
+                    }
                 }
-            }
+                return count;
+            });
+        } catch (IOException e) {
+            log.error("[FtpService] error when ftp upload files", e);
         }
-        return result;
+        return 0;
     }
 
     public boolean delete(String fileNameHasPath) {
-        boolean result = false;
-        FTPClient ftpClient = null;
         try {
-            ftpClient = connect();
-            if (ftpClient == null) {
-                return false;
-            }
-            fileNameHasPath = new String(fileNameHasPath.getBytes(LOCAL_CHARSET), SERVER_CHARSET);
-            ftpClient.dele(fileNameHasPath);
-            result = true;
+            return execute(ftpClient -> {
+                ftpClient.dele(new String(fileNameHasPath.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
+                return true;
+            });
         } catch (IOException e) {
             log.error("[FtpService] error when ftp delete file", e);
-        } finally {
-            if (ftpClient.isConnected()) {
-                try {
-                    ftpClient.logout();
-                    ftpClient.disconnect();
-                } catch (IOException e) {
-                }
-            }
         }
-        return result;
+        return false;
     }
 
     public void download(String fileNameHasPath, OutputStream outputStream) {
-        FTPClient ftpClient = null;
         try {
-            ftpClient = connect();
-            if (ftpClient == null) {
-                return;
-            }
-            fileNameHasPath = new String(fileNameHasPath.getBytes(LOCAL_CHARSET), SERVER_CHARSET);
-            Streams.writeAndClose(outputStream, ftpClient.retrieveFileStream(fileNameHasPath));
+            // retrieveFile会读取传输完成的应答, 连接可以继续复用
+            execute(ftpClient -> ftpClient.retrieveFile(new String(fileNameHasPath.getBytes(LOCAL_CHARSET), SERVER_CHARSET), outputStream));
         } catch (IOException e) {
             log.error("[FtpService] error when ftp download file", e);
         } finally {
-            if (ftpClient.isConnected()) {
-                try {
-                    ftpClient.logout();
-                    ftpClient.disconnect();
-                } catch (IOException e) {
+            Streams.safeClose(outputStream);
+        }
+    }
+
+    /**
+     * 切换到目标目录, 目录不存在时逐级创建
+     */
+    protected boolean changeDirectory(FTPClient ftpClient, String filePath) throws IOException {
+        if (ftpClient.changeWorkingDirectory(filePath))
+            return true;
+        String[] dirs = filePath.split("/");
+        String tempPath = "";
+        for (String dir : dirs) {
+            if (null == dir || "".equals(dir))
+                continue;
+            tempPath += "/" + dir;
+            if (!ftpClient.changeWorkingDirectory(tempPath)) {
+                if (!ftpClient.makeDirectory(tempPath)) {
+                    return false;
+                } else {
+                    ftpClient.changeWorkingDirectory(tempPath);
                 }
             }
         }
+        return true;
+    }
+
+    protected boolean store(FTPClient ftpClient, String fileName, InputStream input) throws IOException {
+        return ftpClient.storeFile(new String(fileName.getBytes(LOCAL_CHARSET), SERVER_CHARSET), input);
+    }
+
+    public interface FtpCallback<T> {
+        T invoke(FTPClient ftpClient) throws IOException;
     }
 }
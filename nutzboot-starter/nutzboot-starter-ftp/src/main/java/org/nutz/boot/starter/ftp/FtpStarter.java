@@ -24,4 +24,25 @@ public class FtpStarter {
     @PropDoc(value = "FTP超时时间", defaultValue = "30", type = "int")
     public static final String PROP_SERVER_TIMEOUT = PRE + "timeout";
 
+    @PropDoc(value = "连接池最大连接数, 即同一FTP服务器的最大并发会话数", defaultValue = "8", type = "int")
+    public static final String PROP_POOL_MAXTOTAL = PRE + "pool.maxTotal";
+
+    @PropDoc(value = "连接池最大空闲数", defaultValue = "8", type = "int")
+    public static final String PROP_POOL_MAXIDLE = PRE + "pool.maxIdle";
+
+    @PropDoc(value = "连接池最小空闲数", defaultValue = "0", type = "int")
+    public static final String PROP_POOL_MINIDLE = PRE + "pool.minIdle";
+
+    @PropDoc(value = "连接池满时的最长等待时间(毫秒)", defaultValue = "10000", type = "long")
+    public static final String PROP_POOL_MAXWAITMILLIS = PRE + "pool.maxWaitMillis";
+
+    @PropDoc(value = "借出连接前是否发送NOOP检查", defaultValue = "true", type = "boolean")
+    public static final String PROP_POOL_TESTONBORROW = PRE + "pool.testOnBorrow";
+
+    @PropDoc(value = "空闲连接的最长保留时间(毫秒), 应小于服务器的空闲超时", defaultValue = "60000", type = "long")
+    public static final String PROP_POOL_MINEVICTABLEIDLETIMEMILLIS = PRE + "pool.minEvictableIdleTimeMillis";
+
+    @PropDoc(value = "空闲连接检查间隔(毫秒), 检查时会发送NOOP", defaultValue = "30000", type = "long")
+    public static final String PROP_POOL_TIMEBETWEENEVICTIONRUNSMILLIS = PRE + "pool.timeBetweenEvictionRunsMillis";
+
 }
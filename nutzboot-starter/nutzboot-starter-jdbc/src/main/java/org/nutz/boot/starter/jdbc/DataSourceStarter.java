@@ -3,8 +3,10 @@ package org.nutz.boot.starter.jdbc;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -13,6 +15,7 @@ import java.util.Random;
 import javax.sql.DataSource;
 
 import org.nutz.boot.annotation.PropDoc;
+import org.nutz.boot.starter.MonitorObject;
 import org.nutz.dao.impl.SimpleDataSource;
 import org.nutz.ioc.Ioc;
 import org.nutz.ioc.impl.PropertiesProxy;
@@ -20,6 +23,7 @@ import org.nutz.ioc.loader.annotation.Inject;
 import org.nutz.ioc.loader.annotation.IocBean;
 import org.nutz.lang.Lang;
 import org.nutz.lang.Strings;
+import org.nutz.lang.util.NutMap;
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
 
@@ -30,7 +34,7 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
 @IocBean(depose="depose")
-public class DataSourceStarter {
+public class DataSourceStarter implements MonitorObject {
 
     private static final Log log = Logs.get();
 
@@ -44,6 +48,20 @@ public class DataSourceStarter {
     @PropDoc(group = "jdbc", value = "数据库密码")
     public static final String PROP_PASSWORD = PRE + "password";
     // 其他属性请查阅druid/hikari的文档
+    @PropDoc(group = "jdbc", value = "多个从库的挑选策略", possible = {"random", "round-robin", "weighted", "least-active", "p2c-ewma"}, defaultValue = "random")
+    public static final String PROP_SLAVE_LOADBALANCE = PRE + "slave.loadbalance";
+    @PropDoc(group = "jdbc", value = "从库权重, weighted策略使用, 例如jdbc.slave.weight.0=3", defaultValue = "1", type = "int")
+    public static final String PROP_SLAVE_WEIGHT = PRE + "slave.weight.*";
+    @PropDoc(group = "jdbc", value = "从库健康检查间隔,单位毫秒,0为不检查", defaultValue = "10000", type = "int")
+    public static final String PROP_SLAVE_HEALTH_INTERVAL = PRE + "slave.health.interval";
+    @PropDoc(group = "jdbc", value = "从库健康检查超时,单位秒", defaultValue = "3", type = "int")
+    public static final String PROP_SLAVE_HEALTH_TIMEOUT = PRE + "slave.health.timeout";
+    @PropDoc(group = "jdbc", value = "查询从库复制延迟(秒)的语句, 例如SHOW SLAVE STATUS", defaultValue = "")
+    public static final String PROP_SLAVE_HEALTH_LAG_QUERY = PRE + "slave.health.lagQuery";
+    @PropDoc(group = "jdbc", value = "从库复制延迟超过多少秒就移出轮换", defaultValue = "30", type = "int")
+    public static final String PROP_SLAVE_HEALTH_MAX_LAG = PRE + "slave.health.maxLag";
+    @PropDoc(group = "jdbc", value = "从库获取连接连续失败多少次后暂时摘除", defaultValue = "3", type = "int")
+    public static final String PROP_SLAVE_OUTLIER_FAILURES = PRE + "slave.outlier.failures";
 
     @Inject
     protected PropertiesProxy conf;
@@ -54,6 +72,9 @@ public class DataSourceStarter {
     // 保存已创建的Slave数据源
     protected static List<DataSource> slaves = new ArrayList<>();
 
+    // 保存已创建的从库挑选器
+    protected static List<ReplicaSelector> selectors = new ArrayList<>();
+
     @IocBean
     public DataSource getDataSource() throws Exception {
         return createDataSource(ioc, conf, PRE);
@@ -187,14 +208,14 @@ public class DataSourceStarter {
 
     private static DataSource _getSlaveDataSource(Ioc ioc, PropertiesProxy conf, String prefix) {
         // 看看有多少从数据库被定义了
-        List<DataSource> slaveDataSources = new ArrayList<>();
+        Map<String, DataSource> slaveDataSources = new LinkedHashMap<>();
         for (String key : conf.keys()) {
             if (key.startsWith(prefix) && key.endsWith(".url")) {
                 String slaveName = key.substring(prefix.length(), key.length() - ".url".length());
                 log.debug("found Slave DataSource name=" + slaveName);
                 try {
                     DataSource slaveDataSource = DataSourceStarter.createSlaveDataSource(ioc, conf, prefix + slaveName + ".");
-                    slaveDataSources.add(slaveDataSource);
+                    slaveDataSources.put(slaveName, slaveDataSource);
                     slaves.add(slaveDataSource);
                 }
                 catch (Exception e) {
@@ -206,11 +227,14 @@ public class DataSourceStarter {
         if (slaveDataSources.size() > 0) {
             if (slaveDataSources.size() == 1) {
                 // 单个? 那就直接set吧
-                return slaveDataSources.get(0);
+                return slaveDataSources.values().iterator().next();
             } else {
-                // 多个从数据源,使用DynaDataSource进行随机挑选
-                // TODO 更多更精细的挑选策略(轮训/随机/可用性...)
-                return new DynaDataSource(new DynaDataSourceSeletor(slaveDataSources));
+                // 多个从数据源,使用DynaDataSource按策略挑选,并检查健康状态
+                ReplicaSelector selector = new ReplicaSelector(slaveDataSources, conf, prefix);
+                synchronized (selectors) {
+                    selectors.add(selector);
+                }
+                return new DynaDataSource(selector);
             }
         }
         return null;
@@ -244,7 +268,42 @@ public class DataSourceStarter {
         }
     }
     
+    public String getMonitorName() {
+        return "jdbc.replicas";
+    }
+
+    public boolean isMonitorEnable() {
+        return !selectors.isEmpty();
+    }
+
+    public Collection<String> getMonitorKeys() {
+        return getMonitors().keySet();
+    }
+
+    public Object getMonitorValue(String key) {
+        return getMonitors().get(key);
+    }
+
+    public NutMap getMonitors() {
+        NutMap re = new NutMap();
+        synchronized (selectors) {
+            for (ReplicaSelector selector : selectors)
+                re.putAll(selector.getStats());
+        }
+        return re;
+    }
+
     public void depose() {
+        synchronized (selectors) {
+            for (ReplicaSelector selector : selectors) {
+                try {
+                    selector.close();
+                }
+                catch (Throwable e) {
+                }
+            }
+            selectors.clear();
+        }
         log.debug("shutdown slave datasource count=" + slaves.size());
         for (DataSource ds : slaves) {
             try {
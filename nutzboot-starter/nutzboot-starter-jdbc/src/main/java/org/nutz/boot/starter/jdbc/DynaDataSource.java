@@ -28,6 +28,8 @@ public class DynaDataSource implements DataSource, Closeable {
      * 通过迭代器获取下一个连接池,然后获取数据库连接
      */
     public Connection getConnection() throws SQLException {
+        if (it instanceof ReplicaSelector)
+            return ((ReplicaSelector) it).getConnection(null, null);
         return it.next().getConnection();
     }
     
@@ -61,6 +63,8 @@ public class DynaDataSource implements DataSource, Closeable {
     }
 
     public Connection getConnection(String username, String password) throws SQLException {
+        if (it instanceof ReplicaSelector)
+            return ((ReplicaSelector) it).getConnection(username, password);
         return it.next().getConnection(username, password);
     }
 
@@ -0,0 +1,249 @@
+package org.nutz.boot.starter.jdbc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+import org.nutz.boot.loadbalance.LoadBalancer;
+import org.nutz.boot.loadbalance.LoadBalancers;
+import org.nutz.boot.loadbalance.OutlierDetector;
+import org.nutz.boot.loadbalance.ServerStats;
+import org.nutz.ioc.impl.PropertiesProxy;
+import org.nutz.lang.Strings;
+import org.nutz.lang.util.NutMap;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+/**
+ * 从库的挑选策略, 供DynaDataSource使用.
+ * <p/>
+ * 1. 挑选算法由 前缀+loadbalance 配置, 支持random/round-robin/weighted/least-active/p2c-ewma
+ * <p/>
+ * 2. 获取连接失败会换一个从库重试一次, 连续失败的从库暂时摘除
+ * <p/>
+ * 3. 后台定时检查每个从库的可用性及复制延迟, 不健康的从库移出轮换, 恢复后自动加回
+ *
+ * @author wendal
+ *
+ */
+public class ReplicaSelector implements Iterator<DataSource>, Closeable {
+
+    private static final Log log = Logs.get();
+
+    protected String prefix;
+
+    protected ServerStats[] replicas;
+
+    protected LoadBalancer loadBalancer;
+
+    protected OutlierDetector outlierDetector;
+
+    /**
+     * least-active/p2c-ewma需要知道每个从库借出了多少连接, 这时会包装Connection
+     */
+    protected boolean trackConnections;
+
+    protected int healthTimeout;
+
+    protected String lagQuery;
+
+    protected long maxLag;
+
+    protected Map<String, Long> lags = new LinkedHashMap<>();
+
+    protected ScheduledExecutorService checker;
+
+    /**
+     * @param dataSources
+     *            从库名称 -> 连接池
+     */
+    public ReplicaSelector(Map<String, DataSource> dataSources, PropertiesProxy conf, String prefix) {
+        this.prefix = prefix;
+        String lb = conf.get(prefix + "loadbalance", "random");
+        this.loadBalancer = LoadBalancers.create(lb);
+        this.trackConnections = !"random".equals(lb) && !"round-robin".equals(lb) && !"weighted".equals(lb);
+        this.outlierDetector = new OutlierDetector(conf.getInt(prefix + "outlier.failures", 3), conf.getLong(prefix + "outlier.ejectTime", 10000), conf.getLong(prefix + "outlier.maxEjectTime", 300000));
+        replicas = new ServerStats[dataSources.size()];
+        int index = 0;
+        for (Map.Entry<String, DataSource> en : dataSources.entrySet()) {
+            ServerStats st = outlierDetector.get(en.getKey());
+            st.server = en.getValue();
+            st.weight = conf.getInt(prefix + "weight." + en.getKey(), 1);
+            replicas[index++] = st;
+        }
+        this.healthTimeout = conf.getInt(prefix + "health.timeout", 3);
+        this.lagQuery = conf.get(prefix + "health.lagQuery");
+        this.maxLag = conf.getLong(prefix + "health.maxLag", 30);
+        long interval = conf.getLong(prefix + "health.interval", 10000);
+        if (interval > 0) {
+            checker = Executors.newSingleThreadScheduledExecutor((r) -> {
+                Thread t = new Thread(r, "nb.jdbc.replica.checker");
+                t.setDaemon(true);
+                return t;
+            });
+            checker.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public DataSource next() {
+        return (DataSource) loadBalancer.select(replicas, null).server;
+    }
+
+    public boolean hasNext() {
+        return true;
+    }
+
+    /**
+     * 选择一个从库并获取连接, 失败的话换一个从库再试一次
+     */
+    public Connection getConnection(String username, String password) throws SQLException {
+        ServerStats st = loadBalancer.select(replicas, null);
+        try {
+            return getConnection(st, username, password);
+        }
+        catch (SQLException e) {
+            ServerStats other = loadBalancer.select(replicas, null);
+            if (other == st || other == null)
+                throw e;
+            log.debugf("replica %s%s fail, try %s", prefix, st.id, other.id);
+            return getConnection(other, username, password);
+        }
+    }
+
+    protected Connection getConnection(ServerStats st, String username, String password) throws SQLException {
+        DataSource ds = (DataSource) st.server;
+        long start = System.nanoTime();
+        st.onStart();
+        Connection conn;
+        try {
+            conn = username == null ? ds.getConnection() : ds.getConnection(username, password);
+        }
+        catch (SQLException | RuntimeException e) {
+            outlierDetector.onFailure(st, System.nanoTime() - start);
+            throw e;
+        }
+        if (!trackConnections) {
+            outlierDetector.onSuccess(st, System.nanoTime() - start);
+            return conn;
+        }
+        // 连接归还时才算一次请求结束, 借出时长作为延迟
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            if ("close".equals(method.getName()) && closed.compareAndSet(false, true))
+                outlierDetector.onSuccess(st, System.nanoTime() - start);
+            try {
+                return method.invoke(conn, args);
+            }
+            catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        });
+    }
+
+    /**
+     * 健康检查: 连接是否可用, 以及配置了lagQuery时复制延迟是否超过maxLag(秒)
+     */
+    protected void check() {
+        for (ServerStats st : replicas) {
+            boolean ok = false;
+            Long lag = null;
+            try (Connection conn = ((DataSource) st.server).getConnection()) {
+                ok = conn.isValid(healthTimeout);
+                if (ok && !Strings.isBlank(lagQuery)) {
+                    lag = queryLag(conn);
+                    ok = lag != null && lag <= maxLag;
+                }
+            }
+            catch (Throwable e) {
+                log.debugf("replica %s%s health check fail : %s", prefix, st.id, e.getMessage());
+            }
+            synchronized (lags) {
+                lags.put(st.id, lag);
+            }
+            if (st.isDown() == ok) {
+                if (ok)
+                    log.infof("replica %s%s is back, lag=%s", prefix, st.id, lag);
+                else
+                    log.warnf("replica %s%s is unhealthy, lag=%s, remove from rotation", prefix, st.id, lag);
+                st.setDown(!ok);
+            }
+        }
+    }
+
+    /**
+     * lagQuery的返回值: SHOW SLAVE/REPLICA STATUS取Seconds_Behind_Master/Seconds_Behind_Source列, 其他语句取第一列. NULL表示复制已中断
+     */
+    protected Long queryLag(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.setQueryTimeout(healthTimeout);
+            try (ResultSet rs = stmt.executeQuery(lagQuery)) {
+                if (!rs.next())
+                    return null;
+                Object value;
+                if (lagQuery.trim().toUpperCase().startsWith("SHOW")) {
+                    try {
+                        value = rs.getObject("Seconds_Behind_Master");
+                    }
+                    catch (SQLException e) {
+                        value = rs.getObject("Seconds_Behind_Source");
+                    }
+                } else {
+                    value = rs.getObject(1);
+                }
+                return value == null ? null : ((Number) (value instanceof Number ? value : Double.valueOf(value.toString()))).longValue();
+            }
+        }
+    }
+
+    /**
+     * 每个从库的状态, 供MonitorObject输出
+     */
+    public NutMap getStats() {
+        NutMap re = new NutMap();
+        long now = System.currentTimeMillis();
+        for (ServerStats st : replicas) {
+            NutMap tmp = new NutMap();
+            tmp.put("weight", st.weight);
+            tmp.put("active", st.getActive());
+            tmp.put("ewma_ms", st.getEwmaNanos() / 1000000);
+            tmp.put("down", st.isDown());
+            tmp.put("ejected", !st.isDown() && !st.isAvailable(now));
+            synchronized (lags) {
+                tmp.put("lag", lags.get(st.id));
+            }
+            re.put(prefix + st.id, tmp);
+        }
+        return re;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void close() throws IOException {
+        if (checker != null)
+            checker.shutdownNow();
+        for (ServerStats st : replicas) {
+            try {
+                if (st.server instanceof Closeable)
+                    ((Closeable) st.server).close();
+            }
+            catch (Throwable e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.nutz.boot.starter.jetty;
+
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.AbstractHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.nutz.ioc.impl.PropertiesProxy;
+
+/**
+ * Jetty的HTTP/2支持, 单独成类, 未启用http2时不会加载http2相关的类
+ * 
+ * @author wendal
+ *
+ */
+public class JettyHttp2Support {
+
+    /**
+     * 明文端口: HTTP/1.1 + h2c(支持Upgrade及prior knowledge)
+     */
+    public static ConnectionFactory[] h2c(HttpConfiguration httpConfig, PropertiesProxy conf) {
+        HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(httpConfig);
+        tune(h2c, conf);
+        return new ConnectionFactory[]{new HttpConnectionFactory(httpConfig), h2c};
+    }
+
+    /**
+     * TLS端口: 通过ALPN协商h2, 协商不了的客户端继续使用HTTP/1.1
+     */
+    public static ConnectionFactory[] h2(SslContextFactory sslContextFactory, HttpConfiguration httpsConfig, PropertiesProxy conf) {
+        // h2要求的加密套件要排在前面
+        sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+        sslContextFactory.setUseCipherSuitesOrder(true);
+        HTTP2ServerConnectionFactory h2 = new HTTP2ServerConnectionFactory(httpsConfig);
+        tune(h2, conf);
+        ALPNServerConnectionFactory alpn;
+        try {
+            alpn = new ALPNServerConnectionFactory();
+        }
+        catch (IllegalStateException e) {
+            // 没有找到可用的ALPNProcessor
+            throw new IllegalStateException("jetty http2 over TLS needs ALPN, add org.eclipse.jetty:jetty-alpn-java-server (JDK9+) or org.eclipse.jetty:jetty-alpn-openjdk8-server (JDK 8u252+) to the classpath, or disable " + JettyStarter.PROP_HTTP2_ENABLE, e);
+        }
+        alpn.setDefaultProtocol("http/1.1");
+        SslConnectionFactory ssl = new SslConnectionFactory(sslContextFactory, alpn.getProtocol());
+        return new ConnectionFactory[]{ssl, alpn, h2, new HttpConnectionFactory(httpsConfig)};
+    }
+
+    protected static void tune(AbstractHTTP2ServerConnectionFactory factory, PropertiesProxy conf) {
+        factory.setMaxConcurrentStreams(conf.getInt(JettyStarter.PROP_HTTP2_MAX_CONCURRENT_STREAMS, 128));
+        if (conf.has(JettyStarter.PROP_HTTP2_INITIAL_STREAM_RECV_WINDOW))
+            factory.setInitialStreamRecvWindow(conf.getInt(JettyStarter.PROP_HTTP2_INITIAL_STREAM_RECV_WINDOW));
+        if (conf.has(JettyStarter.PROP_HTTP2_INITIAL_SESSION_RECV_WINDOW))
+            factory.setInitialSessionRecvWindow(conf.getInt(JettyStarter.PROP_HTTP2_INITIAL_SESSION_RECV_WINDOW));
+        if (conf.has(JettyStarter.PROP_HTTP2_MAX_DYNAMIC_TABLE_SIZE))
+            factory.setMaxDynamicTableSize(conf.getInt(JettyStarter.PROP_HTTP2_MAX_DYNAMIC_TABLE_SIZE));
+    }
+}
@@ -7,6 +7,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.Deflater;
 
 import javax.servlet.SessionCookieConfig;
@@ -37,7 +38,7 @@ import org.eclipse.jetty.webapp.WebAppContext;
 import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainerInitializer;
 import org.nutz.boot.annotation.PropDoc;
 import org.nutz.boot.starter.MonitorObject;
-import org.nutz.boot.starter.ServerFace;
+import org.nutz.boot.starter.WebServerFace;
 import org.nutz.boot.starter.servlet3.AbstractServletContainerStarter;
 import org.nutz.boot.starter.servlet3.NbServletContextListener;
 import org.nutz.castor.Castors;
@@ -50,7 +51,7 @@ import org.nutz.log.Logs;
 import org.nutz.resource.Scans;
 
 @IocBean
-public class JettyStarter extends AbstractServletContainerStarter implements ServerFace, MonitorObject {
+public class JettyStarter extends AbstractServletContainerStarter implements WebServerFace, MonitorObject {
 
     private static final Log log = Logs.get();
 
@@ -71,6 +72,9 @@ public class JettyStarter extends AbstractServletContainerStarter implements Ser
     @PropDoc(value = "线程池最大线程数maxThreads", defaultValue = "500", type = "int")
     public static final String PROP_THREADPOOL_MAXTHREADS = PRE + "threadpool.maxThreads";
 
+    @PropDoc(value = "使用虚拟线程处理请求(需要JDK21+, 不支持时回退到普通线程池), 启用后minThreads/maxThreads不再生效", defaultValue = "false", type = "boolean")
+    public static final String PROP_THREADPOOL_VIRTUAL = PRE + "threadpool.virtual";
+
     @PropDoc(value = "空闲时间,单位毫秒", defaultValue = "300000", type = "int")
     public static final String PROP_IDLE_TIMEOUT = PRE + "http.idleTimeout";
 
@@ -142,6 +146,18 @@ public class JettyStarter extends AbstractServletContainerStarter implements Ser
     @PropDoc(value = "Https的KeyStore的密码")
     public static final String PROP_HTTPS_KEYSTORE_PASSWORD = PRE + "https.keystore.password";
 
+    // HTTP/2相关
+    @PropDoc(value = "是否启用HTTP/2, http端口支持h2c, https端口通过ALPN支持h2", defaultValue = "false", type = "boolean")
+    public static final String PROP_HTTP2_ENABLE = PRE + "http2.enable";
+    @PropDoc(value = "HTTP/2单个连接的最大并发流数量", defaultValue = "128", type = "int")
+    public static final String PROP_HTTP2_MAX_CONCURRENT_STREAMS = PRE + "http2.maxConcurrentStreams";
+    @PropDoc(value = "HTTP/2单个流的初始接收窗口,单位字节", type = "int")
+    public static final String PROP_HTTP2_INITIAL_STREAM_RECV_WINDOW = PRE + "http2.initialStreamRecvWindow";
+    @PropDoc(value = "HTTP/2单个连接的初始接收窗口,单位字节", type = "int")
+    public static final String PROP_HTTP2_INITIAL_SESSION_RECV_WINDOW = PRE + "http2.initialSessionRecvWindow";
+    @PropDoc(value = "HTTP/2的HPACK动态表大小,单位字节", type = "int")
+    public static final String PROP_HTTP2_MAX_DYNAMIC_TABLE_SIZE = PRE + "http2.maxDynamicTableSize";
+
     // Session持久化相关
     @PropDoc(value = "是否启用session持久化", defaultValue = "false")
     public static final String PROP_SESSION_STORE_ENABLE = PRE + "session.store.enable";
@@ -205,15 +221,25 @@ public class JettyStarter extends AbstractServletContainerStarter implements Ser
     public void init() throws Exception {
 
         // 创建基础服务器
-        QueuedThreadPool threadPool = new QueuedThreadPool();
-        threadPool.setIdleTimeout(getThreadPoolIdleTimeout());
-        threadPool.setMinThreads(getMinThreads());
-        threadPool.setMaxThreads(getMaxThreads());
-        server = new Server(threadPool);
+        ExecutorService virtualExecutor = createVirtualThreadExecutor();
+        if (virtualExecutor != null) {
+            server = new Server(new VirtualThreadPool(virtualExecutor));
+        }
+        else {
+            QueuedThreadPool threadPool = new QueuedThreadPool();
+            threadPool.setIdleTimeout(getThreadPoolIdleTimeout());
+            threadPool.setMinThreads(getMinThreads());
+            threadPool.setMaxThreads(getMaxThreads());
+            server = new Server(threadPool);
+        }
         // HTTP端口设置
         if (conf.getBoolean("jetty.http.enable", true)) {
             HttpConfiguration httpConfig = conf.make(HttpConfiguration.class, "jetty.httpConfig.");
-            HttpConnectionFactory httpFactory = new HttpConnectionFactory(httpConfig);
+            ConnectionFactory[] httpFactory;
+            if (conf.getBoolean(PROP_HTTP2_ENABLE, false))
+                httpFactory = JettyHttp2Support.h2c(httpConfig, conf);
+            else
+                httpFactory = new ConnectionFactory[]{new HttpConnectionFactory(httpConfig)};
             connector = new ServerConnector(server, httpFactory);
             connector.setHost(getHost());
             connector.setPort(getPort());
@@ -235,6 +261,7 @@ public class JettyStarter extends AbstractServletContainerStarter implements Ser
             updateMonitorValue("http.port", connector.getPort());
             updateMonitorValue("http.host", connector.getHost());
             updateMonitorValue("http.idleTimeout", connector.getIdleTimeout());
+            updateMonitorValue("http.protocols", connector.getProtocols());
         }
         else {
         	log.info("jetty http is disable");
@@ -268,7 +295,11 @@ public class JettyStarter extends AbstractServletContainerStarter implements Ser
             // 公钥
             sslContextFactory.setKeyManagerPassword(conf.get("jetty.https.keymanager.password"));
 
-            ServerConnector httpsConnector = new ServerConnector(server, new SslConnectionFactory(sslContextFactory, "http/1.1"), new HttpConnectionFactory(https_config));
+            ServerConnector httpsConnector;
+            if (conf.getBoolean(PROP_HTTP2_ENABLE, false))
+                httpsConnector = new ServerConnector(server, JettyHttp2Support.h2(sslContextFactory, https_config, conf));
+            else
+                httpsConnector = new ServerConnector(server, new SslConnectionFactory(sslContextFactory, "http/1.1"), new HttpConnectionFactory(https_config));
             // 设置访问端口
             httpsConnector.setPort(httpsPort);
             httpsConnector.setHost(getHost());
@@ -279,6 +310,7 @@ public class JettyStarter extends AbstractServletContainerStarter implements Ser
             updateMonitorValue("https.port", httpsConnector.getPort());
             updateMonitorValue("https.host", httpsConnector.getHost());
             updateMonitorValue("https.idleTimeout", httpsConnector.getIdleTimeout());
+            updateMonitorValue("https.protocols", httpsConnector.getProtocols());
         } else {
             updateMonitorValue("https.enable", false);
         }
@@ -0,0 +1,59 @@
+package org.nutz.boot.starter.jetty;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * 每个任务一个虚拟线程的Jetty线程池, 由jetty.threadpool.virtual=true启用
+ * 
+ * @author wendal
+ *
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    protected ExecutorService executor;
+
+    protected AtomicInteger running = new AtomicInteger();
+
+    public VirtualThreadPool(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void execute(Runnable command) {
+        executor.execute(() -> {
+            running.incrementAndGet();
+            try {
+                command.run();
+            }
+            finally {
+                running.decrementAndGet();
+            }
+        });
+    }
+
+    protected void doStop() throws Exception {
+        executor.shutdown();
+        if (!executor.awaitTermination(getStopTimeout() > 0 ? getStopTimeout() : 5000, TimeUnit.MILLISECONDS))
+            executor.shutdownNow();
+    }
+
+    public void join() throws InterruptedException {
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {}
+    }
+
+    public int getThreads() {
+        return running.get();
+    }
+
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}
@@ -9,6 +9,7 @@ import org.nutz.boot.AppContext;
 import org.nutz.boot.NbApp;
 import org.nutz.boot.annotation.PropDoc;
 import org.nutz.boot.starter.ServerFace;
+import org.nutz.boot.starter.WebServerFace;
 import org.nutz.boot.tools.NbAppEventListener;
 import org.nutz.ioc.impl.PropertiesProxy;
 import org.nutz.ioc.loader.annotation.Inject;
@@ -188,6 +189,14 @@ public class NacosDiscoveryLoader implements ServerFace, NbAppEventListener {
         return null;
     }
 
+    /**
+     * 并发启动时, 等Web容器监听端口之后再注册服务
+     */
+    @Override
+    public Class<?>[] dependsOn() {
+        return new Class<?>[]{WebServerFace.class};
+    }
+
     @Override
     public void start() throws Exception {
     }
@@ -76,6 +76,21 @@ public class NutDaoStarter {
     @PropDoc(value = "是否缓存null结果", defaultValue = "true", type = "boolean")
     public static final String PROP_INTERCEPTOR_CACHE_CACHE4NULL = PRE + "interceptor.cache.cache4Null";
 
+    @PropDoc(value = "是否启用SQL性能统计(按SQL指纹汇总耗时分布及慢SQL样本)", defaultValue = "false", type = "boolean")
+    public static final String PROP_INTERCEPTOR_PROFILE_ENABLE = PRE + "interceptor.profile.enable";
+
+    @PropDoc(value = "慢SQL阈值,单位毫秒", defaultValue = "500", type = "int")
+    public static final String PROP_INTERCEPTOR_PROFILE_SLOW = PRE + "interceptor.profile.slowThreshold";
+
+    @PropDoc(value = "保留的慢SQL样本数", defaultValue = "50", type = "int")
+    public static final String PROP_INTERCEPTOR_PROFILE_SLOW_SAMPLES = PRE + "interceptor.profile.slowSamples";
+
+    @PropDoc(value = "最多统计多少个SQL指纹, 超出的记入<other>", defaultValue = "1000", type = "int")
+    public static final String PROP_INTERCEPTOR_PROFILE_MAX_FINGERPRINTS = PRE + "interceptor.profile.maxFingerprints";
+
+    @PropDoc(value = "监控输出按总耗时排名的前多少个SQL", defaultValue = "20", type = "int")
+    public static final String PROP_INTERCEPTOR_PROFILE_TOP = PRE + "interceptor.profile.top";
+
     @Inject
     protected PropertiesProxy conf;
 
@@ -160,6 +175,16 @@ public class NutDaoStarter {
         return daoCacheInterceptor;
     }
 
+    @IocBean(name = "sqlProfileInterceptor")
+    public SqlProfileInterceptor createSqlProfileInterceptor() {
+        SqlProfileInterceptor interceptor = new SqlProfileInterceptor(conf.getLong(PROP_INTERCEPTOR_PROFILE_SLOW, 500),
+                                                                      conf.getInt(PROP_INTERCEPTOR_PROFILE_SLOW_SAMPLES, 50),
+                                                                      conf.getInt(PROP_INTERCEPTOR_PROFILE_MAX_FINGERPRINTS, 1000),
+                                                                      conf.getInt(PROP_INTERCEPTOR_PROFILE_TOP, 20));
+        interceptor.setEnable(conf.getBoolean(PROP_INTERCEPTOR_PROFILE_ENABLE, false));
+        return interceptor;
+    }
+
     @IocBean(name = "dao")
     public NutDao getDao(@Inject DataSource dataSource, @Inject SqlManager sqlManager) {
         NutDao dao = new NutDao(dataSource, sqlManager);
@@ -176,6 +201,10 @@ public class NutDaoStarter {
         if (conf.getBoolean(PROP_INTERCEPTOR_TIME_ENABLE, false)) {
             interceptors.add("time");
         }
+        // sql性能统计
+        if (conf.getBoolean(PROP_INTERCEPTOR_PROFILE_ENABLE, false)) {
+            interceptors.add(ioc.get(SqlProfileInterceptor.class, "sqlProfileInterceptor"));
+        }
         // TODO 自定义其他拦截器?
 
         // 将拦截器赋予dao对象
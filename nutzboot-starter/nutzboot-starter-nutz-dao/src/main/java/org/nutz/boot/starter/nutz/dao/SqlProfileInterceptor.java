@@ -0,0 +1,303 @@
+package org.nutz.boot.starter.nutz.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.nutz.boot.metrics.Histogram;
+import org.nutz.boot.metrics.HistogramSnapshot;
+import org.nutz.boot.metrics.impl.LogLinearHistogram;
+import org.nutz.boot.starter.MonitorObject;
+import org.nutz.dao.DaoException;
+import org.nutz.dao.DaoInterceptor;
+import org.nutz.dao.DaoInterceptorChain;
+import org.nutz.dao.sql.DaoStatement;
+import org.nutz.lang.util.NutMap;
+
+/**
+ * SQL性能统计拦截器. 按SQL指纹(参数及字面量替换为?)汇总次数/行数/错误数/耗时分布, 并保留最近的慢SQL样本(含参数).
+ * <p/>
+ * 每次执行只有一次Map查找和几次原子加, 可以在生产环境常开, 结果通过MonitorObject输出(actuator的监控接口)
+ *
+ * @author wendal
+ *
+ */
+public class SqlProfileInterceptor implements DaoInterceptor, MonitorObject {
+
+    /**
+     * 指纹数量超过上限后, 新的SQL都记入这个指纹
+     */
+    public static final String OTHER = "<other>";
+
+    protected long slowThresholdNanos;
+
+    protected int maxFingerprints;
+
+    protected int top;
+
+    protected Map<String, SqlStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * 原始SQL -> 指纹, 避免重复计算
+     */
+    protected Map<String, String> fingerprints = new ConcurrentHashMap<>();
+
+    protected AtomicReferenceArray<NutMap> slowSamples;
+
+    protected AtomicLong slowIndex = new AtomicLong();
+
+    /**
+     * 是否已加入dao的拦截器链, 未启用时不在监控接口中输出
+     */
+    protected boolean enable;
+
+    public SqlProfileInterceptor(long slowThresholdMillis, int slowSamples, int maxFingerprints, int top) {
+        this.slowThresholdNanos = slowThresholdMillis * 1000000;
+        this.slowSamples = new AtomicReferenceArray<>(Math.max(1, slowSamples));
+        this.maxFingerprints = maxFingerprints;
+        this.top = top;
+    }
+
+    public void filter(DaoInterceptorChain chain) throws DaoException {
+        DaoStatement st = chain.getDaoStatement();
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            chain.doChain();
+            error = false;
+        }
+        finally {
+            long cost = System.nanoTime() - start;
+            record(st, cost, error);
+        }
+    }
+
+    protected void record(DaoStatement st, long cost, boolean error) {
+        String sql = st.toPreparedStatement();
+        String fp = fingerprint(sql);
+        SqlStats ss = stats.get(fp);
+        if (ss == null) {
+            if (stats.size() >= maxFingerprints)
+                fp = OTHER;
+            ss = stats.computeIfAbsent(fp, SqlStats::new);
+        }
+        ss.count.increment();
+        ss.latency.record(cost / 1000);
+        ss.totalMicros.add(cost / 1000);
+        if (error)
+            ss.errors.increment();
+        else
+            ss.rows.add(rows(st));
+        if (cost >= slowThresholdNanos) {
+            NutMap sample = new NutMap();
+            sample.put("fingerprint", fp);
+            sample.put("sql", sql);
+            sample.put("params", params(st));
+            sample.put("cost_ms", cost / 1000000);
+            sample.put("error", error);
+            sample.put("time", System.currentTimeMillis());
+            sample.put("thread", Thread.currentThread().getName());
+            slowSamples.set((int) (slowIndex.getAndIncrement() % slowSamples.length()), sample);
+        }
+    }
+
+    protected long rows(DaoStatement st) {
+        Object re = st.getResult();
+        if (re instanceof Collection)
+            return ((Collection<?>) re).size();
+        if (re != null && re.getClass().isArray())
+            return java.lang.reflect.Array.getLength(re);
+        int count = st.getUpdateCount();
+        if (count >= 0)
+            return count;
+        return re == null ? 0 : 1;
+    }
+
+    protected String params(DaoStatement st) {
+        Object[][] matrix = st.getParamMatrix();
+        if (matrix == null || matrix.length == 0)
+            return "";
+        String re = Arrays.deepToString(matrix[0]);
+        if (matrix.length > 1)
+            re += " ... (" + matrix.length + " rows)";
+        return re.length() > 512 ? re.substring(0, 512) + "..." : re;
+    }
+
+    protected String fingerprint(String sql) {
+        String fp = fingerprints.get(sql);
+        if (fp == null) {
+            fp = normalize(sql);
+            if (fingerprints.size() > maxFingerprints * 10)
+                fingerprints.clear();
+            fingerprints.put(sql, fp);
+        }
+        return fp;
+    }
+
+    /**
+     * 字符串及数字字面量替换为?, IN (?,?,...)合并为 IN (?+), 连续空白合并为一个空格
+     */
+    public static String normalize(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        int len = sql.length();
+        for (int i = 0; i < len; i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                // 字符串字面量, 支持''转义. 双引号在多数数据库中是标识符, 保持原样
+                int j = i + 1;
+                while (j < len) {
+                    if (sql.charAt(j) == c) {
+                        if (j + 1 < len && sql.charAt(j + 1) == c) {
+                            j += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    j++;
+                }
+                sb.append('?');
+                i = j;
+            } else if (Character.isWhitespace(c)) {
+                if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ')
+                    sb.append(' ');
+            } else if (Character.isDigit(c) && (sb.length() == 0 || !isIdentifierChar(sb.charAt(sb.length() - 1)))) {
+                int j = i;
+                while (j + 1 < len && (Character.isLetterOrDigit(sql.charAt(j + 1)) || sql.charAt(j + 1) == '.'))
+                    j++;
+                sb.append('?');
+                i = j;
+            } else {
+                sb.append(c);
+            }
+        }
+        return collapseIn(sb.toString().trim());
+    }
+
+    protected static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.';
+    }
+
+    protected static String collapseIn(String sql) {
+        if (sql.indexOf("?,") < 0 && sql.indexOf("?, ") < 0)
+            return sql;
+        StringBuilder sb = new StringBuilder(sql.length());
+        int len = sql.length();
+        for (int i = 0; i < len; i++) {
+            char c = sql.charAt(i);
+            sb.append(c);
+            if (c != '(')
+                continue;
+            // 括号内只有?和逗号的, 合并为 (?+)
+            int j = i + 1;
+            int marks = 0;
+            while (j < len) {
+                char t = sql.charAt(j);
+                if (t == '?')
+                    marks++;
+                else if (t != ',' && t != ' ')
+                    break;
+                j++;
+            }
+            if (j < len && sql.charAt(j) == ')' && marks > 1) {
+                sb.append("?+");
+                i = j - 1;
+            }
+        }
+        return sb.toString();
+    }
+
+    public String getMonitorName() {
+        return "sql";
+    }
+
+    public boolean isMonitorEnable() {
+        return enable;
+    }
+
+    public void setEnable(boolean enable) {
+        this.enable = enable;
+    }
+
+    /**
+     * 按总耗时从高到低的前N个指纹
+     */
+    public List<SqlStats> getTop() {
+        List<SqlStats> list = new ArrayList<>(stats.values());
+        list.sort((a, b) -> Long.compare(b.totalMicros.sum(), a.totalMicros.sum()));
+        return list.size() > top ? list.subList(0, top) : list;
+    }
+
+    public Collection<String> getMonitorKeys() {
+        return getMonitors().keySet();
+    }
+
+    public Object getMonitorValue(String key) {
+        return getMonitors().get(key);
+    }
+
+    public NutMap getMonitors() {
+        NutMap re = new NutMap();
+        List<NutMap> list = new ArrayList<>();
+        for (SqlStats ss : getTop())
+            list.add(ss.toMap());
+        re.put("top", list);
+        List<NutMap> samples = new ArrayList<>();
+        for (int i = 0; i < slowSamples.length(); i++) {
+            NutMap sample = slowSamples.get(i);
+            if (sample != null)
+                samples.add(sample);
+        }
+        samples.sort((a, b) -> Long.compare(b.getLong("time"), a.getLong("time")));
+        re.put("slow", samples);
+        re.put("fingerprints", stats.size());
+        return re;
+    }
+
+    public void reset() {
+        stats.clear();
+        for (int i = 0; i < slowSamples.length(); i++)
+            slowSamples.set(i, null);
+    }
+
+    public static class SqlStats {
+
+        public final String fingerprint;
+
+        public final LongAdder count = new LongAdder();
+
+        public final LongAdder rows = new LongAdder();
+
+        public final LongAdder errors = new LongAdder();
+
+        public final LongAdder totalMicros = new LongAdder();
+
+        /**
+         * 耗时分布, 单位微秒
+         */
+        public final Histogram latency = new LogLinearHistogram();
+
+        public SqlStats(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        public NutMap toMap() {
+            HistogramSnapshot snapshot = latency.snapshot();
+            NutMap re = new NutMap();
+            re.put("sql", fingerprint);
+            re.put("count", count.sum());
+            re.put("rows", rows.sum());
+            re.put("errors", errors.sum());
+            re.put("total_ms", totalMicros.sum() / 1000);
+            re.put("p50_ms", snapshot.percentile(50) / 1000.0);
+            re.put("p99_ms", snapshot.percentile(99) / 1000.0);
+            re.put("max_ms", snapshot.getMax() / 1000.0);
+            return re;
+        }
+    }
+}
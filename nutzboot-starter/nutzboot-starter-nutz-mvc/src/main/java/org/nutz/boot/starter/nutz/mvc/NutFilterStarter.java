@@ -32,6 +32,8 @@ public class NutFilterStarter implements WebFilterFace {
     public static final String PROP_WEB_FILTER_ORDER_NUTZ = "web.filter.order.nutz";
     @PropDoc(value="指定Chain文件路径", defaultValue="")
     public static final String PROP_WEB_FILTER_CHAIN = "web.filter.chain.path";
+    @PropDoc(value="NutFilter是否声明支持异步请求,异步Servlet与NutFilter共用路径时需要开启", defaultValue="false", type="boolean")
+    public static final String PROP_ASYNC_SUPPORTED = "nutz.mvc.asyncSupported";
 
 	@Inject
 	protected PropertiesProxy conf;
@@ -78,6 +80,10 @@ public class NutFilterStarter implements WebFilterFace {
         return params;
     }
 
+    public boolean isAsyncSupported() {
+        return conf.getBoolean(PROP_ASYNC_SUPPORTED, false);
+    }
+
     public int getOrder() {
         return conf.getInt(PROP_WEB_FILTER_ORDER_NUTZ, FilterOrder.NutFilter);
     }
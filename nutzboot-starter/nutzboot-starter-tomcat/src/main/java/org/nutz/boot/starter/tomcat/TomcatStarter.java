@@ -9,6 +9,7 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.security.cert.Certificate;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -37,7 +38,7 @@ import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.descriptor.web.ErrorPage;
 import org.nutz.boot.annotation.PropDoc;
 import org.nutz.boot.starter.MonitorObject;
-import org.nutz.boot.starter.ServerFace;
+import org.nutz.boot.starter.WebServerFace;
 import org.nutz.boot.starter.servlet3.AbstractServletContainerStarter;
 import org.nutz.boot.starter.servlet3.NbServletContextListener;
 import org.nutz.ioc.loader.annotation.IocBean;
@@ -59,7 +60,7 @@ import org.nutz.log.Logs;
  * @author wendal (wendal1985@gmail.com)
  */
 @IocBean
-public class TomcatStarter extends AbstractServletContainerStarter implements ServerFace, MonitorObject {
+public class TomcatStarter extends AbstractServletContainerStarter implements WebServerFace, MonitorObject {
 
     private static final Log log = Logs.get();
 
@@ -89,6 +90,9 @@ public class TomcatStarter extends AbstractServletContainerStarter implements Se
     @PropDoc(value = "最大线程数", defaultValue = "256")
     public static final String PROP_EXECUTOR_MAX_THREADS = PRE + "executor.maxThreads";
 
+    @PropDoc(value = "使用虚拟线程处理请求(需要JDK21+, 不支持时回退到普通线程池), 启用后executor.maxThreads不再生效", defaultValue = "false", type = "boolean")
+    public static final String PROP_THREADPOOL_VIRTUAL = PRE + "threadpool.virtual";
+
     @PropDoc(value = "自定义404页面,同理,其他状态码也是支持的")
     public static final String PROP_PAGE_404 = PRE + "page.404";
     
@@ -109,6 +113,8 @@ public class TomcatStarter extends AbstractServletContainerStarter implements Se
 
     protected StandardContext tomcatContext;
 
+    protected ExecutorService virtualExecutor;
+
     private final AtomicInteger containerCounter = new AtomicInteger(-1);
 
     private final Object monitor = new Object();
@@ -144,10 +150,17 @@ public class TomcatStarter extends AbstractServletContainerStarter implements Se
 
         // 设置一下最大线程数
         this.tomcat.getService().addConnector(connector);
-        StandardThreadExecutor executor = new StandardThreadExecutor();
-        executor.setMaxThreads(getMaxThread());
-        connector.getService().addExecutor(executor);
-        updateMonitorValue("maxThread", executor.getMaxThreads());
+        virtualExecutor = createVirtualThreadExecutor();
+        if (virtualExecutor != null) {
+            // 请求直接交给虚拟线程, 不再受maxThreads限制
+            connector.getProtocolHandler().setExecutor(virtualExecutor);
+        }
+        else {
+            StandardThreadExecutor executor = new StandardThreadExecutor();
+            executor.setMaxThreads(getMaxThread());
+            connector.getService().addExecutor(executor);
+            updateMonitorValue("maxThread", executor.getMaxThreads());
+        }
 
         this.tomcat.setConnector(connector);
 
@@ -187,6 +200,8 @@ public class TomcatStarter extends AbstractServletContainerStarter implements Se
             if (started) {
                 this.tomcat.stop();
                 this.tomcat = null;
+                if (virtualExecutor != null)
+                    virtualExecutor.shutdown();
                 this.tomcatAwaitThread.interrupt();
                 this.started = false;
             }
@@ -1,22 +1,31 @@
 package org.nutz.boot.starter.undertow;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
 import java.util.EventListener;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.Deflater;
 
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
 import org.nutz.boot.annotation.PropDoc;
 import org.nutz.boot.starter.MonitorObject;
-import org.nutz.boot.starter.ServerFace;
+import org.nutz.boot.starter.WebServerFace;
 import org.nutz.boot.starter.servlet3.AbstractServletContainerStarter;
 import org.nutz.boot.starter.servlet3.NbServletContextListener;
 import org.nutz.ioc.loader.annotation.IocBean;
+import org.nutz.lang.Streams;
 import org.nutz.lang.Strings;
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
 
 import io.undertow.Handlers;
 import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
 import io.undertow.Undertow.Builder;
 import io.undertow.predicate.Predicates;
 import io.undertow.server.HttpHandler;
@@ -39,7 +48,7 @@ import io.undertow.servlet.util.ImmediateInstanceFactory;
  * @author qinerg(qinerg@gmail.com)
  */
 @IocBean
-public class UndertowStarter extends AbstractServletContainerStarter implements ServerFace, MonitorObject {
+public class UndertowStarter extends AbstractServletContainerStarter implements WebServerFace, MonitorObject {
 
     private static final Log log = Logs.get();
 
@@ -72,7 +81,38 @@ public class UndertowStarter extends AbstractServletContainerStarter implements
     @PropDoc(value = "WelcomeFile列表", defaultValue="index.html,index.htm,index.do")
     public static final String PROP_WELCOME_FILES = PRE + "welcome_files";
 
+    @PropDoc(value = "使用虚拟线程执行Servlet(需要JDK21+, 不支持时回退到XNIO worker线程池)", defaultValue = "false", type = "boolean")
+    public static final String PROP_THREADPOOL_VIRTUAL = PRE + "threadpool.virtual";
+
+    @PropDoc(value = "Https端口号, 大于0时启用")
+    public static final String PROP_HTTPS_PORT = PRE + "https.port";
+
+    @PropDoc(value = "Https的KeyStore路径, 可以是文件路径或classpath路径")
+    public static final String PROP_HTTPS_KEYSTORE_PATH = PRE + "https.keystore.path";
+
+    @PropDoc(value = "Https的KeyStore的密码")
+    public static final String PROP_HTTPS_KEYSTORE_PASSWORD = PRE + "https.keystore.password";
+
+    @PropDoc(value = "Https的KeyStore类型", defaultValue = "JKS", possible = {"JKS", "PKCS12"})
+    public static final String PROP_HTTPS_KEYSTORE_TYPE = PRE + "https.keystore.type";
+
+    @PropDoc(value = "是否启用HTTP/2, http端口支持h2c, https端口通过ALPN支持h2", defaultValue = "false", type = "boolean")
+    public static final String PROP_HTTP2_ENABLE = PRE + "http2.enable";
+
+    @PropDoc(value = "HTTP/2单个连接的最大并发流数量", defaultValue = "128", type = "int")
+    public static final String PROP_HTTP2_MAX_CONCURRENT_STREAMS = PRE + "http2.maxConcurrentStreams";
+
+    @PropDoc(value = "HTTP/2的初始窗口大小,单位字节", type = "int")
+    public static final String PROP_HTTP2_INITIAL_WINDOW_SIZE = PRE + "http2.initialWindowSize";
+
+    @PropDoc(value = "HTTP/2的最大帧大小,单位字节", type = "int")
+    public static final String PROP_HTTP2_MAX_FRAME_SIZE = PRE + "http2.maxFrameSize";
+
+    @PropDoc(value = "HTTP/2的HPACK动态表大小,单位字节", type = "int")
+    public static final String PROP_HTTP2_HEADER_TABLE_SIZE = PRE + "http2.headerTableSize";
+
     protected Undertow server;
+    protected ExecutorService virtualExecutor;
     protected Builder builder = Undertow.builder();
     protected DeploymentInfo deployment;
 
@@ -84,6 +124,8 @@ public class UndertowStarter extends AbstractServletContainerStarter implements
 
     public void stop() throws Exception {
         server.stop();
+        if (virtualExecutor != null)
+            virtualExecutor.shutdown();
     }
 
     public boolean isRunning() {
@@ -101,6 +143,12 @@ public class UndertowStarter extends AbstractServletContainerStarter implements
         deployment.setContextPath(contextPath).setDefaultSessionTimeout(getSessionTimeout());
         updateMonitorValue("contextPath", contextPath);
         updateMonitorValue("sessionTimeout", deployment.getDefaultSessionTimeout());
+        // Servlet的执行从worker线程池转到虚拟线程
+        virtualExecutor = createVirtualThreadExecutor();
+        if (virtualExecutor != null) {
+            deployment.setExecutor(virtualExecutor);
+            deployment.setAsyncExecutor(virtualExecutor);
+        }
 
         ComboResourceManager resourceManager = new ComboResourceManager();
         for (String path : getResourcePaths()) {
@@ -156,10 +204,51 @@ public class UndertowStarter extends AbstractServletContainerStarter implements
             handler = new EncodingHandler(pathHandler, repo);
         }
         builder.addHttpListener(getPort(), getHost()).setHandler(handler);
+        if (conf.getBoolean(PROP_HTTP2_ENABLE, false)) {
+            builder.setServerOption(UndertowOptions.ENABLE_HTTP2, true);
+            builder.setServerOption(UndertowOptions.HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS, conf.getInt(PROP_HTTP2_MAX_CONCURRENT_STREAMS, 128));
+            if (conf.has(PROP_HTTP2_INITIAL_WINDOW_SIZE))
+                builder.setServerOption(UndertowOptions.HTTP2_SETTINGS_INITIAL_WINDOW_SIZE, conf.getInt(PROP_HTTP2_INITIAL_WINDOW_SIZE));
+            if (conf.has(PROP_HTTP2_MAX_FRAME_SIZE))
+                builder.setServerOption(UndertowOptions.HTTP2_SETTINGS_MAX_FRAME_SIZE, conf.getInt(PROP_HTTP2_MAX_FRAME_SIZE));
+            if (conf.has(PROP_HTTP2_HEADER_TABLE_SIZE))
+                builder.setServerOption(UndertowOptions.HTTP2_SETTINGS_HEADER_TABLE_SIZE, conf.getInt(PROP_HTTP2_HEADER_TABLE_SIZE));
+            updateMonitorValue("http2.enable", true);
+        }
+        int httpsPort = conf.getInt(PROP_HTTPS_PORT, 0);
+        if (httpsPort > 0) {
+            log.info("found https port " + httpsPort);
+            builder.addHttpsListener(httpsPort, getHost(), createSSLContext(), handler);
+            updateMonitorValue("https.port", httpsPort);
+        }
 
         server = builder.build();
     }
 
+    protected SSLContext createSSLContext() throws Exception {
+        String ksPath = conf.check(PROP_HTTPS_KEYSTORE_PATH);
+        char[] password = conf.get(PROP_HTTPS_KEYSTORE_PASSWORD, "").toCharArray();
+        KeyStore keyStore = KeyStore.getInstance(conf.get(PROP_HTTPS_KEYSTORE_TYPE, "JKS"));
+        InputStream ins;
+        if (new File(ksPath).exists())
+            ins = new FileInputStream(ksPath);
+        else
+            ins = classLoader.getResourceAsStream(ksPath);
+        if (ins == null)
+            throw new IllegalArgumentException("keystore not exist: " + ksPath);
+        try {
+            keyStore.load(ins, password);
+        }
+        finally {
+            Streams.safeClose(ins);
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, password);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), null, null);
+        return sslContext;
+    }
+
     private void addNutzSupport() {
         NbServletContextListener nbsc = ioc.get(NbServletContextListener.class);
         ImmediateInstanceFactory<EventListener> factory = new ImmediateInstanceFactory<EventListener>(nbsc);
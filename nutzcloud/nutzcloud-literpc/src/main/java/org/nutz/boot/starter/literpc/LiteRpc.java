@@ -1,17 +1,25 @@
 package org.nutz.boot.starter.literpc;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.nutz.boot.annotation.PropDoc;
+import org.nutz.boot.loadbalance.OutlierDetector;
+import org.nutz.boot.loadbalance.ServerStats;
 import org.nutz.boot.starter.literpc.api.RpcEndpoint;
 import org.nutz.boot.starter.literpc.api.RpcSerializer;
 import org.nutz.boot.starter.literpc.impl.RpcInvoker;
+import org.nutz.boot.starter.literpc.impl.RpcMethodDescriptor;
 import org.nutz.boot.starter.literpc.impl.RpcObjectInvoker;
 import org.nutz.boot.starter.loach.client.LoachClient;
 import org.nutz.ioc.Ioc;
+import org.nutz.ioc.impl.PropertiesProxy;
 import org.nutz.ioc.loader.annotation.Inject;
 import org.nutz.ioc.loader.annotation.IocBean;
 import org.nutz.lang.Lang;
@@ -25,9 +33,31 @@ public class LiteRpc {
     private static final Log log = Logs.get();
     
     public static String RPC_REG_KEY = "literpc.v1";
+
+    protected static final String PRE = "literpc.";
+
+    @PropDoc(value = "客户端负载均衡算法, 可选值round-robin/random/least-active/p2c-ewma/consistent-hash(按第一个参数hash)", defaultValue = "round-robin")
+    public static final String PROP_LOADBALANCE = PRE + "loadbalance";
+
+    @PropDoc(value = "连续失败多少次后暂时摘除该服务器, 0代表不摘除", defaultValue = "5", type = "int")
+    public static final String PROP_OUTLIER_FAILURES = PRE + "outlier.failures";
+
+    @PropDoc(value = "服务器被摘除的基础时长(毫秒), 多次摘除时逐次递增", defaultValue = "10000", type = "long")
+    public static final String PROP_OUTLIER_EJECT_TIME = PRE + "outlier.ejectTime";
+
+    @PropDoc(value = "服务器被摘除的最长时长(毫秒)", defaultValue = "300000", type = "long")
+    public static final String PROP_OUTLIER_MAX_EJECT_TIME = PRE + "outlier.maxEjectTime";
     
     @Inject("refer:$ioc")
     protected Ioc ioc;
+
+    @Inject
+    protected PropertiesProxy conf;
+
+    /**
+     * 所有服务器的调用统计, 用于负载均衡和摘除异常服务器
+     */
+    protected OutlierDetector outlierDetector;
     
     /**
      * 持有所有的执行器
@@ -37,7 +67,12 @@ public class LiteRpc {
     /**
      * 方法签名对应的可用服务器列表
      */
-    protected Map<String, List<NutMap>> services = new HashMap<>();
+    protected volatile Map<String, List<NutMap>> services = new HashMap<>();
+
+    /**
+     * 客户端注入时登记的方法描述, 服务器列表变化时同步更新它们
+     */
+    protected Map<String, List<RpcMethodDescriptor>> descriptors = new ConcurrentHashMap<>();
     
     /**
      * 受支持的序列化器
@@ -50,6 +85,9 @@ public class LiteRpc {
     protected Map<String, RpcEndpoint> endpoints = new HashMap<>();
     
     public void init() {
+        outlierDetector = new OutlierDetector(conf.getInt(PROP_OUTLIER_FAILURES, 5),
+                                              conf.getLong(PROP_OUTLIER_EJECT_TIME, 10000),
+                                              conf.getLong(PROP_OUTLIER_MAX_EJECT_TIME, 300000));
         // 获取所有RpcSerializer实例,并注册
         for(String name : ioc.getNamesByType(RpcSerializer.class)) {
             registerSerializer(ioc.get(RpcSerializer.class, name));
@@ -85,6 +123,57 @@ public class LiteRpc {
 
     public void setServices(Map<String, List<NutMap>> services) {
         this.services = services;
+        for (List<RpcMethodDescriptor> list : descriptors.values()) {
+            synchronized (list) {
+                for (RpcMethodDescriptor descriptor : list) {
+                    updateServers(descriptor, services);
+                }
+            }
+        }
+        // 已下线的服务器不再保留统计信息
+        Set<String> alive = new HashSet<>();
+        for (List<NutMap> servers : services.values()) {
+            for (NutMap server : servers)
+                alive.add(serverId(server));
+        }
+        for (ServerStats stats : outlierDetector.getAll()) {
+            if (!alive.contains(stats.id))
+                outlierDetector.remove(stats.id);
+        }
+    }
+
+    /**
+     * 登记一个客户端方法描述, 并立即填充其服务器列表
+     */
+    public void registerDescriptor(RpcMethodDescriptor descriptor) {
+        List<RpcMethodDescriptor> list = descriptors.computeIfAbsent(descriptor.key, (key) -> new ArrayList<>());
+        synchronized (list) {
+            list.add(descriptor);
+            updateServers(descriptor, services);
+        }
+    }
+
+    protected void updateServers(RpcMethodDescriptor descriptor, Map<String, List<NutMap>> services) {
+        List<NutMap> servers = services.get(descriptor.key);
+        if (servers == null || servers.isEmpty())
+            descriptor.servers = RpcMethodDescriptor.EMPTY;
+        else {
+            ServerStats[] tmp = new ServerStats[servers.size()];
+            for (int i = 0; i < tmp.length; i++) {
+                NutMap server = servers.get(i);
+                tmp[i] = outlierDetector.get(serverId(server));
+                tmp[i].server = server;
+            }
+            descriptor.servers = tmp;
+        }
+    }
+
+    protected static String serverId(NutMap server) {
+        return server.getString("vip") + ":" + server.getInt("port");
+    }
+
+    public OutlierDetector getOutlierDetector() {
+        return outlierDetector;
     }
     
     public RpcSerializer getSerializer(String name) {
@@ -0,0 +1,26 @@
+package org.nutz.boot.starter.literpc;
+
+/**
+ * 通信层面的异常(超时,连接断开,服务器繁忙,响应码不对等), 计入服务器的失败次数. 业务方法抛出的RpcException不算
+ * 
+ * @author wendal
+ *
+ */
+@SuppressWarnings("serial")
+public class RpcTransportException extends RpcException {
+
+    public RpcTransportException() {
+    }
+
+    public RpcTransportException(String message) {
+        super(message);
+    }
+
+    public RpcTransportException(Throwable cause) {
+        super(cause);
+    }
+
+    public RpcTransportException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
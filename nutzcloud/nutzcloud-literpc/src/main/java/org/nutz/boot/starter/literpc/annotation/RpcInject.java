@@ -25,4 +25,9 @@ public @interface RpcInject {
     String endpointType() default "";
     
     String serializer() default "";
+
+    /**
+     * 负载均衡算法, 默认取literpc.loadbalance配置
+     */
+    String loadbalance() default "";
 }
@@ -1,10 +1,21 @@
 package org.nutz.boot.starter.literpc.api;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.nutz.lang.util.NutMap;
 
 public interface RpcEndpoint {
 
     RpcResp send(RpcReq req, NutMap server, RpcSerializer serializer);
-    
+
+    /**
+     * 非阻塞发送, 返回的Future在响应到达时由IO线程完成.
+     * <p/>
+     * 默认实现直接调用同步的send, 不支持异步的通信方式无需覆盖
+     */
+    default CompletableFuture<RpcResp> sendAsync(RpcReq req, NutMap server, RpcSerializer serializer) {
+        return CompletableFuture.completedFuture(send(req, server, serializer));
+    }
+
     String getName();
 }
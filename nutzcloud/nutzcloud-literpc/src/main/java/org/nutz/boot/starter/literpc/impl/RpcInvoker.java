@@ -1,6 +1,10 @@
 package org.nutz.boot.starter.literpc.impl;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.nutz.boot.starter.literpc.LiteRpc;
 import org.nutz.json.Json;
@@ -31,8 +35,46 @@ public class RpcInvoker {
         setFastMethod(FastClassFactory.get(method));
     }
     
+    /**
+     * 执行方法, 如果方法返回的是Future, 等待其完成并返回其结果
+     */
     public Object invoke(Object...args) throws Throwable {
-        return fastMethod.invoke(obj, args);
+        Object re = fastMethod.invoke(obj, args);
+        if (re instanceof Future) {
+            try {
+                return ((Future<?>) re).get();
+            }
+            catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        }
+        return re;
+    }
+
+    /**
+     * 执行方法, 如果方法返回的是CompletionStage, 不阻塞当前线程, 直接返回它
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Object> invokeAsync(Object...args) {
+        try {
+            Object re = fastMethod.invoke(obj, args);
+            if (re instanceof CompletionStage)
+                return ((CompletionStage<Object>) re).toCompletableFuture();
+            if (re instanceof Future) {
+                try {
+                    re = ((Future<?>) re).get();
+                }
+                catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+            }
+            return CompletableFuture.completedFuture(re);
+        }
+        catch (Throwable e) {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
     }
     
     public void setMethodSign(String methodSign) {
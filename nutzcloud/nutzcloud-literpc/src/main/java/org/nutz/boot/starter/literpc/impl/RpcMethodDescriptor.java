@@ -0,0 +1,65 @@
+package org.nutz.boot.starter.literpc.impl;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
+
+import org.nutz.boot.loadbalance.LoadBalancer;
+import org.nutz.boot.loadbalance.ServerStats;
+import org.nutz.boot.starter.literpc.LiteRpc;
+import org.nutz.boot.starter.literpc.api.RpcEndpoint;
+import org.nutz.boot.starter.literpc.api.RpcSerializer;
+
+/**
+ * 客户端的方法调用描述, 在注入时一次性算好, 调用时不再需要计算签名或查表
+ *
+ * @author wendal
+ *
+ */
+public class RpcMethodDescriptor {
+
+    public static final ServerStats[] EMPTY = new ServerStats[0];
+
+    public final Class<?> klass;
+
+    public final Method method;
+
+    public final String methodSign;
+
+    /**
+     * 类名:方法签名, 与LiteRpc.services的key一致
+     */
+    public final String key;
+
+    public final boolean async;
+
+    public final int timeout;
+
+    public final int connectTimeout;
+
+    public final RpcEndpoint endpoint;
+
+    public final RpcSerializer serializer;
+
+    public final LoadBalancer loadBalancer;
+
+    /**
+     * 当前可用的服务器列表, 由LiteRpc.setServices整体替换, ServerStats.server是对应的NutMap
+     */
+    public volatile ServerStats[] servers = EMPTY;
+
+    public RpcMethodDescriptor(Class<?> klass, Method method, int timeout, int connectTimeout, RpcEndpoint endpoint, RpcSerializer serializer, LoadBalancer loadBalancer) {
+        this.klass = klass;
+        this.method = method;
+        this.methodSign = LiteRpc.getMethodSign(method);
+        this.key = klass.getName() + ":" + methodSign;
+        Class<?> returnType = method.getReturnType();
+        this.async = returnType == CompletableFuture.class || returnType == CompletionStage.class || returnType == Future.class;
+        this.timeout = timeout;
+        this.connectTimeout = connectTimeout;
+        this.endpoint = endpoint;
+        this.serializer = serializer;
+        this.loadBalancer = loadBalancer;
+    }
+}
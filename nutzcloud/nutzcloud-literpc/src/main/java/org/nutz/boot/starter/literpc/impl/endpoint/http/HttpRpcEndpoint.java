@@ -2,19 +2,24 @@ package org.nutz.boot.starter.literpc.impl.endpoint.http;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.ProtocolHandlers;
 import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.client.util.BytesContentProvider;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.util.HttpCookieStore;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
-import org.nutz.boot.starter.literpc.RpcException;
+import org.nutz.boot.starter.literpc.RpcTransportException;
 import org.nutz.boot.starter.literpc.api.RpcEndpoint;
 import org.nutz.boot.starter.literpc.api.RpcReq;
 import org.nutz.boot.starter.literpc.api.RpcResp;
@@ -36,6 +41,7 @@ public class HttpRpcEndpoint implements RpcEndpoint {
     protected PropertiesProxy conf;
     protected HttpClient client;
     protected Executor executor;
+    protected int maxResponseSize;
     
     public RpcResp send(RpcReq rpcReq, NutMap server, RpcSerializer serializer) {
         //return send_by_nutz_http(rpcReq, server, serializer);
@@ -55,6 +61,8 @@ public class HttpRpcEndpoint implements RpcEndpoint {
 
         client.setConnectTimeout(conf.getLong(PRE + ".connectTime", 1000));
 
+        maxResponseSize = conf.getInt(PRE + "maxResponseSize", 16 * 1024 * 1024);
+
         if (conf.has(PRE + "requestBufferSize"))
             client.setRequestBufferSize(conf.getInt(PRE + "requestBufferSize"));
 
@@ -101,7 +109,7 @@ public class HttpRpcEndpoint implements RpcEndpoint {
             return new RpcResp(e1);
         }
         if (resp.getStatus() != 200) {
-            throw new RpcException("endpoint resp code=" + resp.getStatus());
+            throw new RpcTransportException("endpoint resp code=" + resp.getStatus());
         }
         try {
             return (RpcResp) serializer.read(new ByteArrayInputStream(resp.getContent()));
@@ -111,6 +119,51 @@ public class HttpRpcEndpoint implements RpcEndpoint {
         }
     }
 
+    /**
+     * 基于Jetty HttpClient的异步回调, 等待响应期间不占用调用方线程
+     */
+    public CompletableFuture<RpcResp> sendAsync(RpcReq rpcReq, NutMap server, RpcSerializer serializer) {
+        CompletableFuture<RpcResp> future = new CompletableFuture<>();
+        String vip = server.getString("vip");
+        int port = server.getInt("port");
+        String url = "http://" + vip + ":" + port + ENDPOINT_URI;
+        ByteArrayOutputStream bao = new ByteArrayOutputStream();
+        try {
+            serializer.write(rpcReq.args, bao);
+        }
+        catch (Throwable e1) {
+            future.complete(new RpcResp(e1));
+            return future;
+        }
+        Request req = client.newRequest(url)
+                            .method(HttpMethod.POST)
+                            .header(KLASS_HEADER_NAME, rpcReq.klass.getName())
+                            .header(METHOD_HEADER_NAME, rpcReq.methodSign)
+                            .header(SC_HEADER_NAME, serializer.getName())
+                            .content(new BytesContentProvider(bao.toByteArray()));
+        if (rpcReq.timeout > 0)
+            req.timeout(rpcReq.timeout, TimeUnit.MILLISECONDS);
+        req.send(new BufferingResponseListener(maxResponseSize) {
+            public void onComplete(Result result) {
+                if (result.isFailed()) {
+                    future.complete(new RpcResp(result.getFailure()));
+                    return;
+                }
+                if (result.getResponse().getStatus() != 200) {
+                    future.complete(new RpcResp(new RpcTransportException("endpoint resp code=" + result.getResponse().getStatus())));
+                    return;
+                }
+                try {
+                    future.complete((RpcResp) serializer.read(new ByteArrayInputStream(getContent())));
+                }
+                catch (Throwable e) {
+                    future.complete(new RpcResp(e));
+                }
+            }
+        });
+        return future;
+    }
+
 //    public RpcResp send_by_nutz_http(RpcReq rpcReq, NutMap server, RpcSerializer serializer) {
 //        String vip = server.getString("vip");
 //        int port = server.getInt("port");
@@ -138,7 +191,7 @@ public class HttpRpcEndpoint implements RpcEndpoint {
 //        try {
 //            resp = sender.send();
 //            if (!resp.isOK()) {
-//                throw new RpcException("endpoint resp code=" + resp.getStatus());
+//                throw new RpcTransportException("endpoint resp code=" + resp.getStatus());
 //            }
 //        }
 //        catch (Exception e) {
@@ -7,4 +7,9 @@ public class LiteRpcTcpValues {
     public static final byte OP_PING = 1;
     public static final byte OP_RPC_REQ = 2;
     public static final byte OP_RPC_RESP = 4;
+
+    /**
+     * 注册到loach的TCP服务端端口, 客户端优先使用它, 没有的话使用port
+     */
+    public static final String REG_KEY_PORT = "literpc.tcp.port";
 }
@@ -0,0 +1,189 @@
+package org.nutz.boot.starter.literpc.impl.endpoint.tcp;
+
+import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.OP_PING;
+import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.OP_RPC_REQ;
+import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.OP_RPC_RESP;
+import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.VERSION;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.nutz.boot.starter.literpc.RpcTransportException;
+import org.nutz.lang.Streams;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+/**
+ * 多路复用的TCP连接. 多个请求共享同一个socket, 写入时加锁, 由独立的读线程按UUID把响应分发回各自的请求
+ *
+ * @author wendal
+ *
+ */
+public class MultiplexConnection implements Runnable {
+
+    private static final Log log = Logs.get();
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    protected final String key;
+
+    protected final int maxFrameSize;
+
+    protected Socket socket;
+
+    protected DataInputStream dis;
+
+    protected DataOutputStream dos;
+
+    protected final Map<UUID, CompletableFuture<Frame>> pending = new ConcurrentHashMap<>();
+
+    protected volatile boolean closed;
+
+    public MultiplexConnection(String key) {
+        this(key, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    public MultiplexConnection(String key, int maxFrameSize) {
+        this.key = key;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public void connect(InetSocketAddress addr, int connectTimeout) throws IOException {
+        socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(addr, connectTimeout);
+            dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+        catch (IOException | RuntimeException e) {
+            // 连接或建流失败, 及时释放socket, 不要等GC
+            closed = true;
+            Streams.safeClose(socket);
+            throw e;
+        }
+        Thread t = new Thread(this, "literpc.tcp.mux." + key);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * 发送一个请求帧, 返回的Future在对应UUID的响应到达时完成
+     *
+     * @param uuid
+     *            请求的UUID, 必须与body中前16字节一致
+     * @param body
+     *            请求体, 不含长度/版本/类型头
+     */
+    public CompletableFuture<Frame> send(UUID uuid, byte[] body) {
+        CompletableFuture<Frame> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new RpcTransportException("connection closed " + key));
+            return future;
+        }
+        pending.put(uuid, future);
+        if (closed) {
+            pending.remove(uuid);
+            future.completeExceptionally(new RpcTransportException("connection closed " + key));
+            return future;
+        }
+        try {
+            synchronized (dos) {
+                dos.writeInt(body.length + 2);
+                dos.write(VERSION);
+                dos.write(OP_RPC_REQ);
+                dos.write(body);
+                dos.flush();
+            }
+        }
+        catch (IOException e) {
+            pending.remove(uuid);
+            future.completeExceptionally(e);
+            close(e);
+        }
+        return future;
+    }
+
+    /**
+     * 放弃等待某个请求的响应, 通常是因为超时
+     */
+    public void cancel(UUID uuid) {
+        pending.remove(uuid);
+    }
+
+    public void run() {
+        try {
+            while (!closed) {
+                int size = dis.readInt();
+                // 长度来自对端, 先校验再分配, 异常帧直接断开连接
+                if (size < 2 || size > maxFrameSize)
+                    throw new RpcTransportException("bad frame size=" + size);
+                dis.readByte(); // skip VERSION
+                byte opType = dis.readByte();
+                if (opType == OP_PING) {
+                    if (size > 2)
+                        dis.skipBytes(size - 2);
+                    continue;
+                }
+                if (opType != OP_RPC_RESP)
+                    throw new RpcTransportException("bad opType=" + opType);
+                if (size < 2 + 16 + 1)
+                    throw new RpcTransportException("bad frame size=" + size);
+                UUID uuid = new UUID(dis.readLong(), dis.readLong());
+                Frame frame = new Frame();
+                frame.respType = dis.read();
+                frame.body = new byte[size - 2 - 16 - 1];
+                dis.readFully(frame.body);
+                CompletableFuture<Frame> future = pending.remove(uuid);
+                if (future != null)
+                    future.complete(frame);
+                else if (log.isDebugEnabled())
+                    log.debugf("drop resp uuid=%s, timeout?", uuid);
+            }
+        }
+        catch (Throwable e) {
+            close(e);
+        }
+    }
+
+    public void close(Throwable e) {
+        if (closed)
+            return;
+        closed = true;
+        Streams.safeClose(socket);
+        if (e != null && log.isDebugEnabled())
+            log.debugf("connection %s closed : %s", key, e.getMessage());
+        RpcTransportException err = new RpcTransportException("connection closed " + key, e);
+        for (UUID uuid : pending.keySet()) {
+            CompletableFuture<Frame> future = pending.remove(uuid);
+            if (future != null)
+                future.completeExceptionally(err);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * 一个已读取完成的响应帧
+     */
+    public static class Frame {
+        public int respType;
+        public byte[] body;
+    }
+}
@@ -3,6 +3,7 @@ package org.nutz.boot.starter.literpc.impl.endpoint.tcp;
 import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.OP_PING;
 import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.OP_RPC_REQ;
 import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.OP_RPC_RESP;
+import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.REG_KEY_PORT;
 import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.VERSION;
 
 import java.io.ByteArrayInputStream;
@@ -17,17 +18,27 @@ import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.commons.pool2.KeyedPooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
-import org.nutz.boot.starter.literpc.RpcException;
+import org.nutz.boot.starter.literpc.RpcTransportException;
 import org.nutz.boot.starter.literpc.api.RpcEndpoint;
 import org.nutz.boot.starter.literpc.api.RpcReq;
 import org.nutz.boot.starter.literpc.api.RpcResp;
 import org.nutz.boot.starter.literpc.api.RpcSerializer;
+import org.nutz.boot.starter.literpc.impl.endpoint.tcp.MultiplexConnection.Frame;
 import org.nutz.ioc.impl.PropertiesProxy;
 import org.nutz.ioc.loader.annotation.Inject;
 import org.nutz.ioc.loader.annotation.IocBean;
@@ -37,7 +48,7 @@ import org.nutz.lang.util.NutMap;
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
 
-@IocBean(create = "init")
+@IocBean(create = "init", depose = "depose")
 public class TcpRpcEndpoint implements RpcEndpoint {
 
     private static final Log log = Logs.get();
@@ -52,6 +63,34 @@ public class TcpRpcEndpoint implements RpcEndpoint {
     protected GenericKeyedObjectPool<SocketAddress, SocketHolder> pool;
 
     protected boolean debug;
+
+    /**
+     * 多路复用模式, 多个请求共享少量连接, 响应按UUID匹配
+     */
+    protected boolean multiplex;
+
+    protected int connectionsPerServer;
+
+    /**
+     * 单个响应帧的最大字节数, 超出则认为对端异常并断开连接
+     */
+    protected int maxFrameSize;
+
+    protected Map<String, AtomicReferenceArray<MultiplexConnection>> muxConnections = new ConcurrentHashMap<>();
+
+    protected AtomicLong muxIndex = new AtomicLong();
+
+    /**
+     * UUID的高位在本进程内固定, 低位自增, 避免每次请求都调用SecureRandom
+     */
+    protected long uuidMost = UUID.randomUUID().getMostSignificantBits();
+
+    protected AtomicLong uuidLeast = new AtomicLong();
+
+    /**
+     * 异步调用的超时检查
+     */
+    protected ScheduledThreadPoolExecutor timer;
     
     public static byte[] PKG_PING;
     static {
@@ -68,9 +107,87 @@ public class TcpRpcEndpoint implements RpcEndpoint {
         poolConfig.setMaxTotal(500);
         poolConfig.setTestWhileIdle(true);
         pool = new GenericKeyedObjectPool<>(new RpcSocketFactory(), poolConfig);
+        multiplex = conf.getBoolean("literpc.endpoint.tcp.multiplex", false);
+        maxFrameSize = conf.getInt("literpc.endpoint.tcp.maxFrameSize", MultiplexConnection.DEFAULT_MAX_FRAME_SIZE);
+        connectionsPerServer = conf.getInt("literpc.endpoint.tcp.multiplex.connections", 2);
+        timer = new ScheduledThreadPoolExecutor(1, (r) -> {
+            Thread t = new Thread(r, "literpc.tcp.timer");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    public void depose() {
+        for (AtomicReferenceArray<MultiplexConnection> conns : muxConnections.values()) {
+            for (int i = 0; i < conns.length(); i++) {
+                MultiplexConnection conn = conns.get(i);
+                if (conn != null)
+                    conn.close(null);
+            }
+        }
+        muxConnections.clear();
+        if (timer != null)
+            timer.shutdownNow();
+        if (pool != null)
+            pool.close();
     }
 
     public RpcResp send(RpcReq req, NutMap server, RpcSerializer serializer) {
+        UUID uuid = new UUID(uuidMost, uuidLeast.incrementAndGet());
+        byte[] body;
+        try {
+            body = encodeReq(uuid, req, serializer);
+        }
+        catch (Exception e) {
+            return new RpcResp(e);
+        }
+        if (debug)
+            log.debug("send " + Lang.fixedHexString(body));
+        if (multiplex)
+            return sendByMultiplex(uuid, body, req, server, serializer);
+        return sendBySocketPool(body, server, serializer);
+    }
+
+    /**
+     * 多路复用模式下真正的异步发送, 响应由连接的读线程完成; 非多路复用模式退化为同步发送
+     */
+    public CompletableFuture<RpcResp> sendAsync(RpcReq req, NutMap server, RpcSerializer serializer) {
+        if (!multiplex)
+            return CompletableFuture.completedFuture(send(req, server, serializer));
+        CompletableFuture<RpcResp> future = new CompletableFuture<>();
+        UUID uuid = new UUID(uuidMost, uuidLeast.incrementAndGet());
+        try {
+            byte[] body = encodeReq(uuid, req, serializer);
+            if (debug)
+                log.debug("send " + Lang.fixedHexString(body));
+            MultiplexConnection conn = getMultiplexConnection(server, req.connectTimeout);
+            int timeout = req.timeout > 0 ? req.timeout : 1000;
+            ScheduledFuture<?> timeoutTask = timer.schedule(() -> {
+                conn.cancel(uuid);
+                future.complete(new RpcResp(new RpcTransportException("timeout uuid=" + uuid)));
+            }, timeout, TimeUnit.MILLISECONDS);
+            conn.send(uuid, body).whenComplete((frame, err) -> {
+                timeoutTask.cancel(false);
+                if (err != null) {
+                    future.complete(new RpcResp(err));
+                    return;
+                }
+                try {
+                    future.complete(decodeResp(frame.respType, frame.body, serializer));
+                }
+                catch (Throwable e) {
+                    future.complete(new RpcResp(e));
+                }
+            });
+        }
+        catch (Throwable e) {
+            future.complete(new RpcResp(e));
+        }
+        return future;
+    }
+
+    protected byte[] encodeReq(UUID uuid, RpcReq req, RpcSerializer serializer) throws Exception {
         // 发送的格式
         // 4byte 长度数据
         // 1byte 版本数据
@@ -81,24 +198,84 @@ public class TcpRpcEndpoint implements RpcEndpoint {
         // UTF字符串 序列化器的名称
         // byte[] 序列化后的参数,供序列化器读取
         ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeLong(uuid.getMostSignificantBits());
+        dos.writeLong(uuid.getLeastSignificantBits());
+        dos.writeUTF(req.klass.getName());
+        dos.writeUTF(req.methodSign);
+        dos.writeUTF(serializer.getName());
+        serializer.write(req.args, dos);
+        dos.flush();
+        return out.toByteArray();
+    }
+
+    protected RpcResp decodeResp(int respType, byte[] body, RpcSerializer serializer) throws Exception {
+        if (debug)
+            log.debug("read " + Lang.fixedHexString(body));
+        switch (respType) {
+        case 0:
+            return new RpcResp();
+        case 1:
+            return new RpcResp(serializer.read(new ByteArrayInputStream(body)));
+        case 2:
+        default:
+            return new RpcResp((Throwable) serializer.read(new ByteArrayInputStream(body)));
+        }
+    }
+
+    protected RpcResp sendByMultiplex(UUID uuid, byte[] body, RpcReq req, NutMap server, RpcSerializer serializer) {
+        MultiplexConnection conn;
         try {
-            DataOutputStream dos = new DataOutputStream(out);
-            UUID uuid = UUID.randomUUID();
-            dos.writeLong(uuid.getMostSignificantBits());
-            dos.writeLong(uuid.getLeastSignificantBits());
-            dos.writeUTF(req.klass.getName());
-            dos.writeUTF(req.methodSign);
-            dos.writeUTF(serializer.getName());
-            serializer.write(req.args, dos);
+            conn = getMultiplexConnection(server, req.connectTimeout);
         }
-        catch (Exception e) {
+        catch (Throwable e) {
             return new RpcResp(e);
         }
-        byte[] body = out.toByteArray();
-        if (debug)
-            log.debug("send " + Lang.fixedHexString(body));
+        CompletableFuture<Frame> future = conn.send(uuid, body);
+        try {
+            Frame frame = future.get(req.timeout > 0 ? req.timeout : 1000, TimeUnit.MILLISECONDS);
+            return decodeResp(frame.respType, frame.body, serializer);
+        }
+        catch (TimeoutException e) {
+            conn.cancel(uuid);
+            return new RpcResp(new RpcTransportException("timeout uuid=" + uuid, e));
+        }
+        catch (ExecutionException e) {
+            return new RpcResp(e.getCause());
+        }
+        catch (Throwable e) {
+            conn.cancel(uuid);
+            return new RpcResp(e);
+        }
+    }
+
+    protected MultiplexConnection getMultiplexConnection(NutMap server, int connectTimeout) throws Exception {
+        String vip = server.getString("vip");
+        int port = server.getInt(REG_KEY_PORT, server.getInt("port"));
+        String key = vip + ":" + port;
+        AtomicReferenceArray<MultiplexConnection> conns = muxConnections.get(key);
+        if (conns == null) {
+            conns = muxConnections.computeIfAbsent(key, (k) -> new AtomicReferenceArray<>(connectionsPerServer));
+        }
+        int index = (int) (muxIndex.incrementAndGet() % conns.length());
+        // 锁外读取, 必须经由AtomicReferenceArray才能看到其他线程完整初始化的连接
+        MultiplexConnection conn = conns.get(index);
+        if (conn != null && !conn.isClosed())
+            return conn;
+        synchronized (conns) {
+            conn = conns.get(index);
+            if (conn == null || conn.isClosed()) {
+                conn = new MultiplexConnection(key, maxFrameSize);
+                conn.connect(new InetSocketAddress(vip, port), connectTimeout > 0 ? connectTimeout : 1000);
+                conns.set(index, conn);
+            }
+        }
+        return conn;
+    }
+
+    protected RpcResp sendBySocketPool(byte[] body, NutMap server, RpcSerializer serializer) {
         SocketHolder holder;
-        InetSocketAddress addr = new InetSocketAddress(server.getString("vip"), server.getInt("port"));
+        InetSocketAddress addr = new InetSocketAddress(server.getString("vip"), server.getInt(REG_KEY_PORT, server.getInt("port")));
         try {
             holder = pool.borrowObject(addr, 1000);
         }
@@ -120,25 +297,19 @@ public class TcpRpcEndpoint implements RpcEndpoint {
             byte opType = holder.dis.readByte();
             if (opType != OP_RPC_RESP) {
                 holder.socket.close();
-                return new RpcResp(new RpcException("bad opType=" + opType));
+                return new RpcResp(new RpcTransportException("bad opType=" + opType));
             }
             // 读取UUID
             holder.dis.readLong();
             holder.dis.readLong();
+            if (size < 2 + 16 + 1 || size > maxFrameSize) {
+                holder.socket.close();
+                return new RpcResp(new RpcTransportException("bad frame size=" + size));
+            }
             int respType = holder.dis.read();
             body = new byte[size - 2 - 1 - 16];
             holder.dis.readFully(body, 0, body.length);
-            if (debug)
-                log.debug("read " + Lang.fixedHexString(body));
-            switch (respType) {
-            case 0:
-                return new RpcResp();
-            case 1:
-                return new RpcResp(serializer.read(new ByteArrayInputStream(body)));
-            case 2:
-            default:
-                return new RpcResp((Throwable) serializer.read(new ByteArrayInputStream(body)));
-            }
+            return decodeResp(respType, body, serializer);
         }
         catch (Throwable e) {
             return new RpcResp(e);
@@ -0,0 +1,545 @@
+package org.nutz.boot.starter.literpc.impl.endpoint.tcp;
+
+import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.OP_PING;
+import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.OP_RPC_REQ;
+import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.OP_RPC_RESP;
+import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.REG_KEY_PORT;
+import static org.nutz.boot.starter.literpc.impl.endpoint.tcp.LiteRpcTcpValues.VERSION;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nutz.boot.AppContext;
+import org.nutz.boot.annotation.PropDoc;
+import org.nutz.boot.starter.MonitorObject;
+import org.nutz.boot.starter.ServerFace;
+import org.nutz.boot.starter.literpc.LiteRpc;
+import org.nutz.boot.starter.literpc.RpcException;
+import org.nutz.boot.starter.literpc.RpcTransportException;
+import org.nutz.boot.starter.literpc.api.RpcSerializer;
+import org.nutz.boot.starter.literpc.impl.RpcInvoker;
+import org.nutz.boot.starter.loach.client.LoachClient;
+import org.nutz.ioc.impl.PropertiesProxy;
+import org.nutz.ioc.loader.annotation.Inject;
+import org.nutz.ioc.loader.annotation.IocBean;
+import org.nutz.lang.Streams;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+/**
+ * LiteRpc的TCP服务端, 基于java.nio实现.
+ * <p/>
+ * 线程模型: 1个acceptor线程接受连接, N个selector线程负责读写, 完整的请求帧交给有界的worker线程池执行.
+ * 帧格式与TcpRpcEndpoint一致, 同一个连接上的请求可以乱序返回, 客户端按UUID匹配.
+ *
+ * @author wendal
+ *
+ */
+@IocBean(create = "init", depose = "depose")
+public class TcpRpcServer implements ServerFace, MonitorObject {
+
+    private static final Log log = Logs.get();
+
+    protected static final String PRE = "literpc.endpoint.tcp.server.";
+
+    @PropDoc(value = "是否启用LiteRpc的TCP服务端", defaultValue = "false")
+    public static final String PROP_ENABLE = PRE + "enable";
+
+    @PropDoc(value = "监听的地址", defaultValue = "0.0.0.0")
+    public static final String PROP_HOST = PRE + "host";
+
+    @PropDoc(value = "监听的端口", defaultValue = "8620")
+    public static final String PROP_PORT = PRE + "port";
+
+    @PropDoc(value = "负责读写的selector线程数", defaultValue = "CPU核数的一半,最少1个")
+    public static final String PROP_SELECTORS = PRE + "selectors";
+
+    @PropDoc(value = "执行RPC方法的worker线程数", defaultValue = "64")
+    public static final String PROP_WORKERS = PRE + "workers";
+
+    @PropDoc(value = "worker线程池的等待队列长度,满了之后新请求会直接返回异常", defaultValue = "1024")
+    public static final String PROP_QUEUE_SIZE = PRE + "queueSize";
+
+    @PropDoc(value = "单个请求帧的最大字节数", defaultValue = "16777216")
+    public static final String PROP_MAX_FRAME_SIZE = PRE + "maxFrameSize";
+
+    @Inject
+    protected PropertiesProxy conf;
+
+    @Inject
+    protected AppContext appContext;
+
+    @Inject
+    protected LiteRpc liteRpc;
+
+    protected boolean enable;
+
+    protected int maxFrameSize;
+
+    protected ServerSocketChannel serverChannel;
+
+    protected Selector acceptSelector;
+
+    protected IoLoop[] ioLoops;
+
+    protected ThreadPoolExecutor workers;
+
+    protected volatile boolean running;
+
+    protected AtomicInteger connectionCount = new AtomicInteger();
+
+    protected AtomicLong requestCount = new AtomicLong();
+
+    protected AtomicLong rejectCount = new AtomicLong();
+
+    protected AtomicLong errorCount = new AtomicLong();
+
+    public void init() {
+        enable = conf.getBoolean(PROP_ENABLE, false);
+        maxFrameSize = conf.getInt(PROP_MAX_FRAME_SIZE, 16 * 1024 * 1024);
+    }
+
+    public void start() throws Exception {
+        if (!enable)
+            return;
+        int workerSize = conf.getInt(PROP_WORKERS, 64);
+        workers = new ThreadPoolExecutor(workerSize,
+                                         workerSize,
+                                         60,
+                                         TimeUnit.SECONDS,
+                                         new ArrayBlockingQueue<>(conf.getInt(PROP_QUEUE_SIZE, 1024)),
+                                         new NamedThreadFactory("literpc.tcp.worker."));
+        running = true;
+        int selectors = conf.getInt(PROP_SELECTORS, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        ioLoops = new IoLoop[selectors];
+        for (int i = 0; i < selectors; i++) {
+            ioLoops[i] = new IoLoop(Selector.open());
+            Thread t = new Thread(ioLoops[i], "literpc.tcp.selector." + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        String host = conf.get(PROP_HOST, "0.0.0.0");
+        int port = conf.getInt(PROP_PORT, 8620);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(host, port), conf.getInt(PRE + "backlog", 1024));
+        serverChannel.configureBlocking(false);
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+        Thread t = new Thread(this::acceptLoop, "literpc.tcp.acceptor");
+        t.setDaemon(true);
+        t.start();
+        try {
+            LoachClient.EXT_REG_DATA.put(REG_KEY_PORT, port);
+        }
+        catch (Throwable e) {
+            log.info("skip loach reg of tcp port : " + e.getMessage());
+        }
+        log.infof("LiteRpc tcp server listen at %s:%d", host, port);
+    }
+
+    public void stop() throws Exception {
+        if (!running)
+            return;
+        running = false;
+        Streams.safeClose(acceptSelector);
+        Streams.safeClose(serverChannel);
+        for (IoLoop loop : ioLoops) {
+            loop.close();
+        }
+        workers.shutdown();
+    }
+
+    public void depose() throws Exception {
+        stop();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    protected void acceptLoop() {
+        int index = 0;
+        while (running) {
+            try {
+                acceptSelector.select();
+                Iterator<SelectionKey> it = acceptSelector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    it.next();
+                    it.remove();
+                    SocketChannel channel;
+                    while ((channel = serverChannel.accept()) != null) {
+                        channel.configureBlocking(false);
+                        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                        ioLoops[index].register(channel);
+                        index = (index + 1) % ioLoops.length;
+                    }
+                }
+            }
+            catch (ClosedSelectorException e) {
+                break;
+            }
+            catch (Throwable e) {
+                if (running)
+                    log.debug("accept fail", e);
+            }
+        }
+    }
+
+    /**
+     * 在worker线程中执行一个请求帧, 并把响应写回连接
+     */
+    protected void handle(Connection conn, byte[] frame) {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(frame));
+        long most, least;
+        RpcSerializer serializer;
+        RpcInvoker invoker;
+        Object[] args;
+        try {
+            dis.readByte(); // skip VERSION
+            dis.readByte(); // skip OP
+            most = dis.readLong();
+            least = dis.readLong();
+            String klassName = dis.readUTF();
+            String methodSign = dis.readUTF();
+            String scName = dis.readUTF();
+            serializer = liteRpc.getSerializer(scName);
+            if (serializer == null) {
+                log.debug("not support serializer=" + scName);
+                conn.close();
+                return;
+            }
+            invoker = liteRpc.getInvoker(klassName, methodSign);
+            if (invoker == null) {
+                conn.write(encodeResp(most, least, 2, new RpcException("no such method " + klassName + ":" + methodSign), serializer));
+                return;
+            }
+            args = (Object[]) serializer.read(dis);
+        }
+        catch (Throwable e) {
+            errorCount.incrementAndGet();
+            log.debug("bad request frame", e);
+            conn.close();
+            return;
+        }
+        // 方法返回CompletableFuture的话, 在其完成时才写回响应, 不占用worker线程
+        final long _most = most, _least = least;
+        final RpcSerializer _serializer = serializer;
+        invoker.invokeAsync(args).whenComplete((re, err) -> {
+            if (err instanceof CompletionException && err.getCause() != null)
+                err = err.getCause();
+            writeResult(conn, _most, _least, re, err, _serializer);
+        });
+    }
+
+    protected void writeResult(Connection conn, long most, long least, Object re, Throwable err, RpcSerializer serializer) {
+        try {
+            if (err != null)
+                conn.write(encodeResp(most, least, 2, err, serializer));
+            else
+                conn.write(encodeResp(most, least, re == null ? 0 : 1, re, serializer));
+        }
+        catch (Throwable e) {
+            errorCount.incrementAndGet();
+            log.debug("Serializer Exception when writing", e);
+            try {
+                conn.write(encodeResp(most, least, 2, new RpcException("Serializer Exception when writing: " + e.getMessage()), serializer));
+            }
+            catch (Throwable e2) {
+                conn.close();
+            }
+        }
+    }
+
+    protected ByteBuffer encodeResp(long most, long least, int respType, Object obj, RpcSerializer serializer) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(0); // 长度, 稍后回填
+        dos.write(VERSION);
+        dos.write(OP_RPC_RESP);
+        dos.writeLong(most);
+        dos.writeLong(least);
+        dos.write(respType);
+        if (respType != 0)
+            serializer.write(obj, dos);
+        dos.flush();
+        ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+        buf.putInt(0, buf.limit() - 4);
+        return buf;
+    }
+
+    protected void dispatch(Connection conn, byte[] frame) {
+        byte op = frame[1];
+        if (op == OP_PING) {
+            // 客户端的保活包, 不需要回复
+            return;
+        }
+        if (op != OP_RPC_REQ) {
+            log.debug("bad opType=" + op);
+            conn.close();
+            return;
+        }
+        requestCount.incrementAndGet();
+        try {
+            workers.execute(() -> handle(conn, frame));
+        }
+        catch (RejectedExecutionException e) {
+            rejectCount.incrementAndGet();
+            // 队列已满, 直接告诉客户端服务器忙
+            try {
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(frame, 2, frame.length - 2));
+                long most = dis.readLong();
+                long least = dis.readLong();
+                dis.readUTF();
+                dis.readUTF();
+                RpcSerializer serializer = liteRpc.getSerializer(dis.readUTF());
+                if (serializer == null) {
+                    conn.close();
+                    return;
+                }
+                conn.write(encodeResp(most, least, 2, new RpcTransportException("server busy"), serializer));
+            }
+            catch (Throwable e2) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * 一个selector线程, 管理多个连接的读写
+     */
+    protected class IoLoop implements Runnable {
+
+        protected Selector selector;
+
+        protected Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+
+        public IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        public void register(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        public void close() {
+            for (SelectionKey key : selector.keys()) {
+                Streams.safeClose(key.channel());
+            }
+            Streams.safeClose(selector);
+        }
+
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = newChannels.poll()) != null) {
+                        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                        key.attach(new Connection(channel, key));
+                        connectionCount.incrementAndGet();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection conn = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable())
+                                conn.read();
+                            if (key.isValid() && key.isWritable())
+                                conn.flush();
+                        }
+                        catch (Throwable e) {
+                            if (log.isTraceEnabled())
+                                log.trace("connection closed", e);
+                            conn.close();
+                        }
+                    }
+                }
+                catch (ClosedSelectorException e) {
+                    break;
+                }
+                catch (Throwable e) {
+                    if (running)
+                        log.debug("selector loop fail", e);
+                }
+            }
+        }
+    }
+
+    protected static final int READ_BUF_SIZE = 8192;
+
+    /**
+     * 一个客户端连接, 持有读缓冲区和待写出的响应队列
+     */
+    protected class Connection {
+
+        protected SocketChannel channel;
+
+        protected SelectionKey key;
+
+        protected ByteBuffer readBuf = ByteBuffer.allocate(READ_BUF_SIZE);
+
+        protected LinkedList<ByteBuffer> writeQueue = new LinkedList<>();
+
+        protected volatile boolean closed;
+
+        public Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        public void read() throws IOException {
+            int len = channel.read(readBuf);
+            if (len < 0) {
+                close();
+                return;
+            }
+            readBuf.flip();
+            while (readBuf.remaining() >= 4) {
+                int size = readBuf.getInt(readBuf.position());
+                if (size < 2 || size > maxFrameSize)
+                    throw new IOException("bad frame size=" + size);
+                if (readBuf.remaining() < 4 + size) {
+                    if (readBuf.capacity() < 4 + size) {
+                        ByteBuffer tmp = ByteBuffer.allocate(4 + size);
+                        tmp.put(readBuf);
+                        readBuf = tmp;
+                        return;
+                    }
+                    break;
+                }
+                readBuf.getInt();
+                byte[] frame = new byte[size];
+                readBuf.get(frame);
+                dispatch(this, frame);
+            }
+            if (readBuf.capacity() > READ_BUF_SIZE && readBuf.remaining() <= READ_BUF_SIZE) {
+                // 大帧已经处理完, 缩回默认大小, 避免每个长连接都一直占着最大帧的内存
+                ByteBuffer tmp = ByteBuffer.allocate(READ_BUF_SIZE);
+                tmp.put(readBuf);
+                readBuf = tmp;
+                return;
+            }
+            readBuf.compact();
+        }
+
+        public void write(ByteBuffer buf) throws IOException {
+            synchronized (writeQueue) {
+                if (closed)
+                    return;
+                if (writeQueue.isEmpty()) {
+                    channel.write(buf);
+                    if (!buf.hasRemaining())
+                        return;
+                }
+                writeQueue.add(buf);
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            key.selector().wakeup();
+        }
+
+        public void flush() throws IOException {
+            synchronized (writeQueue) {
+                while (!writeQueue.isEmpty()) {
+                    ByteBuffer buf = writeQueue.peek();
+                    channel.write(buf);
+                    if (buf.hasRemaining())
+                        return;
+                    writeQueue.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        public void close() {
+            synchronized (writeQueue) {
+                if (closed)
+                    return;
+                closed = true;
+                writeQueue.clear();
+            }
+            connectionCount.decrementAndGet();
+            key.cancel();
+            Streams.safeClose(channel);
+        }
+    }
+
+    protected static class NamedThreadFactory implements ThreadFactory {
+
+        protected String prefix;
+
+        protected AtomicInteger index = new AtomicInteger();
+
+        public NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + index.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    // 监控相关的方法
+
+    public String getMonitorName() {
+        return "literpc.tcp.server";
+    }
+
+    public boolean isMonitorEnable() {
+        return enable;
+    }
+
+    public Collection<String> getMonitorKeys() {
+        return Arrays.asList("connections", "requests", "rejected", "errors", "worker.active", "worker.queue");
+    }
+
+    public Object getMonitorValue(String key) {
+        switch (key) {
+        case "connections":
+            return connectionCount.get();
+        case "requests":
+            return requestCount.get();
+        case "rejected":
+            return rejectCount.get();
+        case "errors":
+            return errorCount.get();
+        case "worker.active":
+            return workers == null ? 0 : workers.getActiveCount();
+        case "worker.queue":
+            return workers == null ? 0 : workers.getQueue().size();
+        default:
+            return null;
+        }
+    }
+}
@@ -1,45 +1,136 @@
 package org.nutz.boot.starter.literpc.impl.proxy;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
+import org.nutz.boot.loadbalance.LoadBalancers;
+import org.nutz.boot.loadbalance.OutlierDetector;
+import org.nutz.boot.loadbalance.ServerStats;
 import org.nutz.boot.starter.literpc.LiteRpc;
 import org.nutz.boot.starter.literpc.RpcException;
+import org.nutz.boot.starter.literpc.RpcTransportException;
 import org.nutz.boot.starter.literpc.api.RpcReq;
 import org.nutz.boot.starter.literpc.api.RpcResp;
+import org.nutz.boot.starter.literpc.impl.RpcMethodDescriptor;
+import org.nutz.lang.Strings;
 import org.nutz.lang.util.NutMap;
 
 public class DefaultRpcInjectProxy extends AbstractRpcRefProxy {
 
-    protected AtomicLong AL = new AtomicLong();
+    /**
+     * 注入时为接口的每个方法预先生成描述. 代理对象可能在注入完成前就被其他线程调用, 所以用并发Map
+     */
+    protected Map<Method, RpcMethodDescriptor> descriptors = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterInject() {
+        super.afterInject();
+        int connectTimeout = rpcInect.connectTimeout() == -1 ? 1000 : rpcInect.connectTimeout();
+        int timeout = rpcInect.timeout() == -1 ? 1000 : rpcInect.timeout();
+        String loadbalance = Strings.sBlank(rpcInect.loadbalance(), conf.get(LiteRpc.PROP_LOADBALANCE, "round-robin"));
+        for (Method method : klass.getMethods()) {
+            RpcMethodDescriptor descriptor = new RpcMethodDescriptor(klass, method, timeout, connectTimeout, endpoint, serializer, LoadBalancers.create(loadbalance));
+            liteRpc.registerDescriptor(descriptor);
+            descriptors.put(method, descriptor);
+        }
+    }
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        RpcMethodDescriptor descriptor = descriptors.get(method);
+        if (descriptor == null) {
+            // Object自带的方法,例如toString/hashCode/equals, 不需要远程调用
+            if (method.getDeclaringClass() == Object.class)
+                return invokeObjectMethod(proxy, method, args);
+            throw new RpcException("not rpc method : " + method);
+        }
         // 构建RpcReq
         RpcReq req = new RpcReq();
         req.klass = klass;
         req.args = args;
         req.object = proxy;
-        req.connectTimeout = rpcInect.connectTimeout() == -1 ? 1000 : rpcInect.connectTimeout();
-        req.timeout = rpcInect.timeout() == -1 ? 1000 : rpcInect.timeout();
+        req.connectTimeout = descriptor.connectTimeout;
+        req.timeout = descriptor.timeout;
         req.method = method;
-        req.methodSign = LiteRpc.getMethodSign(method);
+        req.methodSign = descriptor.methodSign;
         // 获取支持该方法的服务器信息
-        List<NutMap> servers = liteRpc.getServers(req.klass.getName(), req.methodSign);
-        if (servers == null || servers.isEmpty()) {
-            throw new RpcException("No server support : " + req.klass.getName() + "." + method.getName() + "(...)");
+        ServerStats[] servers = descriptor.servers;
+        if (servers.length == 0) {
+            RpcException err = new RpcException("No server support : " + req.klass.getName() + "." + method.getName() + "(...)");
+            if (descriptor.async) {
+                CompletableFuture<Object> future = new CompletableFuture<>();
+                future.completeExceptionally(err);
+                return future;
+            }
+            throw err;
+        }
+        // 选一个,执行之. 一致性hash以第一个参数为key
+        ServerStats stats = descriptor.loadBalancer.select(servers, args == null || args.length == 0 ? null : args[0]);
+        NutMap server = (NutMap) stats.server;
+        OutlierDetector detector = liteRpc.getOutlierDetector();
+        long start = System.nanoTime();
+        stats.onStart();
+        if (descriptor.async) {
+            // 返回值是Future的方法, 由endpoint的IO回调完成, 不阻塞调用方线程
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            CompletableFuture<RpcResp> respFuture;
+            try {
+                respFuture = descriptor.endpoint.sendAsync(req, server, descriptor.serializer);
+            }
+            catch (Throwable e) {
+                complete(detector, stats, start, e);
+                throw e;
+            }
+            respFuture.whenComplete((resp, err) -> {
+                Throwable e = err != null ? err : resp.err;
+                complete(detector, stats, start, e);
+                if (e != null)
+                    future.completeExceptionally(e);
+                else
+                    future.complete(resp.returnValue);
+            });
+            return future;
         }
-        // 选一个,执行之
-        NutMap server;
-        if (servers.size() == 1) {
-            server = servers.get(0);
-        } else {
-            server = servers.get((int) (AL.incrementAndGet() % servers.size()));
+        RpcResp resp;
+        try {
+            resp = descriptor.endpoint.send(req, server, descriptor.serializer);
         }
-        RpcResp resp = endpoint.send(req, server, serializer);
+        catch (Throwable e) {
+            complete(detector, stats, start, e);
+            throw e;
+        }
+        complete(detector, stats, start, resp.err);
         if (resp.err == null)
             return resp.returnValue;
         throw resp.err;
     }
+
+    /**
+     * 只有通信层面的异常(连接失败,超时,服务器繁忙等)才算服务器失败, 业务方法抛出的异常(包括服务端转发回来的RpcException)不算
+     */
+    protected void complete(OutlierDetector detector, ServerStats stats, long start, Throwable err) {
+        if ((err instanceof CompletionException || err instanceof ExecutionException) && err.getCause() != null)
+            err = err.getCause();
+        if (err instanceof IOException || err instanceof TimeoutException || err instanceof RpcTransportException)
+            detector.onFailure(stats, System.nanoTime() - start);
+        else
+            detector.onSuccess(stats, System.nanoTime() - start);
+    }
+
+    protected Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "equals":
+            return proxy == args[0];
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        default:
+            return "LiteRpcProxy(" + klass.getName() + ")";
+        }
+    }
 }
@@ -0,0 +1,173 @@
+package org.nutz.boot.starter.literpc.impl.serializer;
+
+import java.io.Externalizable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BinaryRpcSerializer使用的类结构缓存, 每个类只反射一次
+ *
+ * @author wendal
+ *
+ */
+public class BinaryClassSchema {
+
+    public static final int K_OBJECT = 0;
+    public static final int K_BOOLEAN = 1;
+    public static final int K_BYTE = 2;
+    public static final int K_SHORT = 3;
+    public static final int K_CHAR = 4;
+    public static final int K_INT = 5;
+    public static final int K_LONG = 6;
+    public static final int K_FLOAT = 7;
+    public static final int K_DOUBLE = 8;
+
+    protected static final Map<Class<?>, BinaryClassSchema> schemas = new ConcurrentHashMap<>();
+
+    public final Class<?> klass;
+
+    public final String className;
+
+    /**
+     * 字段列表, 父类的字段在前, 同一个类内按名称排序, 保证两端顺序一致
+     */
+    public final Field[] fields;
+
+    /**
+     * 与fields一一对应的字段类型, 原生类型直接读写, 不装箱
+     */
+    public final int[] kinds;
+
+    /**
+     * 字段名称及类型的摘要, 两端类结构不一致的时候能直接报错,而不是读出一堆垃圾
+     */
+    public final int hash;
+
+    public final Constructor<?> constructor;
+
+    /**
+     * 无法按字段读写的类(没有无参构造方法,自定义了序列化逻辑,JDK自带的类等等),交给JDK序列化
+     */
+    public final boolean jdkFallback;
+
+    public static BinaryClassSchema get(Class<?> klass) {
+        BinaryClassSchema schema = schemas.get(klass);
+        if (schema == null) {
+            schema = new BinaryClassSchema(klass);
+            schemas.put(klass, schema);
+        }
+        return schema;
+    }
+
+    protected BinaryClassSchema(Class<?> klass) {
+        this.klass = klass;
+        this.className = klass.getName();
+        Constructor<?> constructor = null;
+        boolean fallback = isJdkClass(klass) || Throwable.class.isAssignableFrom(klass) || Externalizable.class.isAssignableFrom(klass) || hasCustomSerialization(klass);
+        List<Field> list = null;
+        if (!fallback) {
+            // JDK16+对其他模块的类会抛InaccessibleObjectException, 一律退回JDK序列化
+            try {
+                constructor = klass.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                list = accessibleFields(klass);
+            }
+            catch (Throwable e) {
+                constructor = null;
+                fallback = true;
+            }
+        }
+        this.constructor = constructor;
+        this.jdkFallback = fallback;
+        if (fallback) {
+            fields = new Field[0];
+            kinds = new int[0];
+            hash = 0;
+            return;
+        }
+        fields = list.toArray(new Field[list.size()]);
+        kinds = new int[fields.length];
+        int h = className.hashCode();
+        for (int i = 0; i < fields.length; i++) {
+            kinds[i] = kindOf(fields[i].getType());
+            h = 31 * h + fields[i].getName().hashCode();
+            h = 31 * h + fields[i].getType().getName().hashCode();
+        }
+        hash = h;
+    }
+
+    protected static List<Field> accessibleFields(Class<?> klass) {
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> t = klass; t != null && t != Object.class; t = t.getSuperclass())
+            hierarchy.add(t);
+        Collections.reverse(hierarchy);
+        List<Field> list = new ArrayList<>();
+        for (Class<?> t : hierarchy) {
+            List<Field> tmp = new ArrayList<>();
+            for (Field field : t.getDeclaredFields()) {
+                int mod = field.getModifiers();
+                if (Modifier.isStatic(mod) || Modifier.isTransient(mod))
+                    continue;
+                field.setAccessible(true);
+                tmp.add(field);
+            }
+            tmp.sort((a, b) -> a.getName().compareTo(b.getName()));
+            list.addAll(tmp);
+        }
+        return list;
+    }
+
+    /**
+     * JDK自带的类(由启动类加载器加载, 或者java./javax./jdk./sun.开头), 内部结构随版本变化且可能无法反射访问
+     */
+    protected static boolean isJdkClass(Class<?> klass) {
+        if (klass.getClassLoader() == null)
+            return true;
+        String name = klass.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.") || name.startsWith("sun.");
+    }
+
+    protected static boolean hasCustomSerialization(Class<?> klass) {
+        for (Class<?> t = klass; t != null && t != Object.class; t = t.getSuperclass()) {
+            for (Method method : t.getDeclaredMethods()) {
+                switch (method.getName()) {
+                case "writeObject":
+                case "readObject":
+                case "writeReplace":
+                case "readResolve":
+                    return true;
+                default:
+                    break;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static int kindOf(Class<?> type) {
+        if (!type.isPrimitive())
+            return K_OBJECT;
+        if (type == int.class)
+            return K_INT;
+        if (type == long.class)
+            return K_LONG;
+        if (type == boolean.class)
+            return K_BOOLEAN;
+        if (type == double.class)
+            return K_DOUBLE;
+        if (type == float.class)
+            return K_FLOAT;
+        if (type == short.class)
+            return K_SHORT;
+        if (type == char.class)
+            return K_CHAR;
+        return K_BYTE;
+    }
+}
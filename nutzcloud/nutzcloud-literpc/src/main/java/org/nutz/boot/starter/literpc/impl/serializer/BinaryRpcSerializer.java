@@ -0,0 +1,835 @@
+package org.nutz.boot.starter.literpc.impl.serializer;
+
+import static org.nutz.boot.starter.literpc.impl.serializer.BinaryClassSchema.K_BOOLEAN;
+import static org.nutz.boot.starter.literpc.impl.serializer.BinaryClassSchema.K_BYTE;
+import static org.nutz.boot.starter.literpc.impl.serializer.BinaryClassSchema.K_CHAR;
+import static org.nutz.boot.starter.literpc.impl.serializer.BinaryClassSchema.K_DOUBLE;
+import static org.nutz.boot.starter.literpc.impl.serializer.BinaryClassSchema.K_FLOAT;
+import static org.nutz.boot.starter.literpc.impl.serializer.BinaryClassSchema.K_INT;
+import static org.nutz.boot.starter.literpc.impl.serializer.BinaryClassSchema.K_LONG;
+import static org.nutz.boot.starter.literpc.impl.serializer.BinaryClassSchema.K_SHORT;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.nutz.boot.starter.literpc.RpcException;
+import org.nutz.boot.starter.literpc.api.RpcSerializer;
+import org.nutz.ioc.loader.annotation.IocBean;
+import org.nutz.lang.util.NutMap;
+
+/**
+ * 紧凑的二进制序列化器, 名称为binary.
+ * <p/>
+ * 与jdk序列化器相比:
+ * <li>每个类的字段布局只反射一次并缓存, 类描述在一次调用内只写一次,之后用序号引用</li>
+ * <li>原生类型字段和原生类型数组直接读写, 不装箱, 整数使用变长编码</li>
+ * <li>读写缓冲区按线程复用</li>
+ * <p/>
+ * 没有无参构造方法,或者自定义了writeObject/readObject等方法的类(例如各种异常),会退回到JDK序列化.
+ * 两端的类结构必须一致, 否则抛出RpcException. 与JDK序列化一样, 按字段读写的类必须实现Serializable.
+ *
+ * @author wendal
+ *
+ */
+@IocBean
+public class BinaryRpcSerializer implements RpcSerializer {
+
+    protected static final int T_NULL = 0;
+    protected static final int T_TRUE = 1;
+    protected static final int T_FALSE = 2;
+    protected static final int T_BYTE = 3;
+    protected static final int T_SHORT = 4;
+    protected static final int T_CHAR = 5;
+    protected static final int T_INT = 6;
+    protected static final int T_LONG = 7;
+    protected static final int T_FLOAT = 8;
+    protected static final int T_DOUBLE = 9;
+    protected static final int T_STRING = 10;
+    protected static final int T_DATE = 11;
+    protected static final int T_ENUM = 12;
+    protected static final int T_BYTES = 13;
+    protected static final int T_PRIMITIVE_ARRAY = 14;
+    protected static final int T_OBJECT_ARRAY = 15;
+    protected static final int T_COLLECTION = 16;
+    protected static final int T_MAP = 17;
+    protected static final int T_OBJECT = 18;
+    protected static final int T_REF = 19;
+    protected static final int T_JDK = 20;
+
+    /**
+     * 按原样重建的集合类, 其他集合类(不可变集合,带Comparator的TreeMap等)交给JDK序列化
+     */
+    protected static final Map<Class<?>, Integer> COLLECTION_TYPES = new HashMap<>();
+    static {
+        COLLECTION_TYPES.put(ArrayList.class, 1);
+        COLLECTION_TYPES.put(LinkedList.class, 2);
+        COLLECTION_TYPES.put(HashSet.class, 3);
+        COLLECTION_TYPES.put(LinkedHashSet.class, 4);
+        COLLECTION_TYPES.put(HashMap.class, 5);
+        COLLECTION_TYPES.put(LinkedHashMap.class, 6);
+        COLLECTION_TYPES.put(NutMap.class, 7);
+    }
+
+    protected static final ThreadLocal<Context> contexts = new ThreadLocal<>();
+
+    protected Map<String, Class<?>> classCache = new ConcurrentHashMap<>();
+
+    public void write(Object obj, OutputStream out) throws Exception {
+        Context ctx = borrow();
+        try {
+            ctx.buf.pos = 0;
+            writeObject(ctx, obj);
+            // 先写总长度, 读取方就不需要依赖流的结尾
+            Buffer head = ctx.head;
+            head.pos = 0;
+            head.writeVarInt(ctx.buf.pos);
+            out.write(head.data, 0, head.pos);
+            out.write(ctx.buf.data, 0, ctx.buf.pos);
+            out.flush();
+        }
+        finally {
+            release(ctx);
+        }
+    }
+
+    public Object read(InputStream ins) throws Exception {
+        Context ctx = borrow();
+        try {
+            Buffer buf = ctx.buf;
+            int len = readVarInt(ins);
+            if (len < 0)
+                throw new RpcException("bad binary length " + len);
+            int offset = 0;
+            while (offset < len) {
+                // 长度来自对端, 按实际读到的数据逐步扩容, 而不是一次分配声明的长度
+                buf.pos = offset;
+                buf.ensure(Math.min(len - offset, 64 * 1024));
+                int n = ins.read(buf.data, offset, Math.min(len - offset, buf.data.length - offset));
+                if (n < 0)
+                    throw new EOFException();
+                offset += n;
+            }
+            buf.pos = 0;
+            buf.limit = len;
+            return readObject(ctx);
+        }
+        finally {
+            release(ctx);
+        }
+    }
+
+    public String getName() {
+        return "binary";
+    }
+
+    // ------------------------------------------------------------------
+    // 写
+
+    protected void writeObject(Context ctx, Object obj) throws Exception {
+        Buffer buf = ctx.buf;
+        if (obj == null) {
+            buf.writeByte(T_NULL);
+            return;
+        }
+        Class<?> klass = obj.getClass();
+        if (klass == String.class) {
+            buf.writeByte(T_STRING);
+            buf.writeString((String) obj);
+        } else if (klass == Integer.class) {
+            buf.writeByte(T_INT);
+            buf.writeVarInt(zigzag((Integer) obj));
+        } else if (klass == Long.class) {
+            buf.writeByte(T_LONG);
+            buf.writeVarLong(zigzag((Long) obj));
+        } else if (klass == Boolean.class) {
+            buf.writeByte(((Boolean) obj) ? T_TRUE : T_FALSE);
+        } else if (klass == Double.class) {
+            buf.writeByte(T_DOUBLE);
+            buf.writeLong(Double.doubleToRawLongBits((Double) obj));
+        } else if (klass == Float.class) {
+            buf.writeByte(T_FLOAT);
+            buf.writeInt(Float.floatToRawIntBits((Float) obj));
+        } else if (klass == Short.class) {
+            buf.writeByte(T_SHORT);
+            buf.writeVarInt(zigzag((Short) obj));
+        } else if (klass == Byte.class) {
+            buf.writeByte(T_BYTE);
+            buf.writeByte((Byte) obj);
+        } else if (klass == Character.class) {
+            buf.writeByte(T_CHAR);
+            buf.writeVarInt((Character) obj);
+        } else if (klass == Date.class) {
+            buf.writeByte(T_DATE);
+            buf.writeVarLong(zigzag(((Date) obj).getTime()));
+        } else if (klass == byte[].class) {
+            byte[] bytes = (byte[]) obj;
+            buf.writeByte(T_BYTES);
+            buf.writeVarInt(bytes.length);
+            buf.writeBytes(bytes, 0, bytes.length);
+        } else if (obj instanceof Enum) {
+            buf.writeByte(T_ENUM);
+            writeClass(ctx, ((Enum<?>) obj).getDeclaringClass());
+            buf.writeString(((Enum<?>) obj).name());
+        } else if (klass.isArray()) {
+            if (writeRef(ctx, obj))
+                return;
+            Class<?> componentType = klass.getComponentType();
+            if (componentType.isPrimitive()) {
+                buf.writeByte(T_PRIMITIVE_ARRAY);
+                writePrimitiveArray(buf, obj, BinaryClassSchema.kindOf(componentType));
+            } else {
+                Object[] arr = (Object[]) obj;
+                buf.writeByte(T_OBJECT_ARRAY);
+                writeClass(ctx, componentType);
+                buf.writeVarInt(arr.length);
+                for (Object e : arr)
+                    writeObject(ctx, e);
+            }
+        } else if (COLLECTION_TYPES.containsKey(klass)) {
+            if (writeRef(ctx, obj))
+                return;
+            int type = COLLECTION_TYPES.get(klass);
+            if (obj instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) obj;
+                buf.writeByte(T_MAP);
+                buf.writeByte(type);
+                buf.writeVarInt(map.size());
+                for (Map.Entry<?, ?> en : map.entrySet()) {
+                    writeObject(ctx, en.getKey());
+                    writeObject(ctx, en.getValue());
+                }
+            } else {
+                Collection<?> coll = (Collection<?>) obj;
+                buf.writeByte(T_COLLECTION);
+                buf.writeByte(type);
+                buf.writeVarInt(coll.size());
+                for (Object e : coll)
+                    writeObject(ctx, e);
+            }
+        } else {
+            BinaryClassSchema schema = BinaryClassSchema.get(klass);
+            if (schema.jdkFallback) {
+                writeJdk(buf, obj);
+                return;
+            }
+            if (!(obj instanceof Serializable))
+                throw new RpcException("class not Serializable : " + klass.getName());
+            if (writeRef(ctx, obj))
+                return;
+            buf.writeByte(T_OBJECT);
+            writeClass(ctx, klass);
+            Field[] fields = schema.fields;
+            int[] kinds = schema.kinds;
+            for (int i = 0; i < fields.length; i++) {
+                Field field = fields[i];
+                switch (kinds[i]) {
+                case K_INT:
+                    buf.writeVarInt(zigzag(field.getInt(obj)));
+                    break;
+                case K_LONG:
+                    buf.writeVarLong(zigzag(field.getLong(obj)));
+                    break;
+                case K_BOOLEAN:
+                    buf.writeByte(field.getBoolean(obj) ? 1 : 0);
+                    break;
+                case K_DOUBLE:
+                    buf.writeLong(Double.doubleToRawLongBits(field.getDouble(obj)));
+                    break;
+                case K_FLOAT:
+                    buf.writeInt(Float.floatToRawIntBits(field.getFloat(obj)));
+                    break;
+                case K_SHORT:
+                    buf.writeVarInt(zigzag(field.getShort(obj)));
+                    break;
+                case K_CHAR:
+                    buf.writeVarInt(field.getChar(obj));
+                    break;
+                case K_BYTE:
+                    buf.writeByte(field.getByte(obj));
+                    break;
+                default:
+                    writeObject(ctx, field.get(obj));
+                }
+            }
+        }
+    }
+
+    /**
+     * 如果对象已经写过, 写入引用并返回true. 否则登记该对象, 保证循环引用和共享引用能还原
+     */
+    protected boolean writeRef(Context ctx, Object obj) {
+        Integer index = ctx.refs.get(obj);
+        if (index != null) {
+            ctx.buf.writeByte(T_REF);
+            ctx.buf.writeVarInt(index);
+            return true;
+        }
+        ctx.refs.put(obj, ctx.refCount++);
+        return false;
+    }
+
+    protected void writeClass(Context ctx, Class<?> klass) {
+        Buffer buf = ctx.buf;
+        Integer index = ctx.classes.get(klass);
+        if (index != null) {
+            buf.writeVarInt(index + 1);
+            return;
+        }
+        ctx.classes.put(klass, ctx.classes.size());
+        buf.writeVarInt(0);
+        buf.writeString(klass.getName());
+        if (!klass.isArray() && !klass.isEnum() && !klass.isInterface()) {
+            buf.writeInt(BinaryClassSchema.get(klass).hash);
+        }
+    }
+
+    protected void writePrimitiveArray(Buffer buf, Object obj, int kind) {
+        buf.writeByte(kind);
+        switch (kind) {
+        case K_INT: {
+            int[] arr = (int[]) obj;
+            buf.writeVarInt(arr.length);
+            for (int e : arr)
+                buf.writeVarInt(zigzag(e));
+            break;
+        }
+        case K_LONG: {
+            long[] arr = (long[]) obj;
+            buf.writeVarInt(arr.length);
+            for (long e : arr)
+                buf.writeVarLong(zigzag(e));
+            break;
+        }
+        case K_DOUBLE: {
+            double[] arr = (double[]) obj;
+            buf.writeVarInt(arr.length);
+            for (double e : arr)
+                buf.writeLong(Double.doubleToRawLongBits(e));
+            break;
+        }
+        case K_FLOAT: {
+            float[] arr = (float[]) obj;
+            buf.writeVarInt(arr.length);
+            for (float e : arr)
+                buf.writeInt(Float.floatToRawIntBits(e));
+            break;
+        }
+        case K_BOOLEAN: {
+            boolean[] arr = (boolean[]) obj;
+            buf.writeVarInt(arr.length);
+            for (boolean e : arr)
+                buf.writeByte(e ? 1 : 0);
+            break;
+        }
+        case K_SHORT: {
+            short[] arr = (short[]) obj;
+            buf.writeVarInt(arr.length);
+            for (short e : arr)
+                buf.writeVarInt(zigzag(e));
+            break;
+        }
+        case K_CHAR: {
+            char[] arr = (char[]) obj;
+            buf.writeVarInt(arr.length);
+            for (char e : arr)
+                buf.writeVarInt(e);
+            break;
+        }
+        default:
+            // byte[]已经在前面单独处理
+            throw new RpcException("unexpect primitive array " + obj.getClass());
+        }
+    }
+
+    protected void writeJdk(Buffer buf, Object obj) throws IOException {
+        ByteArrayOutputStream bao = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bao);
+        oos.writeObject(obj);
+        oos.flush();
+        buf.writeByte(T_JDK);
+        buf.writeVarInt(bao.size());
+        buf.writeBytes(bao.toByteArray(), 0, bao.size());
+    }
+
+    // ------------------------------------------------------------------
+    // 读
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected Object readObject(Context ctx) throws Exception {
+        Buffer buf = ctx.buf;
+        int tag = buf.readByte();
+        switch (tag) {
+        case T_NULL:
+            return null;
+        case T_TRUE:
+            return Boolean.TRUE;
+        case T_FALSE:
+            return Boolean.FALSE;
+        case T_BYTE:
+            return (byte) buf.readByte();
+        case T_SHORT:
+            return (short) unzigzag(buf.readVarInt());
+        case T_CHAR:
+            return (char) buf.readVarInt();
+        case T_INT:
+            return unzigzag(buf.readVarInt());
+        case T_LONG:
+            return unzigzag(buf.readVarLong());
+        case T_FLOAT:
+            return Float.intBitsToFloat(buf.readInt());
+        case T_DOUBLE:
+            return Double.longBitsToDouble(buf.readLong());
+        case T_STRING:
+            return buf.readString();
+        case T_DATE:
+            return new Date(unzigzag(buf.readVarLong()));
+        case T_BYTES: {
+            byte[] bytes = new byte[buf.readLength()];
+            buf.readBytes(bytes);
+            return bytes;
+        }
+        case T_ENUM: {
+            Class klass = readClass(ctx);
+            return Enum.valueOf(klass, buf.readString());
+        }
+        case T_REF:
+            return ctx.readRefs.get(buf.readVarInt());
+        case T_PRIMITIVE_ARRAY: {
+            Object arr = readPrimitiveArray(buf);
+            ctx.readRefs.add(arr);
+            return arr;
+        }
+        case T_OBJECT_ARRAY: {
+            Class<?> componentType = readClass(ctx);
+            Object[] arr = (Object[]) Array.newInstance(componentType, buf.readLength());
+            ctx.readRefs.add(arr);
+            for (int i = 0; i < arr.length; i++)
+                arr[i] = readObject(ctx);
+            return arr;
+        }
+        case T_COLLECTION: {
+            int type = buf.readByte();
+            int size = buf.readLength();
+            Collection coll;
+            switch (type) {
+            case 1:
+                coll = new ArrayList<>(size);
+                break;
+            case 2:
+                coll = new LinkedList<>();
+                break;
+            case 3:
+                coll = new HashSet<>(size * 4 / 3 + 1);
+                break;
+            default:
+                coll = new LinkedHashSet<>(size * 4 / 3 + 1);
+                break;
+            }
+            ctx.readRefs.add(coll);
+            for (int i = 0; i < size; i++)
+                coll.add(readObject(ctx));
+            return coll;
+        }
+        case T_MAP: {
+            int type = buf.readByte();
+            int size = buf.readLength();
+            Map map;
+            switch (type) {
+            case 5:
+                map = new HashMap<>(size * 4 / 3 + 1);
+                break;
+            case 7:
+                map = new NutMap();
+                break;
+            default:
+                map = new LinkedHashMap<>(size * 4 / 3 + 1);
+                break;
+            }
+            ctx.readRefs.add(map);
+            for (int i = 0; i < size; i++)
+                map.put(readObject(ctx), readObject(ctx));
+            return map;
+        }
+        case T_OBJECT: {
+            Class<?> klass = readClass(ctx);
+            // 类名来自对端, 只实例化声明了可序列化的类, 不能借此创建任意类的对象
+            if (!Serializable.class.isAssignableFrom(klass))
+                throw new RpcException("class not Serializable : " + klass.getName());
+            BinaryClassSchema schema = BinaryClassSchema.get(klass);
+            if (schema.jdkFallback)
+                throw new RpcException("class not readable by fields : " + klass.getName());
+            Object obj = schema.constructor.newInstance();
+            ctx.readRefs.add(obj);
+            Field[] fields = schema.fields;
+            int[] kinds = schema.kinds;
+            for (int i = 0; i < fields.length; i++) {
+                Field field = fields[i];
+                switch (kinds[i]) {
+                case K_INT:
+                    field.setInt(obj, unzigzag(buf.readVarInt()));
+                    break;
+                case K_LONG:
+                    field.setLong(obj, unzigzag(buf.readVarLong()));
+                    break;
+                case K_BOOLEAN:
+                    field.setBoolean(obj, buf.readByte() != 0);
+                    break;
+                case K_DOUBLE:
+                    field.setDouble(obj, Double.longBitsToDouble(buf.readLong()));
+                    break;
+                case K_FLOAT:
+                    field.setFloat(obj, Float.intBitsToFloat(buf.readInt()));
+                    break;
+                case K_SHORT:
+                    field.setShort(obj, (short) unzigzag(buf.readVarInt()));
+                    break;
+                case K_CHAR:
+                    field.setChar(obj, (char) buf.readVarInt());
+                    break;
+                case K_BYTE:
+                    field.setByte(obj, (byte) buf.readByte());
+                    break;
+                default:
+                    field.set(obj, readObject(ctx));
+                }
+            }
+            return obj;
+        }
+        case T_JDK: {
+            int len = buf.readLength();
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(buf.data, buf.pos, len));
+            buf.pos += len;
+            return ois.readObject();
+        }
+        default:
+            throw new RpcException("bad binary tag=" + tag);
+        }
+    }
+
+    protected Class<?> readClass(Context ctx) throws ClassNotFoundException {
+        Buffer buf = ctx.buf;
+        int index = buf.readVarInt();
+        if (index > 0)
+            return ctx.readClasses.get(index - 1);
+        String className = buf.readString();
+        Class<?> klass = classCache.get(className);
+        if (klass == null) {
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            if (classLoader == null)
+                classLoader = getClass().getClassLoader();
+            klass = Class.forName(className, false, classLoader);
+            classCache.put(className, klass);
+        }
+        if (!klass.isArray() && !klass.isEnum() && !klass.isInterface()) {
+            int hash = buf.readInt();
+            if (hash != BinaryClassSchema.get(klass).hash)
+                throw new RpcException("class schema mismatch : " + className);
+        }
+        ctx.readClasses.add(klass);
+        return klass;
+    }
+
+    protected Object readPrimitiveArray(Buffer buf) {
+        int kind = buf.readByte();
+        int len = buf.readLength();
+        switch (kind) {
+        case K_INT: {
+            int[] arr = new int[len];
+            for (int i = 0; i < len; i++)
+                arr[i] = unzigzag(buf.readVarInt());
+            return arr;
+        }
+        case K_LONG: {
+            long[] arr = new long[len];
+            for (int i = 0; i < len; i++)
+                arr[i] = unzigzag(buf.readVarLong());
+            return arr;
+        }
+        case K_DOUBLE: {
+            double[] arr = new double[len];
+            for (int i = 0; i < len; i++)
+                arr[i] = Double.longBitsToDouble(buf.readLong());
+            return arr;
+        }
+        case K_FLOAT: {
+            float[] arr = new float[len];
+            for (int i = 0; i < len; i++)
+                arr[i] = Float.intBitsToFloat(buf.readInt());
+            return arr;
+        }
+        case K_BOOLEAN: {
+            boolean[] arr = new boolean[len];
+            for (int i = 0; i < len; i++)
+                arr[i] = buf.readByte() != 0;
+            return arr;
+        }
+        case K_SHORT: {
+            short[] arr = new short[len];
+            for (int i = 0; i < len; i++)
+                arr[i] = (short) unzigzag(buf.readVarInt());
+            return arr;
+        }
+        case K_CHAR: {
+            char[] arr = new char[len];
+            for (int i = 0; i < len; i++)
+                arr[i] = (char) buf.readVarInt();
+            return arr;
+        }
+        default:
+            throw new RpcException("bad primitive array kind=" + kind);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // 工具方法
+
+    protected static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    protected static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    protected static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    protected static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    protected static int readVarInt(InputStream ins) throws IOException {
+        int re = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = ins.read();
+            if (b < 0)
+                throw new EOFException();
+            re |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return re;
+        }
+        throw new RpcException("bad varint");
+    }
+
+    protected static Context borrow() {
+        Context ctx = contexts.get();
+        if (ctx == null) {
+            ctx = new Context();
+            contexts.set(ctx);
+        }
+        if (ctx.busy) {
+            // 重入的情况,例如序列化过程中又触发了一次RPC, 临时建一个
+            ctx = new Context();
+        }
+        ctx.busy = true;
+        return ctx;
+    }
+
+    protected static void release(Context ctx) {
+        ctx.busy = false;
+        ctx.refs.clear();
+        ctx.refCount = 0;
+        ctx.classes.clear();
+        ctx.readRefs.clear();
+        ctx.readClasses.clear();
+        // 偶尔的大对象不应该让线程一直持有大缓冲区
+        if (ctx.buf.data.length > 1024 * 1024)
+            ctx.buf.data = new byte[8192];
+    }
+
+    /**
+     * 每个线程复用的读写上下文
+     */
+    protected static class Context {
+        protected Buffer buf = new Buffer(8192);
+        protected Buffer head = new Buffer(8);
+        protected boolean busy;
+        protected IdentityHashMap<Object, Integer> refs = new IdentityHashMap<>();
+        protected int refCount;
+        protected Map<Class<?>, Integer> classes = new HashMap<>();
+        protected List<Object> readRefs = new ArrayList<>();
+        protected List<Class<?>> readClasses = new ArrayList<>();
+    }
+
+    /**
+     * 可增长的字节缓冲区, 比ByteArrayOutputStream/DataOutputStream少了同步和边界检查的开销
+     */
+    protected static class Buffer {
+        protected byte[] data;
+        protected int pos;
+        protected int limit;
+
+        public Buffer(int size) {
+            data = new byte[size];
+        }
+
+        public void ensure(int len) {
+            if (pos + len > data.length) {
+                byte[] tmp = new byte[Math.max(data.length * 2, pos + len)];
+                System.arraycopy(data, 0, tmp, 0, pos);
+                data = tmp;
+            }
+        }
+
+        public void writeByte(int b) {
+            ensure(1);
+            data[pos++] = (byte) b;
+        }
+
+        public void writeBytes(byte[] bytes, int offset, int len) {
+            ensure(len);
+            System.arraycopy(bytes, offset, data, pos, len);
+            pos += len;
+        }
+
+        public void writeVarInt(int n) {
+            ensure(5);
+            while ((n & ~0x7F) != 0) {
+                data[pos++] = (byte) ((n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            data[pos++] = (byte) n;
+        }
+
+        public void writeVarLong(long n) {
+            ensure(10);
+            while ((n & ~0x7FL) != 0) {
+                data[pos++] = (byte) ((n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            data[pos++] = (byte) n;
+        }
+
+        public void writeInt(int n) {
+            ensure(4);
+            data[pos++] = (byte) (n >>> 24);
+            data[pos++] = (byte) (n >>> 16);
+            data[pos++] = (byte) (n >>> 8);
+            data[pos++] = (byte) n;
+        }
+
+        public void writeLong(long n) {
+            writeInt((int) (n >>> 32));
+            writeInt((int) n);
+        }
+
+        /**
+         * 字符数 + 每个字符1~3字节的UTF-8编码, 不经过中间的byte[]
+         */
+        public void writeString(String str) {
+            int len = str.length();
+            writeVarInt(len);
+            ensure(len * 3);
+            for (int i = 0; i < len; i++) {
+                char c = str.charAt(i);
+                if (c < 0x80) {
+                    data[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    data[pos++] = (byte) (0xC0 | (c >> 6));
+                    data[pos++] = (byte) (0x80 | (c & 0x3F));
+                } else {
+                    data[pos++] = (byte) (0xE0 | (c >> 12));
+                    data[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    data[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        protected void check(int len) {
+            if (pos + len > limit)
+                throw new RpcException("binary data underflow");
+        }
+
+        public int readByte() {
+            check(1);
+            return data[pos++] & 0xFF;
+        }
+
+        public void readBytes(byte[] bytes) {
+            check(bytes.length);
+            System.arraycopy(data, pos, bytes, 0, bytes.length);
+            pos += bytes.length;
+        }
+
+        /**
+         * 读取数组/集合/字符串的长度. 每个元素至少占1字节, 超过剩余字节数的长度必然是错误数据, 不能据此分配内存
+         */
+        public int readLength() {
+            int len = readVarInt();
+            if (len < 0 || len > limit - pos)
+                throw new RpcException("bad binary length " + len);
+            return len;
+        }
+
+        public int readVarInt() {
+            int re = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                re |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return re;
+            }
+            throw new RpcException("bad varint");
+        }
+
+        public long readVarLong() {
+            long re = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                long b = readByte();
+                re |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return re;
+            }
+            throw new RpcException("bad varlong");
+        }
+
+        public int readInt() {
+            check(4);
+            return ((data[pos++] & 0xFF) << 24) | ((data[pos++] & 0xFF) << 16) | ((data[pos++] & 0xFF) << 8) | (data[pos++] & 0xFF);
+        }
+
+        public long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        public String readString() {
+            int len = readLength();
+            char[] cs = new char[len];
+            for (int i = 0; i < len; i++) {
+                int b = readByte();
+                if (b < 0x80) {
+                    cs[i] = (char) b;
+                } else if ((b & 0xE0) == 0xC0) {
+                    cs[i] = (char) (((b & 0x1F) << 6) | (readByte() & 0x3F));
+                } else {
+                    int b2 = readByte();
+                    int b3 = readByte();
+                    cs[i] = (char) (((b & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F));
+                }
+            }
+            return new String(cs);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package org.nutz.boot.starter.literpc.impl.serializer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.nutz.boot.starter.literpc.RpcException;
+import org.nutz.lang.util.NutMap;
+
+public class BinaryRpcSerializerTest {
+
+    protected BinaryRpcSerializer serializer = new BinaryRpcSerializer();
+
+    @Test
+    public void test_primitives() throws Exception {
+        assertEquals(Integer.MIN_VALUE, roundTrip(Integer.MIN_VALUE));
+        assertEquals(-1L, roundTrip(-1L));
+        assertEquals(Long.MAX_VALUE, roundTrip(Long.MAX_VALUE));
+        assertEquals((short) -300, roundTrip((short) -300));
+        assertEquals((byte) 0x7F, roundTrip((byte) 0x7F));
+        assertEquals('中', roundTrip('中'));
+        assertEquals(Boolean.TRUE, roundTrip(true));
+        assertEquals(Boolean.FALSE, roundTrip(false));
+        assertEquals(3.5f, roundTrip(3.5f));
+        assertEquals(Double.NaN, roundTrip(Double.NaN));
+        assertEquals("nutz中文\u0000", roundTrip("nutz中文\u0000"));
+        assertEquals(new Date(123456789L), roundTrip(new Date(123456789L)));
+        assertEquals(TimeUnit.SECONDS, roundTrip(TimeUnit.SECONDS));
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) roundTrip(new byte[]{1, 2, 3}));
+    }
+
+    @Test
+    public void test_nulls() throws Exception {
+        assertNull(roundTrip(null));
+        List<Object> list = new ArrayList<>();
+        list.add(null);
+        list.add("abc");
+        assertEquals(list, roundTrip(list));
+        Pojo pojo = new Pojo();
+        Pojo re = (Pojo) roundTrip(pojo);
+        assertNull(re.name);
+        assertNull(re.tags);
+        assertNull(re.next);
+    }
+
+    @Test
+    public void test_arrays() throws Exception {
+        assertArrayEquals(new int[]{0, -1, Integer.MAX_VALUE}, (int[]) roundTrip(new int[]{0, -1, Integer.MAX_VALUE}));
+        assertArrayEquals(new long[]{0, Long.MIN_VALUE}, (long[]) roundTrip(new long[]{0, Long.MIN_VALUE}));
+        assertArrayEquals(new double[]{1.5, -0.0}, (double[]) roundTrip(new double[]{1.5, -0.0}), 0);
+        assertArrayEquals(new float[]{1.5f}, (float[]) roundTrip(new float[]{1.5f}), 0);
+        assertArrayEquals(new short[]{-2, 2}, (short[]) roundTrip(new short[]{-2, 2}));
+        assertArrayEquals(new char[]{'a', '中'}, (char[]) roundTrip(new char[]{'a', '中'}));
+        assertTrue(Arrays.equals(new boolean[]{true, false}, (boolean[]) roundTrip(new boolean[]{true, false})));
+        String[] strs = (String[]) roundTrip(new String[]{"a", null, "c"});
+        assertArrayEquals(new String[]{"a", null, "c"}, strs);
+        assertEquals(0, ((Object[]) roundTrip(new Object[0])).length);
+    }
+
+    @Test
+    public void test_collections() throws Exception {
+        NutMap map = new NutMap();
+        map.put("int", 1);
+        map.put("list", new ArrayList<>(Arrays.asList(1L, "2")));
+        map.put("set", new LinkedHashSet<>(Arrays.asList("x", "y")));
+        Object re = roundTrip(map);
+        assertEquals(NutMap.class, re.getClass());
+        assertEquals(map, re);
+        Map<Object, Object> hash = new HashMap<>();
+        hash.put(1, new int[]{1});
+        assertArrayEquals(new int[]{1}, (int[]) ((Map<?, ?>) roundTrip(hash)).get(1));
+    }
+
+    @Test
+    public void test_pojo() throws Exception {
+        Pojo pojo = new Pojo();
+        pojo.id = 42;
+        pojo.name = "wendal";
+        pojo.score = 99.5;
+        pojo.flag = true;
+        pojo.tags = new String[]{"a", "b"};
+        pojo.parentField = -7L;
+        Pojo re = (Pojo) roundTrip(pojo);
+        assertEquals(42, re.id);
+        assertEquals("wendal", re.name);
+        assertEquals(99.5, re.score, 0);
+        assertTrue(re.flag);
+        assertArrayEquals(new String[]{"a", "b"}, re.tags);
+        assertEquals(-7L, re.parentField);
+        assertNull(re.skip);
+    }
+
+    @Test
+    public void test_ref_cycles() throws Exception {
+        Pojo a = new Pojo();
+        Pojo b = new Pojo();
+        a.next = b;
+        b.next = a;
+        Pojo re = (Pojo) roundTrip(a);
+        assertSame(re, re.next.next);
+
+        // 共享引用还原后仍是同一个对象
+        int[] shared = new int[]{1, 2};
+        Object[] arr = (Object[]) roundTrip(new Object[]{shared, shared});
+        assertSame(arr[0], arr[1]);
+
+        List<Object> list = new ArrayList<>();
+        list.add(list);
+        List<?> relist = (List<?>) roundTrip(list);
+        assertSame(relist, relist.get(0));
+    }
+
+    @Test
+    public void test_jdk_fallback() throws Exception {
+        IllegalStateException e = (IllegalStateException) roundTrip(new IllegalStateException("bad state"));
+        assertEquals("bad state", e.getMessage());
+        NoDefaultConstructor re = (NoDefaultConstructor) roundTrip(new NoDefaultConstructor("abc"));
+        assertEquals("abc", re.value);
+        assertTrue(BinaryClassSchema.get(NoDefaultConstructor.class).jdkFallback);
+    }
+
+    @Test
+    public void test_schema_mismatch() throws Exception {
+        Pojo pojo = new Pojo();
+        byte[] buf = write(pojo);
+        int hash = BinaryClassSchema.get(Pojo.class).hash;
+        byte[] tmp = new byte[]{(byte) (hash >>> 24), (byte) (hash >>> 16), (byte) (hash >>> 8), (byte) hash};
+        int index = indexOf(buf, tmp);
+        assertTrue(index > 0);
+        buf[index] ^= 0x01;
+        try {
+            serializer.read(new ByteArrayInputStream(buf));
+            fail();
+        }
+        catch (RpcException e) {
+            assertTrue(e.getMessage().contains("schema mismatch"));
+        }
+    }
+
+    @Test
+    public void test_not_serializable() throws Exception {
+        try {
+            write(new NotSerializable());
+            fail();
+        }
+        catch (RpcException e) {
+            assertTrue(e.getMessage().contains("not Serializable"));
+        }
+    }
+
+    @Test
+    public void test_bad_length() throws Exception {
+        // T_BYTES声明了268435455字节, 实际只有几个字节
+        byte[] buf = new byte[]{5, 13, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F};
+        try {
+            serializer.read(new ByteArrayInputStream(buf));
+            fail();
+        }
+        catch (RpcException e) {
+            assertTrue(e.getMessage().contains("bad binary length"));
+        }
+    }
+
+    protected byte[] write(Object obj) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.write(obj, out);
+        return out.toByteArray();
+    }
+
+    protected Object roundTrip(Object obj) throws Exception {
+        return serializer.read(new ByteArrayInputStream(write(obj)));
+    }
+
+    protected static int indexOf(byte[] buf, byte[] target) {
+        for (int i = 0; i <= buf.length - target.length; i++) {
+            int j = 0;
+            while (j < target.length && buf[i + j] == target[j])
+                j++;
+            if (j == target.length)
+                return i;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("serial")
+    public static class Parent implements Serializable {
+        public long parentField;
+    }
+
+    @SuppressWarnings("serial")
+    public static class Pojo extends Parent {
+        public int id;
+        public String name;
+        public double score;
+        public boolean flag;
+        public String[] tags;
+        public Pojo next;
+        public transient String skip = null;
+    }
+
+    @SuppressWarnings("serial")
+    public static class NoDefaultConstructor implements Serializable {
+        public String value;
+
+        public NoDefaultConstructor(String value) {
+            this.value = value;
+        }
+    }
+
+    public static class NotSerializable {
+        public int id;
+    }
+}
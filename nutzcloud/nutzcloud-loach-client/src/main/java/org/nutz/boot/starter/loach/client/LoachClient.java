@@ -1,10 +1,14 @@
 package org.nutz.boot.starter.loach.client;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -98,8 +102,12 @@ public class LoachClient extends NutRunner {
         }
         if (conf.getBoolean("loach.updater.enable", true)) {
             updateServiceList();
+            watchEnable = conf.getBoolean("loach.client.watch.enable", true);
             updater = new NutRunner("loach.updater." + url) {
                 public long exec() throws Exception {
+                    // 长轮询成功的话马上发起下一轮, 服务器列表有变化时才会返回
+                    if (watchEnable && LoachClient.this.watchServiceList())
+                        return 1;
                     LoachClient.this.updateServiceList();
                     return conf.getInt("loach.client.updater.interval", 3000);
                 }
@@ -141,6 +149,13 @@ public class LoachClient extends NutRunner {
 
     protected boolean regOk;
 
+    protected boolean watchEnable;
+
+    /**
+     * 服务器列表的版本号, 由/watch返回, -1代表未知
+     */
+    protected long listVersion = -1;
+
     protected boolean _reg(String regData) {
         try {
             String regURL = url + "/reg";
@@ -262,6 +277,8 @@ public class LoachClient extends NutRunner {
             Response resp = Sender.create(req).setConnTimeout(1000).setTimeout(3000).send();
             if (resp.isOK()) {
                 serviceList = (Map<String, List<NutMap>>) Json.fromJson(NutMap.class, resp.getReader()).get("data");
+                // 列表不是通过watch得到的, 与listVersion对不上了, 下次watch需要取全量
+                listVersion = -1;
                 for (UpdateListener listener : listeners) {
                     listener.onUpdate(serviceList);
                 }
@@ -277,6 +294,82 @@ public class LoachClient extends NutRunner {
         }
     }
     
+    /**
+     * 长轮询服务器列表, 没有变化时服务器端会挂起请求直至超时
+     * 
+     * @return 服务器支持且请求成功时返回true
+     */
+    @SuppressWarnings("unchecked")
+    public boolean watchServiceList() {
+        try {
+            int timeout = conf.getInt("loach.client.watch.timeout", 30000);
+            String watchURL = url + "/watch?version=" + listVersion + "&timeout=" + timeout;
+            Request req = Request.create(watchURL, METHOD.GET);
+            req.getHeader().clear();
+            Response resp = Sender.create(req).setConnTimeout(1000).setTimeout(timeout + 5000).send();
+            if (resp.isOK()) {
+                NutMap re = Json.fromJson(NutMap.class, resp.getReader());
+                Map<String, List<NutMap>> services;
+                if (re.getBoolean("full", true)) {
+                    services = (Map<String, List<NutMap>>) re.get("data");
+                } else {
+                    services = applyDelta(serviceList, re.getAs("removed", NutMap.class), re.getAs("added", NutMap.class));
+                }
+                serviceList = services;
+                for (UpdateListener listener : listeners) {
+                    listener.onUpdate(serviceList);
+                }
+                listVersion = re.getLong("version", -1);
+                lastChecked = System.currentTimeMillis();
+                return true;
+            } else if (resp.getStatus() == 304) {
+                lastChecked = System.currentTimeMillis();
+                return true;
+            } else if (resp.getStatus() == 404) {
+                log.info("loach server not support watch, fallback to polling");
+                watchEnable = false;
+            }
+        }
+        catch (Throwable e) {
+            log.debugf("bad url? %s %s", url, e.getMessage());
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<String, List<NutMap>> applyDelta(Map<String, List<NutMap>> old, NutMap removed, NutMap added) {
+        Map<String, List<NutMap>> services = new HashMap<>();
+        if (old != null) {
+            for (Map.Entry<String, List<NutMap>> en : old.entrySet()) {
+                services.put(en.getKey(), new ArrayList<>(en.getValue()));
+            }
+        }
+        if (removed != null) {
+            for (Map.Entry<String, Object> en : removed.entrySet()) {
+                List<NutMap> infos = services.get(en.getKey());
+                if (infos != null) {
+                    Collection<Object> ids = (Collection<Object>) en.getValue();
+                    infos.removeIf((info) -> ids.contains(info.getString("id")));
+                }
+            }
+        }
+        if (added != null) {
+            for (Map.Entry<String, Object> en : added.entrySet()) {
+                List<NutMap> infos = services.computeIfAbsent(en.getKey(), (key) -> new ArrayList<>());
+                // 已存在的同id实例以新的为准, 避免重复
+                Collection<NutMap> tmp = (Collection<NutMap>) en.getValue();
+                Set<String> ids = new HashSet<>();
+                for (NutMap info : tmp)
+                    ids.add(info.getString("id"));
+                infos.removeIf((info) -> ids.contains(info.getString("id")));
+                infos.addAll(tmp);
+                infos.sort((a, b) -> a.getString("id", "").compareTo(b.getString("id", "")));
+            }
+        }
+        services.values().removeIf(List::isEmpty);
+        return services;
+    }
+
     public void addListener(UpdateListener listener) {
         if (this.listeners.contains(listener))
             return;
@@ -2,6 +2,7 @@ package org.nutz.boot.starter.loach.client;
 
 import org.nutz.boot.annotation.PropDoc;
 import org.nutz.boot.starter.ServerFace;
+import org.nutz.boot.starter.WebServerFace;
 import org.nutz.ioc.Ioc;
 import org.nutz.ioc.loader.annotation.Inject;
 import org.nutz.ioc.loader.annotation.IocBean;
@@ -27,6 +28,12 @@ public class LoachClientStarter implements ServerFace {
     @PropDoc(value = "'泥鳅'服务器的URL,可以多个,用分号隔开即可", defaultValue = "http://127.0.0.1:8610/loach/v1")
     public static final String PROP_URLS = "loach.client.urls";
 
+    @PropDoc(value = "是否使用长轮询(/watch)获取服务器列表的增量, 服务器不支持时自动退回定时拉取", defaultValue = "true")
+    public static final String PROP_WATCH_ENABLE = "loach.client.watch.enable";
+
+    @PropDoc(value = "长轮询的挂起时长，单位毫秒", defaultValue = "30000", type = "int")
+    public static final String PROP_WATCH_TIMEOUT = "loach.client.watch.timeout";
+
     @PropDoc(value = "调试模式", defaultValue = "false")
     public static final String PROP_DEBUG = "loach.client.debug";
 
@@ -34,6 +41,13 @@ public class LoachClientStarter implements ServerFace {
     @Inject("refer:$ioc")
     protected Ioc ioc;
 
+    /**
+     * 并发启动时, 等Web容器监听端口之后再注册服务
+     */
+    public Class<?>[] dependsOn() {
+        return new Class<?>[]{WebServerFace.class};
+    }
+
     public void start() throws Exception {
         ioc.get(LoachClient.class);
     }
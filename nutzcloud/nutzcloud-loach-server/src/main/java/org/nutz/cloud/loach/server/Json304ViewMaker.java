@@ -3,6 +3,7 @@ package org.nutz.cloud.loach.server;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.nutz.cloud.loach.server.service.LoachSnapshot;
 import org.nutz.ioc.Ioc;
 import org.nutz.ioc.loader.annotation.IocBean;
 import org.nutz.json.Json;
@@ -30,6 +31,20 @@ public class Json304ViewMaker implements ViewMaker, View {
     }
 
     public void render(HttpServletRequest req, HttpServletResponse resp, Object obj) throws Throwable {
+        if (obj instanceof LoachSnapshot) {
+            // 快照自带版本号作为ETag, 不需要再序列化和计算sha1
+            LoachSnapshot snapshot = (LoachSnapshot) obj;
+            if (snapshot.etag.equals(req.getHeader("If-None-Match"))) {
+                resp.setStatus(304);
+            }
+            else {
+                resp.setContentType("application/json; charset=utf-8");
+                resp.setContentLength(snapshot.body.length);
+                resp.setHeader("ETag", snapshot.etag);
+                resp.getOutputStream().write(snapshot.body);
+            }
+            return;
+        }
         String data = obj instanceof String ? obj.toString() : Json.toJson(obj, jf);
         String sha1 = Lang.sha1(data);
         byte[] re = data.getBytes();
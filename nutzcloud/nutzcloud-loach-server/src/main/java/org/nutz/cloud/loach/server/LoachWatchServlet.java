@@ -0,0 +1,166 @@
+package org.nutz.cloud.loach.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.nutz.boot.starter.WebServletFace;
+import org.nutz.cloud.loach.server.service.LoachRegistry;
+import org.nutz.cloud.loach.server.service.LoachSnapshot;
+import org.nutz.ioc.impl.PropertiesProxy;
+import org.nutz.ioc.loader.annotation.Inject;
+import org.nutz.ioc.loader.annotation.IocBean;
+import org.nutz.json.Json;
+import org.nutz.json.JsonFormat;
+import org.nutz.lang.util.NutMap;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+/**
+ * 长轮询入口 /loach/v1/watch?version=xxx <p/>
+ * 客户端带上已知的版本号, 版本号有变化立即返回增量(或全量), 否则挂起请求直到有变化或超时(304).
+ * 挂起的请求不占用线程.
+ * 
+ * @author wendal
+ *
+ */
+@IocBean
+@SuppressWarnings("serial")
+public class LoachWatchServlet extends HttpServlet implements WebServletFace, LoachRegistry.ChangeListener {
+
+    private static final Log log = Logs.get();
+
+    protected static JsonFormat jf = JsonFormat.compact();
+
+    @Inject
+    protected LoachRegistry loachRegistry;
+
+    @Inject
+    protected PropertiesProxy conf;
+
+    protected Map<AsyncContext, Long> waiters = new ConcurrentHashMap<>();
+
+    @Override
+    public void init() throws ServletException {
+        loachRegistry.addListener(this);
+    }
+
+    @Override
+    public void destroy() {
+        loachRegistry.removeListener(this);
+        for (AsyncContext ac : waiters.keySet()) {
+            if (waiters.remove(ac) != null)
+                ac.complete();
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        long version = -1;
+        long timeout = conf.getLong("loach.server.watch.timeout", 30000);
+        try {
+            if (req.getParameter("version") != null)
+                version = Long.parseLong(req.getParameter("version"));
+            if (req.getParameter("timeout") != null)
+                timeout = Math.min(Long.parseLong(req.getParameter("timeout")), conf.getLong("loach.server.watch.maxTimeout", 60000));
+        }
+        catch (NumberFormatException e) {
+            resp.sendError(400);
+            return;
+        }
+        LoachSnapshot snapshot = loachRegistry.getSnapshot();
+        if (snapshot.version != version) {
+            write(resp, version, snapshot);
+            return;
+        }
+        AsyncContext ac = req.startAsync();
+        ac.setTimeout(timeout);
+        ac.addListener(new AsyncListener() {
+            public void onTimeout(AsyncEvent event) throws IOException {
+                // 超时了还没有变化
+                if (waiters.remove(ac) != null) {
+                    ((HttpServletResponse) ac.getResponse()).setStatus(304);
+                    ac.complete();
+                }
+            }
+
+            public void onError(AsyncEvent event) throws IOException {
+                waiters.remove(ac);
+            }
+
+            public void onComplete(AsyncEvent event) throws IOException {
+                waiters.remove(ac);
+            }
+
+            public void onStartAsync(AsyncEvent event) throws IOException {}
+        });
+        waiters.put(ac, version);
+        // 挂起期间版本号可能已经变了
+        LoachSnapshot now = loachRegistry.getSnapshot();
+        if (now.version != version)
+            onChange(now);
+    }
+
+    public void onChange(LoachSnapshot snapshot) {
+        for (Map.Entry<AsyncContext, Long> en : waiters.entrySet()) {
+            long version = en.getValue();
+            if (version == snapshot.version)
+                continue;
+            AsyncContext ac = en.getKey();
+            if (waiters.remove(ac) == null)
+                continue;
+            ac.start(() -> {
+                try {
+                    write((HttpServletResponse) ac.getResponse(), version, snapshot);
+                }
+                catch (Throwable e) {
+                    log.debug("write watch response fail", e);
+                }
+                finally {
+                    ac.complete();
+                }
+            });
+        }
+    }
+
+    protected void write(HttpServletResponse resp, long version, LoachSnapshot snapshot) throws IOException {
+        NutMap re = new NutMap("ok", true).setv("version", snapshot.version);
+        NutMap diff = version < 0 ? null : loachRegistry.diff(version, snapshot);
+        if (diff == null) {
+            re.setv("full", true).setv("data", snapshot.services);
+        } else {
+            re.setv("full", false).putAll(diff);
+        }
+        byte[] body = Json.toJson(re, jf).getBytes(StandardCharsets.UTF_8);
+        resp.setContentType("application/json; charset=utf-8");
+        resp.setContentLength(body.length);
+        resp.getOutputStream().write(body);
+    }
+
+    public String getName() {
+        return "loachWatch";
+    }
+
+    public String getPathSpec() {
+        return "/loach/v1/watch";
+    }
+
+    public Servlet getServlet() {
+        return this;
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return true;
+    }
+}
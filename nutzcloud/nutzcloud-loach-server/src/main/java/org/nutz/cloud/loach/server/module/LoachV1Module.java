@@ -1,7 +1,7 @@
 package org.nutz.cloud.loach.server.module;
 
+import org.nutz.cloud.loach.server.service.LoachRegistry;
 import org.nutz.cloud.loach.server.util.SystemStatusUtil;
-import org.nutz.ioc.aop.Aop;
 import org.nutz.ioc.impl.PropertiesProxy;
 import org.nutz.ioc.loader.annotation.Inject;
 import org.nutz.ioc.loader.annotation.IocBean;
@@ -16,8 +16,6 @@ import org.nutz.mvc.annotation.*;
 
 import java.util.*;
 
-import static org.nutz.integration.jedis.RedisInterceptor.jedis;
-
 @IocBean
 @At("/loach/v1")
 @Ok("json304")
@@ -28,16 +26,17 @@ public class LoachV1Module {
     @Inject
     protected PropertiesProxy conf;
 
+    @Inject
+    protected LoachRegistry loachRegistry;
+
     /**
      * 供客户端心跳入口
      */
     @At({"/ping", "/ping/?/?"})
-    @Aop("redis")
     @GET
     public String ping(String serviceName, String id) {
         if (id != null && id.length() < 30) {
-            long re = jedis().expire("loach:service:" + serviceName + ":" + id, getPingTimeout() / 1000);
-            if (re == 0) {
+            if (!loachRegistry.ping(serviceName, id)) {
                 return "{ok:false}";
             }
         }
@@ -50,7 +49,6 @@ public class LoachV1Module {
     @AdaptBy(type = JsonAdaptor.class)
     @POST
     @At
-    @Aop("redis")
     public NutMap reg(NutMap params) {
         NutMap map = new NutMap();
         // 检查基本的信息
@@ -75,7 +73,7 @@ public class LoachV1Module {
         String id = params.getString("id");
         if (id == null)
             id = R.UU32();
-        jedis().setex("loach:service:" + serviceName + ":" + id, getPingTimeout() / 1000, regJson);
+        loachRegistry.reg(serviceName, id, regJson);
         map.setv("ok", true).setv("id", id);
         return map;
     }
@@ -85,35 +83,24 @@ public class LoachV1Module {
     @Ok("void")
     public void unreg(String serviceName, String id) {
         if (isAllowUnreg())
-            jedis().del("loach:service:" + serviceName + ":" + id);
+            loachRegistry.unreg(serviceName, id);
     }
 
     @At("/list/?")
-    @Aop("redis")
     public NutMap list(String serviceName) {
-        List<String> keys = new ArrayList<>(jedis().keys("loach:service:" + serviceName + ":*"));
-        Collections.sort(keys);
-
+        List<NutMap> services = getAllServices().get(serviceName);
         NutMap re = new NutMap();
         re.put("ok", true);
-        List<NutMap> services = new LinkedList<>();
-        for (String key : keys) {
-            String cnt = jedis().get(key);
-            if (cnt == null)
-                continue;
-            NutMap serviceInfo = Json.fromJson(NutMap.class, cnt);
-            services.add(serviceInfo);
-        }
-        re.put("data", new NutMap(serviceName, services));
+        re.put("data", new NutMap(serviceName, services == null ? Collections.emptyList() : services));
         return re;
     }
 
+    /**
+     * 直接返回快照, 响应体和ETag都是预先算好的
+     */
     @At("/list")
-    public NutMap listAll() {
-        NutMap re = new NutMap();
-        re.put("ok", true);
-        re.put("data", getAllServices());
-        return re;
+    public Object listAll() {
+        return loachRegistry.getSnapshot();
     }
 
     @Ok("raw")
@@ -143,28 +130,8 @@ public class LoachV1Module {
         return sb.toString();
     }
 
-    @Aop("redis")
     protected Map<String, List<NutMap>> getAllServices() {
-        List<String> keys = new ArrayList<>(jedis().keys("loach:service:*"));
-        Collections.sort(keys);
-        Map<String, List<NutMap>> services = new HashMap<>();
-        for (String key : keys) {
-            String[] tmp = key.split("\\:");
-            if (tmp.length != 4)
-                continue;
-            String cnt = jedis().get(key);
-            if (cnt == null)
-                continue;
-            NutMap serviceInfo = Json.fromJson(NutMap.class, cnt);
-            List<NutMap> infos = services.get(tmp[2]);
-            if (infos == null) {
-                infos = new LinkedList<>();
-                services.put(tmp[2], infos);
-            }
-            serviceInfo.put("id", tmp[3]);
-            infos.add(serviceInfo);
-        }
-        return services;
+        return loachRegistry.getSnapshot().services;
     }
 
     public int getPingTimeout() {
@@ -201,20 +168,13 @@ public class LoachV1Module {
     }
 
     @At("/info/?/?")
-    @Aop("redis")
     public NutMap info(String serviceName, String id) {
-        List<String> keys = new ArrayList<>(jedis().keys("loach:service:" + serviceName + ":" + id));
-        Collections.sort(keys);
         NutMap re = new NutMap();
         re.put("ok", true);
         List<NutMap> services = new LinkedList<>();
-        for (String key : keys) {
-            String cnt = jedis().get(key);
-            if (cnt == null)
-                continue;
-            NutMap serviceInfo = Json.fromJson(NutMap.class, cnt);
+        NutMap serviceInfo = loachRegistry.info(serviceName, id);
+        if (serviceInfo != null)
             services.add(serviceInfo);
-        }
         re.put("data", new NutMap(serviceName, services));
         return re;
     }
@@ -0,0 +1,309 @@
+package org.nutz.cloud.loach.server.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.nutz.ioc.impl.PropertiesProxy;
+import org.nutz.ioc.loader.annotation.Inject;
+import org.nutz.ioc.loader.annotation.IocBean;
+import org.nutz.integration.jedis.JedisAgent;
+import org.nutz.json.Json;
+import org.nutz.json.JsonFormat;
+import org.nutz.lang.util.NutMap;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * 带索引的服务注册表. redis中的数据结构:
+ * <ul>
+ * <li>loach:names 所有服务名的SET</li>
+ * <li>loach:reg:服务名 实例id -> 注册信息 的HASH</li>
+ * <li>loach:alive:服务名 实例id -> 过期时间(毫秒) 的ZSET, 心跳只更新分数</li>
+ * <li>loach:version 实例增减或注册信息变化时自增</li>
+ * </ul>
+ * 客户端拉取列表时只需要读一次版本号, 版本号不变就直接返回内存里的快照, 不再KEYS扫描整个库.
+ * 
+ * @author wendal
+ *
+ */
+@IocBean(create = "init", depose = "depose")
+public class LoachRegistry {
+
+    private static final Log log = Logs.get();
+
+    public static final String KEY_NAMES = "loach:names";
+
+    public static final String KEY_REG = "loach:reg:";
+
+    public static final String KEY_ALIVE = "loach:alive:";
+
+    public static final String KEY_VERSION = "loach:version";
+
+    @Inject
+    protected PropertiesProxy conf;
+
+    @Inject
+    protected JedisAgent jedisAgent;
+
+    protected JsonFormat jsonFormat = JsonFormat.compact();
+
+    protected volatile LoachSnapshot snapshot;
+
+    /**
+     * 最近的若干个快照, 用于计算增量
+     */
+    protected Map<Long, LoachSnapshot> history = new LinkedHashMap<Long, LoachSnapshot>() {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<Long, LoachSnapshot> eldest) {
+            return size() > conf.getInt("loach.server.watch.history", 32);
+        }
+    };
+
+    protected List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    protected ScheduledExecutorService sweeper;
+
+    public static interface ChangeListener {
+        void onChange(LoachSnapshot snapshot);
+    }
+
+    public void init() {
+        int interval = conf.getInt("loach.server.sweep.interval", 1000);
+        sweeper = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread t = new Thread(r, "loach.registry.sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            }
+            catch (Throwable e) {
+                log.debug("sweep fail", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        // 其他loach节点上的变更也要尽快通知到watch中的客户端, 每个节点只需要定时读一次版本号
+        int checkInterval = conf.getInt("loach.server.watch.checkInterval", 200);
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                if (!listeners.isEmpty())
+                    getSnapshot();
+            }
+            catch (Throwable e) {
+                log.debug("check version fail", e);
+            }
+        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void addListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void depose() {
+        if (sweeper != null)
+            sweeper.shutdownNow();
+    }
+
+    /**
+     * 注册或更新一个实例. 注册信息没变化的话(客户端重复注册)不会改变版本号
+     */
+    public void reg(String serviceName, String id, String regJson) {
+        try (Jedis jedis = jedisAgent.jedis()) {
+            jedis.zadd(KEY_ALIVE + serviceName, expireAt(), id);
+            String old = jedis.hget(KEY_REG + serviceName, id);
+            if (regJson.equals(old))
+                return;
+            jedis.sadd(KEY_NAMES, serviceName);
+            jedis.hset(KEY_REG + serviceName, id, regJson);
+            jedis.incr(KEY_VERSION);
+        }
+    }
+
+    /**
+     * 心跳, 实例不存在(已过期)时返回false, 客户端需要重新注册
+     */
+    public boolean ping(String serviceName, String id) {
+        try (Jedis jedis = jedisAgent.jedis()) {
+            if (jedis.zscore(KEY_ALIVE + serviceName, id) == null)
+                return false;
+            jedis.zadd(KEY_ALIVE + serviceName, expireAt(), id);
+            return true;
+        }
+    }
+
+    public void unreg(String serviceName, String id) {
+        try (Jedis jedis = jedisAgent.jedis()) {
+            remove(jedis, serviceName, id);
+        }
+    }
+
+    public NutMap info(String serviceName, String id) {
+        try (Jedis jedis = jedisAgent.jedis()) {
+            String cnt = jedis.hget(KEY_REG + serviceName, id);
+            return cnt == null ? null : toInfo(id, cnt);
+        }
+    }
+
+    /**
+     * 获取当前快照, 只读一次版本号, 版本号变化(包括倒退)了才重新加载
+     */
+    public LoachSnapshot getSnapshot() {
+        long version;
+        try (Jedis jedis = jedisAgent.jedis()) {
+            String str = jedis.get(KEY_VERSION);
+            version = str == null ? 0 : Long.parseLong(str);
+        }
+        LoachSnapshot snapshot = this.snapshot;
+        if (snapshot != null && snapshot.version == version)
+            return snapshot;
+        synchronized (this) {
+            snapshot = this.snapshot;
+            if (snapshot != null && snapshot.version == version)
+                return snapshot;
+            // 版本号倒退(redis被清空,重启或切换), 旧的历史记录属于另一条变更序列, 不能再用于计算增量
+            if (snapshot != null && snapshot.version > version)
+                history.clear();
+            // 先读版本号再读数据, 数据只会比版本号新, 不会漏掉变更
+            snapshot = load(version);
+            this.snapshot = snapshot;
+            history.put(version, snapshot);
+        }
+        for (ChangeListener listener : listeners) {
+            try {
+                listener.onChange(snapshot);
+            }
+            catch (Throwable e) {
+                log.debug("listener fail", e);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * 计算从某个版本到指定快照的增量. 注册信息有变化的实例, 同时出现在removed和added中
+     * 
+     * @return 增量, 如果旧版本已经不在历史记录中, 返回null, 调用方应返回全量
+     */
+    public NutMap diff(long fromVersion, LoachSnapshot to) {
+        LoachSnapshot from;
+        synchronized (this) {
+            from = history.get(fromVersion);
+        }
+        if (from == null)
+            return null;
+        NutMap added = new NutMap();
+        NutMap removed = new NutMap();
+        for (Map.Entry<String, List<NutMap>> en : from.services.entrySet()) {
+            List<NutMap> now = to.services.get(en.getKey());
+            Map<String, NutMap> nowIds = toIdMap(now);
+            List<String> ids = new ArrayList<>();
+            for (NutMap info : en.getValue()) {
+                NutMap cur = nowIds.get(info.getString("id"));
+                if (cur == null || !cur.equals(info))
+                    ids.add(info.getString("id"));
+            }
+            if (!ids.isEmpty())
+                removed.put(en.getKey(), ids);
+        }
+        for (Map.Entry<String, List<NutMap>> en : to.services.entrySet()) {
+            Map<String, NutMap> oldIds = toIdMap(from.services.get(en.getKey()));
+            List<NutMap> infos = new ArrayList<>();
+            for (NutMap info : en.getValue()) {
+                NutMap old = oldIds.get(info.getString("id"));
+                if (old == null || !old.equals(info))
+                    infos.add(info);
+            }
+            if (!infos.isEmpty())
+                added.put(en.getKey(), infos);
+        }
+        return new NutMap("added", added).setv("removed", removed);
+    }
+
+    protected Map<String, NutMap> toIdMap(List<NutMap> infos) {
+        Map<String, NutMap> map = new HashMap<>();
+        if (infos != null) {
+            for (NutMap info : infos)
+                map.put(info.getString("id"), info);
+        }
+        return map;
+    }
+
+    protected LoachSnapshot load(long version) {
+        Map<String, List<NutMap>> services = new HashMap<>();
+        try (Jedis jedis = jedisAgent.jedis()) {
+            long now = System.currentTimeMillis();
+            for (String serviceName : jedis.smembers(KEY_NAMES)) {
+                Map<String, String> regs = jedis.hgetAll(KEY_REG + serviceName);
+                if (regs.isEmpty())
+                    continue;
+                // 已过期但还没被清理的实例不返回
+                Set<String> expired = jedis.zrangeByScore(KEY_ALIVE + serviceName, 0, now);
+                List<String> ids = new ArrayList<>(regs.keySet());
+                Collections.sort(ids);
+                List<NutMap> infos = new ArrayList<>(ids.size());
+                for (String id : ids) {
+                    if (expired.contains(id))
+                        continue;
+                    infos.add(toInfo(id, regs.get(id)));
+                }
+                if (!infos.isEmpty())
+                    services.put(serviceName, Collections.unmodifiableList(infos));
+            }
+        }
+        NutMap re = new NutMap();
+        re.put("ok", true);
+        re.put("data", services);
+        byte[] body = Json.toJson(re, jsonFormat).getBytes(StandardCharsets.UTF_8);
+        return new LoachSnapshot(version, Collections.unmodifiableMap(services), body);
+    }
+
+    /**
+     * 清理心跳超时的实例, 每个服务一次ZRANGEBYSCORE, 与客户端数量无关
+     */
+    protected void sweep() {
+        try (Jedis jedis = jedisAgent.jedis()) {
+            long now = System.currentTimeMillis();
+            for (String serviceName : jedis.smembers(KEY_NAMES)) {
+                for (String id : jedis.zrangeByScore(KEY_ALIVE + serviceName, 0, now)) {
+                    if (log.isDebugEnabled())
+                        log.debugf("service %s:%s expired", serviceName, id);
+                    remove(jedis, serviceName, id);
+                }
+            }
+        }
+    }
+
+    protected void remove(Jedis jedis, String serviceName, String id) {
+        jedis.zrem(KEY_ALIVE + serviceName, id);
+        // 多个loach服务器同时清理时, 只有真正删掉的那个才自增版本号
+        if (jedis.hdel(KEY_REG + serviceName, id) > 0)
+            jedis.incr(KEY_VERSION);
+    }
+
+    protected NutMap toInfo(String id, String regJson) {
+        NutMap info = Json.fromJson(NutMap.class, regJson);
+        info.put("id", id);
+        return info;
+    }
+
+    protected double expireAt() {
+        return System.currentTimeMillis() + conf.getInt("loach.server.ping.timeout", 15000);
+    }
+}
@@ -0,0 +1,36 @@
+package org.nutz.cloud.loach.server.service;
+
+import java.util.List;
+import java.util.Map;
+
+import org.nutz.lang.util.NutMap;
+
+/**
+ * 某个版本的服务列表快照, 生成后只读. /list的响应体预先序列化好, 版本号不变就直接输出
+ * 
+ * @author wendal
+ *
+ */
+public class LoachSnapshot {
+
+    public final long version;
+
+    public final String etag;
+
+    /**
+     * 服务名 -> 实例列表, 实例按id排序
+     */
+    public final Map<String, List<NutMap>> services;
+
+    /**
+     * /list 的完整响应体, UTF-8
+     */
+    public final byte[] body;
+
+    public LoachSnapshot(long version, Map<String, List<NutMap>> services, byte[] body) {
+        this.version = version;
+        this.etag = "v" + version;
+        this.services = services;
+        this.body = body;
+    }
+}
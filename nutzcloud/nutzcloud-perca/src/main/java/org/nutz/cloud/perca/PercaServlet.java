@@ -10,6 +10,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.proxy.AsyncMiddleManServlet;
 import org.nutz.boot.starter.WebServletFace;
+import org.nutz.cloud.perca.impl.CacheRouteFilter;
 import org.nutz.ioc.loader.annotation.Inject;
 import org.nutz.ioc.loader.annotation.IocBean;
 import org.nutz.log.Log;
@@ -22,6 +23,11 @@ public class PercaServlet extends AsyncMiddleManServlet implements WebServletFac
 	private static final Log log = Logs.get();
 	
     public static final String NAME_ROUTE_CONCEXT = "gateway.route_context";
+
+    /**
+     * RouteFilter可以通过这个请求属性提供一个ContentTransformer, 用于读取或改写后端的响应内容
+     */
+    public static final String NAME_RESPONSE_TRANSFORMER = "gateway.response_transformer";
     
     @Inject
     protected RouteConfig routeConfig;
@@ -31,24 +37,38 @@ public class PercaServlet extends AsyncMiddleManServlet implements WebServletFac
         RouteContext ctx = new RouteContext();
         ctx.setup(clientRequest, proxyResponse);
         clientRequest.setAttribute(NAME_ROUTE_CONCEXT, ctx);
-        RouterMaster master = null;
-        for (RouterMaster tmp : routeConfig.getRouteMasters()) {
-			if (tmp.match(ctx)) {
-				master = tmp;
-				break;
-			}
-		}
+        RouterMaster master = routeConfig.match(ctx);
         if (master != null) {
-        	master.preRoute(ctx);
-        	if (ctx.respDone) {
-        		return;
+        	boolean forwarded = false;
+        	try {
+        		master.preRoute(ctx);
+        		if (ctx.respDone) {
+        			return;
+        		}
+        		super.service(clientRequest, proxyResponse);
+        		forwarded = true;
+        	}
+        	finally {
+        		// 被拦截或者出错, 不会再有postRoute, 在这里释放选中的服务器
+        		if (!forwarded) {
+        			ctx.cancelTarget();
+        			CacheRouteFilter.abandon(clientRequest);
+        		}
         	}
-        	super.service(clientRequest, proxyResponse);
         }
         else {
         	proxyResponse.sendError(404);
         }
     }
+
+    @Override
+    protected void onProxyRewriteFailed(HttpServletRequest clientRequest, HttpServletResponse proxyResponse) {
+        RouteContext ctx = (RouteContext) clientRequest.getAttribute(NAME_ROUTE_CONCEXT);
+        if (ctx != null)
+            ctx.cancelTarget();
+        CacheRouteFilter.abandon(clientRequest);
+        super.onProxyRewriteFailed(clientRequest, proxyResponse);
+    }
     
     @Override
     protected String rewriteTarget(HttpServletRequest clientRequest) {
@@ -94,6 +114,14 @@ public class PercaServlet extends AsyncMiddleManServlet implements WebServletFac
     	return true;
     }
     
+    @Override
+    protected ContentTransformer newServerResponseContentTransformer(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse) {
+        Object transformer = clientRequest.getAttribute(NAME_RESPONSE_TRANSFORMER);
+        if (transformer instanceof ContentTransformer)
+            return (ContentTransformer) transformer;
+        return super.newServerResponseContentTransformer(clientRequest, proxyResponse, serverResponse);
+    }
+    
     @Override
     protected void onProxyResponseFailure(HttpServletRequest clientRequest, HttpServletResponse proxyResponse,
     		Response serverResponse, Throwable failure) {
@@ -35,9 +35,18 @@ public class RouteConfig {
     
     protected List<RouterMaster> masters = new LinkedList<>();
 
+    protected volatile RouteIndex index = new RouteIndex(masters);
+
     public List<RouterMaster> getRouteMasters() {
         return masters;
     }
+
+    /**
+     * 通过路由索引查找匹配的RouterMaster, 没有匹配的话返回null
+     */
+    public RouterMaster match(RouteContext ctx) {
+        return index.match(ctx);
+    }
     
     public void reload() throws Exception {
     	List<RouterMaster> masters = new LinkedList<>();
@@ -53,6 +62,7 @@ public class RouteConfig {
         log.debugf("master count=%d", masters.size());
         Collections.sort(masters);
         List<RouterMaster> oldMasters = this.masters;
+        this.index = new RouteIndex(masters);
         this.masters = masters;
         if (oldMasters != null && oldMasters.size() > 0) {
         	for (RouterMaster routerMaster : oldMasters) {
@@ -7,6 +7,8 @@ import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.nutz.boot.loadbalance.ServerStats;
+
 public class RouteContext {
 
     public String method;
@@ -21,6 +23,12 @@ public class RouteContext {
     public String matchedPrefix;
     public String serviceName;
     
+    /**
+     * 选中的目标服务器统计信息及开始转发的时间, 响应结束后用于更新延迟和失败计数
+     */
+    public ServerStats targetStats;
+    public long targetStartTime;
+    
     public String rewritedTarget;
     
     public int connectTimeOut, sendTimeOut, readTimeOut;
@@ -34,6 +42,24 @@ public class RouteContext {
     public boolean respFail;
     public boolean respDone;
     
+    /**
+     * 取出并清除选中的目标服务器统计信息, 保证每个请求的onStart只对应一次结束
+     */
+    public synchronized ServerStats takeTargetStats() {
+        ServerStats stats = targetStats;
+        targetStats = null;
+        return stats;
+    }
+
+    /**
+     * 请求没有转发到目标服务器就结束了, 释放选中服务器的并发计数
+     */
+    public void cancelTarget() {
+        ServerStats stats = takeTargetStats();
+        if (stats != null)
+            stats.onCancel();
+    }
+    
     public void setup(HttpServletRequest req, HttpServletResponse resp) {
         method = req.getMethod().toUpperCase();
         uri = req.getRequestURI();
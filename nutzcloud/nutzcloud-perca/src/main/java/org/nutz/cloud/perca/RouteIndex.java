@@ -0,0 +1,131 @@
+package org.nutz.cloud.perca;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 路由索引, 配置加载时生成, 之后只读.
+ * <p/>
+ * 域名走哈希表, uri前缀走字典树, 两者求交集后只对候选的RouterMaster执行完整的match(过滤器,正则等),
+ * 候选者按原有的优先级顺序依次尝试, 因此匹配结果与逐个扫描完全一致.
+ * 
+ * @author wendal
+ *
+ */
+public class RouteIndex {
+
+	protected final RouterMaster[] masters;
+
+	/**
+	 * 域名 -> 配置了该域名的RouterMaster
+	 */
+	protected final Map<String, BitSet> hosts = new HashMap<>();
+
+	/**
+	 * 没有限制域名的RouterMaster
+	 */
+	protected final BitSet anyHost = new BitSet();
+
+	/**
+	 * 没有限制uri前缀的RouterMaster
+	 */
+	protected final BitSet anyPrefix = new BitSet();
+
+	protected final Node root = new Node();
+
+	public RouteIndex(List<RouterMaster> list) {
+		masters = list.toArray(new RouterMaster[list.size()]);
+		for (int i = 0; i < masters.length; i++) {
+			RouterMaster master = masters[i];
+			if (master.hostnames == null) {
+				anyHost.set(i);
+			} else {
+				for (String hostname : master.hostnames) {
+					hosts.computeIfAbsent(hostname, (key) -> new BitSet()).set(i);
+				}
+			}
+			if (master.uriPrefixs == null) {
+				anyPrefix.set(i);
+			} else {
+				for (String prefix : master.uriPrefixs) {
+					Node node = root;
+					for (int j = 0; j < prefix.length(); j++) {
+						node = node.child(prefix.charAt(j), true);
+					}
+					if (node.masters == null)
+						node.masters = new BitSet();
+					node.masters.set(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 按优先级找出第一个匹配的RouterMaster
+	 */
+	public RouterMaster match(RouteContext ctx) {
+		BitSet candidates = (BitSet) anyPrefix.clone();
+		String uri = ctx.uri;
+		Node node = root;
+		if (node.masters != null)
+			candidates.or(node.masters);
+		for (int i = 0; i < uri.length(); i++) {
+			node = node.child(uri.charAt(i), false);
+			if (node == null)
+				break;
+			if (node.masters != null)
+				candidates.or(node.masters);
+		}
+		BitSet byHost = ctx.host == null ? null : hosts.get(ctx.host);
+		if (byHost == null) {
+			candidates.and(anyHost);
+		} else {
+			BitSet tmp = (BitSet) anyHost.clone();
+			tmp.or(byHost);
+			candidates.and(tmp);
+		}
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			if (masters[i].match(ctx))
+				return masters[i];
+		}
+		return null;
+	}
+
+	protected static class Node {
+
+		protected char[] keys;
+
+		protected Node[] children;
+
+		protected BitSet masters;
+
+		/**
+		 * 子节点一般很少, 线性查找比HashMap更快也更省内存
+		 */
+		protected Node child(char c, boolean create) {
+			if (keys != null) {
+				for (int i = 0; i < keys.length; i++) {
+					if (keys[i] == c)
+						return children[i];
+				}
+			}
+			if (!create)
+				return null;
+			Node node = new Node();
+			int len = keys == null ? 0 : keys.length;
+			char[] nkeys = new char[len + 1];
+			Node[] nchildren = new Node[len + 1];
+			if (len > 0) {
+				System.arraycopy(keys, 0, nkeys, 0, len);
+				System.arraycopy(children, 0, nchildren, 0, len);
+			}
+			nkeys[len] = c;
+			nchildren[len] = node;
+			keys = nkeys;
+			children = nchildren;
+			return node;
+		}
+	}
+}
@@ -74,6 +74,9 @@ public class RouterMaster implements Comparable<RouterMaster> {
 		ctx.rmaster = this;
 		for (RouteFilter filter : filters) {
 			filter.preRoute(ctx);
+			// 已经响应了(例如命中缓存或被熔断), 后续的过滤器不需要再执行
+			if (ctx.respDone)
+				break;
 		}
 	}
 	
@@ -131,6 +134,9 @@ public class RouterMaster implements Comparable<RouterMaster> {
     		case "sentinel":
     			filter = new SentinelFilter();
     			break;
+    		case "cache":
+    			filter = new CacheRouteFilter();
+    			break;
     		case "hide-real-url":
 				filter = new HideRealUrlFilter();
 				break;
@@ -1,13 +1,18 @@
 package org.nutz.cloud.perca.impl;
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import org.nutz.boot.loadbalance.LoadBalancer;
+import org.nutz.boot.loadbalance.LoadBalancers;
+import org.nutz.boot.loadbalance.OutlierDetector;
+import org.nutz.boot.loadbalance.ServerStats;
 import org.nutz.cloud.perca.RouteContext;
 import org.nutz.cloud.perca.RouteFilter;
 import org.nutz.ioc.Ioc;
 import org.nutz.ioc.impl.PropertiesProxy;
-import org.nutz.lang.random.R;
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
 
@@ -21,9 +26,28 @@ public abstract class AbstractServerSelectorFilter implements RouteFilter, AutoC
 
 	protected List<TargetServerInfo> targetServers;
 
+	protected LoadBalancer loadBalancer;
+
+	protected OutlierDetector outlierDetector;
+
+	protected String hashKey;
+
+	/**
+	 * 上一次转换的服务器列表及对应的统计信息, 列表不变就不用重新转换
+	 */
+	protected volatile StatsCache statsCache;
+
 	public void setPropertiesProxy(Ioc ioc, PropertiesProxy conf, String prefix) throws Exception {
 		this.name = prefix;
 		serviceName = conf.get(prefix + ".serviceName");
+		// 负载均衡算法: random(默认), round-robin, least-active, p2c-ewma, consistent-hash
+		loadBalancer = LoadBalancers.create(conf.get(prefix + ".lb", "random"));
+		// 一致性hash所用的key, 可选 ip 或 header名称, 默认按客户端ip
+		hashKey = conf.get(prefix + ".lb.hashKey", "ip");
+		// 连续失败(连接失败或5xx)多少次后暂时摘除该服务器, 0代表不摘除
+		outlierDetector = new OutlierDetector(conf.getInt(prefix + ".outlier.failures", 5),
+		                                      conf.getLong(prefix + ".outlier.ejectTime", 10000),
+		                                      conf.getLong(prefix + ".outlier.maxEjectTime", 300000));
 	}
 
 	@Override
@@ -40,11 +64,13 @@ public abstract class AbstractServerSelectorFilter implements RouteFilter, AutoC
 	protected boolean selectTargetServer(RouteContext ctx, List<TargetServerInfo> infos) {
 		if (infos == null || infos.isEmpty())
 			return false;
-		int index = R.random(0, infos.size() - 1); // 支持各种算法
-		if (index == infos.size()) {
-			index = infos.size() - 1;
-		}
-		TargetServerInfo info = infos.get(index);
+		ServerStats stats = loadBalancer.select(toStats(infos), getHashKey(ctx));
+		TargetServerInfo info = (TargetServerInfo) stats.server;
+		// 同一个请求经过多个选择服务器的过滤器时, 先释放上一次选中的
+		ctx.cancelTarget();
+		ctx.targetStartTime = System.nanoTime();
+		stats.onStart();
+		ctx.targetStats = stats;
 		ctx.targetHost = info.host;
 		if (info.port > 0)
 			ctx.targetPort = info.port;
@@ -53,6 +79,59 @@ public abstract class AbstractServerSelectorFilter implements RouteFilter, AutoC
 		return true;
 	}
 
+	@Override
+	public void postRoute(RouteContext ctx) throws IOException {
+		ServerStats stats = ctx.takeTargetStats();
+		if (stats == null)
+			return;
+		long time = System.nanoTime() - ctx.targetStartTime;
+		if (ctx.respFail || ctx.resp.getStatus() >= 502)
+			outlierDetector.onFailure(stats, time);
+		else
+			outlierDetector.onSuccess(stats, time);
+	}
+
+	protected ServerStats[] toStats(List<TargetServerInfo> infos) {
+		StatsCache cache = this.statsCache;
+		if (cache != null && cache.infos == infos)
+			return cache.stats;
+		ServerStats[] stats = new ServerStats[infos.size()];
+		Set<String> ids = new HashSet<>();
+		for (int i = 0; i < stats.length; i++) {
+			TargetServerInfo info = infos.get(i);
+			stats[i] = outlierDetector.get(info.host + ":" + info.port);
+			stats[i].server = info;
+			ids.add(stats[i].id);
+		}
+		this.statsCache = new StatsCache(infos, stats);
+		// 服务器列表变了, 移除已下线服务器的统计信息
+		if (cache != null) {
+			for (ServerStats st : cache.stats) {
+				if (!ids.contains(st.id))
+					outlierDetector.remove(st.id);
+			}
+		}
+		return stats;
+	}
+
+	protected Object getHashKey(RouteContext ctx) {
+		if (!"consistent-hash".equals(loadBalancer.getName()))
+			return null;
+		if ("ip".equals(hashKey))
+			return ctx.req.getRemoteAddr();
+		return ctx.headers.get(hashKey);
+	}
+
+	protected static class StatsCache {
+		protected final List<TargetServerInfo> infos;
+		protected final ServerStats[] stats;
+
+		protected StatsCache(List<TargetServerInfo> infos, ServerStats[] stats) {
+			this.infos = infos;
+			this.stats = stats;
+		}
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -0,0 +1,432 @@
+package org.nutz.cloud.perca.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.proxy.AsyncMiddleManServlet.ContentTransformer;
+import org.nutz.cloud.perca.PercaServlet;
+import org.nutz.cloud.perca.RouteContext;
+import org.nutz.cloud.perca.RouteFilter;
+import org.nutz.ioc.Ioc;
+import org.nutz.ioc.impl.PropertiesProxy;
+import org.nutz.lang.Strings;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+/**
+ * 缓存幂等GET请求的响应, 命中时在preRoute直接返回, 不再转发.
+ * <p/>
+ * 必须放在选择服务器的Filter之前, 例如 gw.catalog.filters=cache,loach
+ * <p/>
+ * 配置示例
+ * 
+ * <pre>
+ * gw.catalog.cache.prefixs=/api/catalog,/api/config
+ * gw.catalog.cache.ttl=30
+ * gw.catalog.cache.maxSize=67108864
+ * gw.catalog.cache.maxEntrySize=1048576
+ * </pre>
+ * 
+ * 响应带Cache-Control的话, 以s-maxage/max-age为准, no-store/private/no-cache不缓存. 带Set-Cookie的响应不缓存.
+ * 请求带Authorization或Cookie时, 只使用及保存明确声明public或s-maxage的响应.
+ * 同一个key的并发未命中请求只有一个会转发到后端, 其余的挂起等待结果.
+ * 
+ * @author wendal
+ *
+ */
+public class CacheRouteFilter implements RouteFilter {
+
+	private static final Log log = Logs.get();
+
+	public static final String ATTR_CAPTURE = "perca.cache.capture";
+
+	public static final String ATTR_BYPASS = "perca.cache.bypass";
+
+	protected static final String[] SKIP_HEADERS = {"Connection", "Keep-Alive", "Transfer-Encoding", "Content-Length", "Date", "Set-Cookie"};
+
+	protected String name;
+
+	protected String[] prefixs;
+
+	/**
+	 * 后端没有给出Cache-Control时的缓存时长, 单位毫秒
+	 */
+	protected long ttl;
+
+	protected long maxSize;
+
+	protected int maxEntrySize;
+
+	protected long currentSize;
+
+	protected LinkedHashMap<String, CachedResponse> store = new LinkedHashMap<>(64, 0.75f, true);
+
+	protected ConcurrentHashMap<String, Flight> inflight = new ConcurrentHashMap<>();
+
+	@Override
+	public void setPropertiesProxy(Ioc ioc, PropertiesProxy conf, String prefix) throws Exception {
+		this.name = prefix;
+		String str = conf.get(prefix + ".cache.prefixs");
+		if (!Strings.isBlank(str))
+			prefixs = Strings.splitIgnoreBlank(str, "(;|,)");
+		ttl = conf.getLong(prefix + ".cache.ttl", 60) * 1000;
+		maxSize = conf.getLong(prefix + ".cache.maxSize", 64 * 1024 * 1024);
+		maxEntrySize = conf.getInt(prefix + ".cache.maxEntrySize", 1024 * 1024);
+	}
+
+	@Override
+	public boolean preRoute(RouteContext ctx) throws IOException {
+		if (!"GET".equals(ctx.method) || ctx.req.getAttribute(ATTR_BYPASS) != null || !matchPrefix(ctx.uri))
+			return true;
+		String cacheControl = ctx.req.getHeader("Cache-Control");
+		if (cacheControl != null && (cacheControl.contains("no-cache") || cacheControl.contains("no-store")))
+			return true;
+		String key = key(ctx);
+		boolean credentialed = isCredentialed(ctx.req);
+		CachedResponse cached = get(key);
+		if (cached != null && (cached.shared || !credentialed)) {
+			write(ctx.req.getHeader("If-None-Match"), ctx.resp, cached);
+			ctx.respDone = true;
+			return true;
+		}
+		long now = System.currentTimeMillis();
+		Flight flight = new Flight(key, now + ctx.connectTimeOut + ctx.readTimeOut);
+		if (credentialed) {
+			// 带身份的请求不与其他请求合并, 响应只有声明为public/s-maxage时才缓存
+			Capture capture = new Capture(this, key, flight, maxEntrySize);
+			capture.credentialed = true;
+			ctx.req.setAttribute(ATTR_CAPTURE, capture);
+			ctx.req.setAttribute(PercaServlet.NAME_RESPONSE_TRANSFORMER, capture);
+			return true;
+		}
+		Flight exist = inflight.putIfAbsent(key, flight);
+		// 上一个请求可能根本没有转发出去(例如没有可用的服务器), 过期了就取而代之
+		if (exist != null && exist.deadline < now && inflight.replace(key, exist, flight))
+			exist = null;
+		if (exist == null) {
+			// 由当前请求去后端取数据, PercaServlet会把响应内容复制一份到capture
+			Capture capture = new Capture(this, key, flight, maxEntrySize);
+			ctx.req.setAttribute(ATTR_CAPTURE, capture);
+			ctx.req.setAttribute(PercaServlet.NAME_RESPONSE_TRANSFORMER, capture);
+			return true;
+		}
+		AsyncContext ac = ctx.req.startAsync();
+		if (!exist.park(ac)) {
+			// 刚好完成了, 直接转发
+			ctx.req.setAttribute(ATTR_BYPASS, true);
+			ac.dispatch();
+			ctx.respDone = true;
+			return true;
+		}
+		ac.setTimeout(Math.max(exist.deadline - now, 1000));
+		ac.addListener(new AsyncListener() {
+			public void onTimeout(AsyncEvent event) throws IOException {
+				if (exist.unpark(ac)) {
+					ac.getRequest().setAttribute(ATTR_BYPASS, true);
+					ac.dispatch();
+				}
+			}
+
+			public void onError(AsyncEvent event) throws IOException {
+				exist.unpark(ac);
+			}
+
+			public void onComplete(AsyncEvent event) throws IOException {}
+
+			public void onStartAsync(AsyncEvent event) throws IOException {}
+		});
+		ctx.respDone = true;
+		return true;
+	}
+
+	@Override
+	public void postRoute(RouteContext ctx) throws IOException {
+		Capture capture = (Capture) ctx.req.getAttribute(ATTR_CAPTURE);
+		if (capture == null)
+			return;
+		ctx.req.removeAttribute(ATTR_CAPTURE);
+		CachedResponse cached = null;
+		try {
+			if (!ctx.respFail && !capture.overflow)
+				cached = toCached(ctx.resp, capture.buf.toByteArray(), capture.credentialed);
+			if (cached != null)
+				put(capture.key, cached);
+		}
+		finally {
+			if (cached == null)
+				abandon(capture); // 不能缓存, 各自转发
+			else
+				release(capture, cached);
+		}
+	}
+
+	/**
+	 * 把缓存好的响应写给挂起等待的请求
+	 */
+	protected void release(Capture capture, CachedResponse cached) {
+		inflight.remove(capture.key, capture.flight);
+		for (AsyncContext ac : capture.flight.finish()) {
+			ac.start(() -> {
+				try {
+					String etag = ((HttpServletRequest) ac.getRequest()).getHeader("If-None-Match");
+					write(etag, (HttpServletResponse) ac.getResponse(), cached);
+				}
+				catch (Throwable e) {
+					log.debug("write cached response fail", e);
+				}
+				finally {
+					ac.complete();
+				}
+			});
+		}
+	}
+
+	/**
+	 * 请求没有转发出去就结束了(被后续的过滤器拦截, 出错, 或者改写地址失败), 不会再有postRoute.
+	 * 由PercaServlet调用, 让挂起等待的相同请求立即各自转发, 而不是等到超时
+	 */
+	public static void abandon(HttpServletRequest req) {
+		Capture capture = (Capture) req.getAttribute(ATTR_CAPTURE);
+		if (capture == null)
+			return;
+		req.removeAttribute(ATTR_CAPTURE);
+		capture.owner.abandon(capture);
+	}
+
+	protected void abandon(Capture capture) {
+		inflight.remove(capture.key, capture.flight);
+		for (AsyncContext ac : capture.flight.finish()) {
+			ac.getRequest().setAttribute(ATTR_BYPASS, true);
+			ac.dispatch();
+		}
+	}
+
+	/**
+	 * 带Authorization或Cookie的请求, 响应可能因人而异
+	 */
+	protected boolean isCredentialed(HttpServletRequest req) {
+		return req.getHeader("Authorization") != null || req.getHeader("Cookie") != null;
+	}
+
+	/**
+	 * @param credentialed
+	 *            请求是否带身份信息, 是的话只缓存明确声明public或s-maxage的响应
+	 */
+	protected CachedResponse toCached(HttpServletResponse resp, byte[] body, boolean credentialed) {
+		if (resp.getStatus() != 200 || resp.getHeader("Set-Cookie") != null)
+			return null;
+		String vary = resp.getHeader("Vary");
+		if (vary != null && !vary.trim().equalsIgnoreCase("Accept-Encoding"))
+			return null;
+		long maxAge = ttl;
+		String cacheControl = resp.getHeader("Cache-Control");
+		boolean shared = cacheControl != null && (cacheControl.contains("public") || cacheControl.contains("s-maxage="));
+		if (credentialed && !shared)
+			return null;
+		if (cacheControl != null) {
+			if (cacheControl.contains("no-store") || cacheControl.contains("private") || cacheControl.contains("no-cache"))
+				return null;
+			long sec = parseMaxAge(cacheControl, "s-maxage=");
+			if (sec < 0)
+				sec = parseMaxAge(cacheControl, "max-age=");
+			if (sec >= 0)
+				maxAge = sec * 1000;
+		}
+		if (maxAge <= 0)
+			return null;
+		CachedResponse cached = new CachedResponse();
+		cached.status = resp.getStatus();
+		cached.body = body;
+		cached.expireAt = System.currentTimeMillis() + maxAge;
+		cached.etag = resp.getHeader("ETag");
+		cached.shared = shared;
+		List<String[]> headers = new ArrayList<>();
+		out: for (String name : resp.getHeaderNames()) {
+			for (String skip : SKIP_HEADERS) {
+				if (skip.equalsIgnoreCase(name))
+					continue out;
+			}
+			for (String value : resp.getHeaders(name))
+				headers.add(new String[]{name, value});
+		}
+		cached.headers = headers;
+		return cached;
+	}
+
+	protected static long parseMaxAge(String cacheControl, String key) {
+		int index = cacheControl.indexOf(key);
+		if (index < 0)
+			return -1;
+		int start = index + key.length();
+		int end = start;
+		while (end < cacheControl.length() && Character.isDigit(cacheControl.charAt(end)))
+			end++;
+		if (end == start)
+			return -1;
+		return Long.parseLong(cacheControl.substring(start, end));
+	}
+
+	protected void write(String ifNoneMatch, HttpServletResponse resp, CachedResponse cached) throws IOException {
+		for (String[] header : cached.headers)
+			resp.addHeader(header[0], header[1]);
+		resp.setHeader("X-Perca-Cache", "HIT");
+		if (cached.etag != null && cached.etag.equals(ifNoneMatch)) {
+			resp.setStatus(304);
+			return;
+		}
+		resp.setStatus(cached.status);
+		resp.setContentLength(cached.body.length);
+		resp.getOutputStream().write(cached.body);
+	}
+
+	protected boolean matchPrefix(String uri) {
+		if (prefixs == null)
+			return true;
+		for (String prefix : prefixs) {
+			if (uri.startsWith(prefix))
+				return true;
+		}
+		return false;
+	}
+
+	protected String key(RouteContext ctx) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(ctx.host).append(ctx.uri);
+		if (ctx.queryString != null)
+			sb.append('?').append(ctx.queryString);
+		String encoding = ctx.req.getHeader("Accept-Encoding");
+		if (encoding != null)
+			sb.append('|').append(encoding);
+		return sb.toString();
+	}
+
+	protected synchronized CachedResponse get(String key) {
+		CachedResponse cached = store.get(key);
+		if (cached != null && cached.expireAt < System.currentTimeMillis()) {
+			store.remove(key);
+			currentSize -= cached.body.length;
+			return null;
+		}
+		return cached;
+	}
+
+	protected synchronized void put(String key, CachedResponse cached) {
+		CachedResponse old = store.put(key, cached);
+		if (old != null)
+			currentSize -= old.body.length;
+		currentSize += cached.body.length;
+		// 按最近最少使用淘汰, 直到总大小不超过上限
+		Iterator<CachedResponse> it = store.values().iterator();
+		while (currentSize > maxSize && it.hasNext()) {
+			currentSize -= it.next().body.length;
+			it.remove();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getType() {
+		return "cache";
+	}
+
+	public synchronized void close() {
+		store.clear();
+		currentSize = 0;
+	}
+
+	protected static class CachedResponse {
+		protected int status;
+		protected List<String[]> headers;
+		protected byte[] body;
+		protected String etag;
+		protected long expireAt;
+		/**
+		 * 响应声明了public或s-maxage, 可以提供给带身份信息的请求
+		 */
+		protected boolean shared;
+	}
+
+	/**
+	 * 正在转发中的请求, 相同key的后来者挂在这里
+	 */
+	protected static class Flight {
+		protected final String key;
+		protected final long deadline;
+		protected List<AsyncContext> waiters = new ArrayList<>();
+		protected boolean done;
+
+		protected Flight(String key, long deadline) {
+			this.key = key;
+			this.deadline = deadline;
+		}
+
+		protected synchronized boolean park(AsyncContext ac) {
+			if (done)
+				return false;
+			waiters.add(ac);
+			return true;
+		}
+
+		protected synchronized boolean unpark(AsyncContext ac) {
+			return waiters.remove(ac);
+		}
+
+		protected synchronized Collection<AsyncContext> finish() {
+			done = true;
+			List<AsyncContext> re = waiters;
+			waiters = new ArrayList<>();
+			return re;
+		}
+	}
+
+	/**
+	 * 在转发响应内容的同时复制一份, 超过单条上限就放弃缓存
+	 */
+	protected static class Capture implements ContentTransformer {
+		protected final CacheRouteFilter owner;
+		protected final String key;
+		protected final Flight flight;
+		protected final int max;
+		protected ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		protected boolean overflow;
+		protected boolean credentialed;
+
+		protected Capture(CacheRouteFilter owner, String key, Flight flight, int max) {
+			this.owner = owner;
+			this.key = key;
+			this.flight = flight;
+			this.max = max;
+		}
+
+		public void transform(ByteBuffer input, boolean finished, List<ByteBuffer> output) throws IOException {
+			if (!overflow && input.hasRemaining()) {
+				if (buf.size() + input.remaining() > max) {
+					overflow = true;
+					buf = new ByteArrayOutputStream(0);
+				} else {
+					ByteBuffer tmp = input.duplicate();
+					byte[] bytes = new byte[tmp.remaining()];
+					tmp.get(bytes);
+					buf.write(bytes);
+				}
+			}
+			output.add(input);
+		}
+	}
+
+}